@@ -0,0 +1,125 @@
+package me.lihongyu.utils.parser;
+
+import com.google.protobuf.ByteOutput;
+import com.google.protobuf.ByteString;
+import com.google.protobuf.UnsafeByteOperations;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Encode a ByteString by base64 straight from the arrays backing it into the destination of the subclass,
+ * so a slice of the input is encoded without being copied out first, and the chars are never buffered in between.
+ *
+ * @author jared
+ * @date 2026/10/17
+ */
+abstract class Base64ByteOutput extends ByteOutput {
+    private static final char[] BASE64 = ("ABCDEFGHIJKLMNOPQRSTUVWXYZ" + "abcdefghijklmnopqrstuvwxyz" + "0123456789+/")
+        .toCharArray();
+
+    /**
+     * bytes not encoded yet, fewer than 3
+     */
+    private int pending;
+    private int pendingCount;
+
+    /**
+     * @param bytes
+     * @return standard base64 with padding, the same as Base64.getEncoder().encodeToString(bytes.toByteArray())
+     */
+    static String encode(ByteString bytes) {
+        CharArrayOutput output = new CharArrayOutput(bytes.size());
+        try {
+            output.writeBase64(bytes);
+        } catch (IOException e) {
+            //never happens when writing to memory
+            throw new IllegalStateException(e);
+        }
+        return new String(output.chars);
+    }
+
+    /**
+     * put the standard base64 chars of the bytes, with padding
+     *
+     * @param value
+     * @throws IOException if the destination fails
+     */
+    final void writeBase64(ByteString value) throws IOException {
+        pending = 0;
+        pendingCount = 0;
+        UnsafeByteOperations.unsafeWriteTo(value, this);
+        if (pendingCount == 1) {
+            put(BASE64[pending >>> 2]);
+            put(BASE64[(pending & 0x3) << 4]);
+            put('=');
+            put('=');
+        } else if (pendingCount == 2) {
+            put(BASE64[pending >>> 10]);
+            put(BASE64[(pending >>> 4) & 0x3F]);
+            put(BASE64[(pending & 0xF) << 2]);
+            put('=');
+        }
+    }
+
+    /**
+     * @param c ascii char
+     * @throws IOException if the destination fails
+     */
+    abstract void put(char c) throws IOException;
+
+    @Override
+    public final void write(byte value) throws IOException {
+        pending = (pending << 8) | (value & 0xFF);
+        if (++pendingCount == 3) {
+            put(BASE64[pending >>> 18]);
+            put(BASE64[(pending >>> 12) & 0x3F]);
+            put(BASE64[(pending >>> 6) & 0x3F]);
+            put(BASE64[pending & 0x3F]);
+            pending = 0;
+            pendingCount = 0;
+        }
+    }
+
+    @Override
+    public final void write(byte[] value, int offset, int length) throws IOException {
+        for (int i = offset; i < offset + length; i++) {
+            write(value[i]);
+        }
+    }
+
+    @Override
+    public final void writeLazy(byte[] value, int offset, int length) throws IOException {
+        //the array is only read before returning, so it is safe to use it without copying
+        write(value, offset, length);
+    }
+
+    @Override
+    public final void write(ByteBuffer value) throws IOException {
+        for (int i = value.position(); i < value.limit(); i++) {
+            write(value.get(i));
+        }
+    }
+
+    @Override
+    public final void writeLazy(ByteBuffer value) throws IOException {
+        write(value);
+    }
+
+    /**
+     * chars put into an array of the exact length
+     */
+    private static final class CharArrayOutput extends Base64ByteOutput {
+        private final char[] chars;
+        private int length;
+
+        private CharArrayOutput(int size) {
+            this.chars = new char[(size + 2) / 3 * 4];
+        }
+
+        @Override
+        void put(char c) {
+            chars[length++] = c;
+        }
+    }
+}
@@ -0,0 +1,182 @@
+package me.lihongyu.utils.parser;
+
+import com.google.protobuf.ByteString;
+import com.google.protobuf.UnsafeByteOperations;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+
+/**
+ * Decode base64 chars on demand, so the pb reader pulls bytes into its own buffer chunk by chunk
+ * and the chars after the last field needed are never decoded at all.
+ *
+ * Both the standard alphabet ('+', '/') and the URL-safe one ('-', '_') are accepted,
+ * line separators and other whitespace (MIME) are ignored, and the padding is optional,
+ * but the last quantum must have at least 2 chars, a single one is not a whole byte,
+ * and nothing but whitespace may follow the padding.
+ *
+ * @author jared
+ * @date 2026/10/17
+ */
+final class Base64InputStream extends InputStream {
+    private static final int ILLEGAL = -1;
+    private static final int IGNORED = -2;
+    private static final int PADDING = -3;
+    /**
+     * char -> 6 bits it stands for, or one of the negative marks above
+     */
+    private static final int[] SEXTETS = new int[128];
+
+    static {
+        Arrays.fill(SEXTETS, ILLEGAL);
+        String alphabet = "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789";
+        for (int i = 0; i < alphabet.length(); i++) {
+            SEXTETS[alphabet.charAt(i)] = i;
+        }
+        SEXTETS['+'] = SEXTETS['-'] = 62;
+        SEXTETS['/'] = SEXTETS['_'] = 63;
+        SEXTETS['\r'] = SEXTETS['\n'] = SEXTETS[' '] = SEXTETS['\t'] = IGNORED;
+        SEXTETS['='] = PADDING;
+    }
+
+    private final CharSequence chars;
+    private final int end;
+    private int pos;
+    /**
+     * decoded bits not returned yet, the lowest bitCount bits are valid
+     */
+    private int bits;
+    private int bitCount;
+    private final byte[] single = new byte[1];
+
+    Base64InputStream(CharSequence chars) {
+        this.chars = chars;
+        this.end = chars.length();
+    }
+
+    /**
+     * decode all chars at once, for the input too short to be worth streaming
+     *
+     * @param chars base64 chars
+     * @return decoded bytes
+     * @throws IllegalArgumentException if there is a char out of the alphabets
+     * @throws IOException              if the last quantum is incomplete, or there is data after the padding
+     */
+    static ByteString decode(CharSequence chars) throws IOException {
+        //every 4 chars are 3 bytes and the last 2 or 3 chars are 1 or 2 bytes
+        byte[] bytes = new byte[chars.length() / 4 * 3 + 2];
+        int length = new Base64InputStream(chars).decode(bytes, 0, bytes.length);
+        //the array is never modified or exposed, so it is safe to wrap it without copying
+        return UnsafeByteOperations.unsafeWrap(bytes, 0, length);
+    }
+
+    @Override
+    public int read() throws IOException {
+        return decode(single, 0, 1) == 0 ? -1 : single[0] & 0xFF;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (len == 0) {
+            return 0;
+        }
+        int n = decode(b, off, len);
+        return n == 0 ? -1 : n;
+    }
+
+    @Override
+    public long skip(long n) throws IOException {
+        //skipped bytes are decoded without being stored, just to know where they end
+        return n <= 0 ? 0 : decode(null, 0, (int)Math.min(n, Integer.MAX_VALUE));
+    }
+
+    @Override
+    public int available() {
+        return (end - pos) / 4 * 3 + bitCount / 8;
+    }
+
+    /**
+     * @param b   where to store the bytes, null to drop them
+     * @param off
+     * @param len max count of bytes to decode
+     * @return count of decoded bytes, less than len only at the end
+     * @throws IOException if the last quantum is incomplete, or there is data after the padding
+     */
+    private int decode(byte[] b, int off, int len) throws IOException {
+        int n = 0;
+        while (n < len) {
+            if (bitCount >= 8) {
+                bitCount -= 8;
+                if (b != null) {
+                    b[off + n] = (byte)(bits >> bitCount);
+                }
+                n++;
+                continue;
+            }
+            //fast path: a whole quantum of 4 chars to 3 bytes
+            if (bitCount == 0 && len - n >= 3 && end - pos >= 4) {
+                int s0 = sextet(chars.charAt(pos));
+                int s1 = sextet(chars.charAt(pos + 1));
+                int s2 = sextet(chars.charAt(pos + 2));
+                int s3 = sextet(chars.charAt(pos + 3));
+                if ((s0 | s1 | s2 | s3) >= 0) {
+                    if (b != null) {
+                        int quantum = s0 << 18 | s1 << 12 | s2 << 6 | s3;
+                        b[off + n] = (byte)(quantum >> 16);
+                        b[off + n + 1] = (byte)(quantum >> 8);
+                        b[off + n + 2] = (byte)quantum;
+                    }
+                    pos += 4;
+                    n += 3;
+                    continue;
+                }
+            }
+            if (pos == end) {
+                checkLastQuantum();
+                break;
+            }
+            char c = chars.charAt(pos++);
+            int s = sextet(c);
+            if (s >= 0) {
+                bits = (bits << 6 | s) & 0x3FFF;
+                bitCount += 6;
+            } else if (s == PADDING) {
+                //the bits left are just the padding of the last byte
+                checkLastQuantum();
+                checkAfterPadding();
+                pos = end;
+                bitCount = 0;
+            } else if (s == ILLEGAL) {
+                throw new IllegalArgumentException("Illegal base64 character " + Integer.toString(c, 16));
+            }
+        }
+        return n;
+    }
+
+    /**
+     * a single char left is 6 bits, less than a byte, so the input is truncated or has a stray char
+     */
+    private void checkLastQuantum() throws IOException {
+        if (bitCount == 6) {
+            throw new IOException("Incomplete base64 quantum at the end, a single char is left");
+        }
+    }
+
+    /**
+     * nothing but whitespace and more padding may follow the padding, otherwise data would be dropped silently
+     */
+    private void checkAfterPadding() throws IOException {
+        for (int i = pos; i < end; i++) {
+            int s = sextet(chars.charAt(i));
+            if (s != PADDING && s != IGNORED) {
+                throw new IOException("Illegal base64 character " + Integer.toString(chars.charAt(i), 16)
+                    + " after the padding");
+            }
+        }
+    }
+
+    private static int sextet(char c) {
+        return c < SEXTETS.length ? SEXTETS[c] : ILLEGAL;
+    }
+}
@@ -0,0 +1,329 @@
+package me.lihongyu.utils.parser;
+
+import com.google.protobuf.Descriptors.Descriptor;
+import com.google.protobuf.Descriptors.FieldDescriptor;
+import com.google.protobuf.Descriptors.FieldDescriptor.JavaType;
+import com.google.protobuf.Descriptors.FieldDescriptor.Type;
+import com.google.protobuf.WireFormat;
+import me.lihongyu.utils.parser.syntax.Segment;
+import me.lihongyu.utils.parser.syntax.Slice;
+import me.lihongyu.utils.parser.syntax.Terminal;
+
+import java.util.Objects;
+
+/**
+ * A field path resolved against descriptors once: the message, every field descriptor,
+ * field number, wire type and the range of values selected by each hop.
+ * It is immutable, so it can be reused across calls and threads.
+ *
+ * e.g. parser.compile("biz.test.AddressBook$people[*].phones[0].type")
+ *
+ * A hop by a field number the message does not define, and every hop after it, is a raw hop:
+ * it is matched by the number only, and its value is decided by the wire type,
+ * i.e. Long for varint and fixed64, Integer for fixed32, and the bytes for length-delimited and group,
+ * just like an unknown field. A raw hop without index selects its first occurrence,
+ * since it can not be told whether a later one overrides or merges it, unless it is after a list.
+ *
+ * A terminal, e.g. people[*].phones.count(), is computed over the values of the last hop as they are walked through,
+ * so the value of the path is a single number instead of a list.
+ *
+ * @author jared
+ * @date 2026/10/17
+ */
+public final class CompiledPath {
+    /**
+     * index of a hop that selects every element
+     */
+    static final int ALL = Segment.ALL;
+    /**
+     * stop of a range without end
+     */
+    static final int OPEN = Integer.MAX_VALUE;
+
+    private final String fullPathStr;
+    private final Descriptor descriptor;
+    private final Hop[] hops;
+    private final PathTree tree;
+    /**
+     * this path ending with every terminal, built when it is used for the first time, indexed by ordinal
+     */
+    private final CompiledPath[] terminatedPaths = new CompiledPath[Terminal.values().length];
+
+    CompiledPath(String fullPathStr, Descriptor descriptor, Hop[] hops) {
+        this.fullPathStr = fullPathStr;
+        this.descriptor = descriptor;
+        this.hops = hops;
+        this.tree = new PathTree(descriptor, hops);
+    }
+
+    /**
+     * @return the field path compiled from
+     */
+    public String getFullPath() {
+        return fullPathStr;
+    }
+
+    /**
+     * @return the message the path starts from, null if it is read by field numbers only
+     */
+    public Descriptor getDescriptor() {
+        return descriptor;
+    }
+
+    /**
+     * @return whether the value of this path is a list
+     */
+    public boolean isList() {
+        Hop last = hops[hops.length - 1];
+        return last.list && last.terminal == null;
+    }
+
+    Hop[] hops() {
+        return hops;
+    }
+
+    PathTree tree() {
+        return tree;
+    }
+
+    /**
+     * @param terminal
+     * @return this path ending with the terminal
+     * @throws IllegalArgumentException if this path ends with a terminal already
+     */
+    CompiledPath terminate(Terminal terminal) {
+        CompiledPath path = terminatedPaths[terminal.ordinal()];
+        if (path == null) {
+            Hop last = hops[hops.length - 1];
+            if (last.terminal != null) {
+                throw new IllegalArgumentException(fullPathStr + " ends with " + last.terminal + " already");
+            }
+            Hop[] terminatedHops = hops.clone();
+            terminatedHops[hops.length - 1] = last.withTerminal(terminal);
+            //threads racing here build it twice at worst, and it is published safely since its fields are final
+            path = new CompiledPath(fullPathStr, descriptor, terminatedHops);
+            terminatedPaths[terminal.ordinal()] = path;
+        }
+        return path;
+    }
+
+    @Override
+    public String toString() {
+        return fullPathStr;
+    }
+
+    /**
+     * one resolved hop of the field path
+     */
+    static final class Hop {
+        /**
+         * null for a raw hop
+         */
+        final FieldDescriptor field;
+        final int number;
+        final int wireType;
+        final boolean repeated;
+        final boolean message;
+        final boolean group;
+        final boolean packable;
+        /**
+         * float and double, whose values are accumulated as doubles instead of longs
+         */
+        final boolean floating;
+        /**
+         * uint32, fixed32, uint64 and fixed64, whose values are compared as unsigned
+         */
+        final boolean unsigned;
+        final int endGroupTag;
+        /**
+         * values before this hop selected by [start:stop:step], start and stop are counted from the end if negative,
+         * stop is exclusive and OPEN if unbounded
+         */
+        final int start;
+        final int stop;
+        final int step;
+        /**
+         * values counted from the end are kept in a ring buffer of this size until their positions are known,
+         * 0 if no value is counted from the end
+         */
+        final int bufferSize;
+        /**
+         * whether the value after this hop is a list
+         */
+        final boolean list;
+        final Object defaultValue;
+        /**
+         * filter of the elements of a repeated message, or null
+         */
+        final FieldFilter filter;
+        /**
+         * function computed over the values of the last hop, or null
+         */
+        final Terminal terminal;
+
+        /**
+         * @param field     field of this hop
+         * @param segment   segment the hop is resolved from
+         * @param filter    filter of the elements, or null
+         * @param afterList whether the value before this hop is a list
+         */
+        Hop(FieldDescriptor field, Segment segment, FieldFilter filter, boolean afterList) {
+            this.field = field;
+            this.number = field.getNumber();
+            this.wireType = field.getLiteType().getWireType();
+            this.repeated = field.isRepeated();
+            this.message = JavaType.MESSAGE.equals(field.getJavaType());
+            this.group = Type.GROUP.equals(field.getType());
+            this.packable = field.isPackable();
+            this.floating = field.getJavaType() == JavaType.FLOAT || field.getJavaType() == JavaType.DOUBLE;
+            this.unsigned = field.getType() == Type.UINT32 || field.getType() == Type.FIXED32
+                || field.getType() == Type.UINT64 || field.getType() == Type.FIXED64;
+            this.endGroupTag = (number << 3) | WireFormat.WIRETYPE_END_GROUP;
+            //index works only on a list
+            int[] range = range(segment, afterList || repeated, false);
+            this.start = range[0];
+            this.stop = range[1];
+            this.step = range[2];
+            this.list = range[3] != 0;
+            this.bufferSize = bufferSize(start, stop);
+            if (bufferSize > 0 && !repeated) {
+                throw new IllegalArgumentException(
+                    segment + " can not be counted from the end, since " + field.getFullName() + " is not repeated");
+            }
+            this.defaultValue = !repeated && !message && field.hasDefaultValue() ? field.getDefaultValue() : null;
+            this.filter = filter;
+            this.terminal = null;
+        }
+
+        /**
+         * raw hop matched by the field number only
+         *
+         * @param segment   segment the hop is resolved from
+         * @param afterList whether the value before this hop is a list
+         */
+        Hop(Segment segment, boolean afterList) {
+            this.field = null;
+            this.number = segment.getNumber();
+            //decided by every occurrence
+            this.wireType = -1;
+            //every occurrence is a value on its own
+            this.repeated = true;
+            this.message = false;
+            this.group = false;
+            this.packable = false;
+            this.floating = false;
+            this.unsigned = false;
+            this.endGroupTag = (number << 3) | WireFormat.WIRETYPE_END_GROUP;
+            int[] range = range(segment, true, !afterList);
+            this.start = range[0];
+            this.stop = range[1];
+            this.step = range[2];
+            this.list = range[3] != 0;
+            this.bufferSize = bufferSize(start, stop);
+            this.defaultValue = null;
+            this.filter = null;
+            this.terminal = null;
+        }
+
+        /**
+         * the same hop ending the path with a terminal
+         *
+         * @param hop
+         * @param terminal
+         */
+        private Hop(Hop hop, Terminal terminal) {
+            this.field = hop.field;
+            this.number = hop.number;
+            this.wireType = hop.wireType;
+            this.repeated = hop.repeated;
+            this.message = hop.message;
+            this.group = hop.group;
+            this.packable = hop.packable;
+            this.floating = hop.floating;
+            this.unsigned = hop.unsigned;
+            this.endGroupTag = hop.endGroupTag;
+            this.start = hop.start;
+            this.stop = hop.stop;
+            this.step = hop.step;
+            this.bufferSize = hop.bufferSize;
+            this.list = hop.list;
+            //presence is told by the input only
+            this.defaultValue = terminal == Terminal.HAS ? null : hop.defaultValue;
+            this.filter = hop.filter;
+            this.terminal = terminal;
+        }
+
+        /**
+         * @param terminal
+         * @return the same hop ending the path with the terminal
+         * @throws IllegalArgumentException if the terminal needs numbers but the field is not numeric
+         */
+        Hop withTerminal(Terminal terminal) {
+            if (!terminal.isCounting() && field != null && !floating && field.getJavaType() != JavaType.INT
+                && field.getJavaType() != JavaType.LONG) {
+                throw new IllegalArgumentException(
+                    field.getFullName() + " is not a numeric field, so " + terminal + " can not be applied to it");
+            }
+            return new Hop(this, terminal);
+        }
+
+        /**
+         * @param segment
+         * @param listBefore     whether the values before the hop are a list
+         * @param firstByDefault whether to select the first value if the segment selects nothing in particular
+         * @return start, stop, step, and 1 if a list is selected otherwise 0
+         */
+        private static int[] range(Segment segment, boolean listBefore, boolean firstByDefault) {
+            Slice slice = segment.getSlice();
+            if (!listBefore) {
+                return new int[] {0, OPEN, 1, 0};
+            } else if (slice != null && slice.isIndex()) {
+                return new int[] {slice.getStart(), slice.getStop() == null ? OPEN : slice.getStop(), 1, 0};
+            } else if (slice != null) {
+                return new int[] {slice.getStart() == null ? 0 : slice.getStart(),
+                    slice.getStop() == null ? OPEN : slice.getStop(), slice.getStep(), 1};
+            } else if (segment.getIndex() != ALL) {
+                int index = segment.getIndex();
+                return new int[] {index, index == Integer.MAX_VALUE ? OPEN : index + 1, 1, 0};
+            } else if (firstByDefault && !segment.isWildcard()) {
+                return new int[] {0, 1, 1, 0};
+            }
+            return new int[] {0, OPEN, 1, 1};
+        }
+
+        /**
+         * the last -start values are kept if start is negative, since any of them may be selected in the end;
+         * otherwise the last -stop values are held back if stop is negative, since none of them is selected
+         *
+         * @param start
+         * @param stop
+         * @return
+         */
+        private static int bufferSize(int start, int stop) {
+            return start < 0 ? -start : Math.max(-stop, 0);
+        }
+
+        /**
+         * @return whether every value before this hop is selected
+         */
+        boolean selectsAll() {
+            return start == 0 && stop == OPEN && step == 1;
+        }
+
+        boolean isRaw() {
+            return field == null;
+        }
+
+        /**
+         * whether the two hops select the same values from the same values
+         *
+         * @param other
+         * @return
+         */
+        boolean sameAs(Hop other) {
+            return field == other.field && number == other.number && start == other.start && stop == other.stop
+                && step == other.step && list == other.list && Objects.equals(filter, other.filter)
+                && terminal == other.terminal;
+        }
+    }
+}
@@ -0,0 +1,62 @@
+package me.lihongyu.utils.parser;
+
+import com.google.protobuf.Descriptors.Descriptor;
+import me.lihongyu.utils.parser.CompiledPath.Hop;
+
+/**
+ * Field paths starting from the same message, compiled to be extracted together in one walk,
+ * just like json_tuple does to get_json_object.
+ * It is immutable, so it can be reused across calls and threads.
+ *
+ * e.g. parser.compileMulti("biz.test.Person$id", "biz.test.Person$name", "biz.test.Person$phones[*].number")
+ *
+ * @author jared
+ * @date 2026/10/17
+ */
+public final class CompiledPaths {
+    private final CompiledPath[] paths;
+    private final PathTree tree;
+
+    CompiledPaths(CompiledPath... paths) {
+        if (paths.length == 0) {
+            throw new IllegalArgumentException("at least one field path is required");
+        }
+        Descriptor descriptor = paths[0].getDescriptor();
+        Hop[][] hops = new Hop[paths.length][];
+        for (int i = 0; i < paths.length; i++) {
+            if (paths[i].getDescriptor() != descriptor) {
+                throw new IllegalArgumentException(paths[i] + " does not start from "
+                    + (descriptor == null ? "raw bytes" : descriptor.getFullName()) + " like " + paths[0] + " does");
+            }
+            hops[i] = paths[i].hops();
+        }
+        this.paths = paths.clone();
+        this.tree = new PathTree(descriptor, hops);
+    }
+
+    /**
+     * @return count of field paths
+     */
+    public int size() {
+        return paths.length;
+    }
+
+    /**
+     * @param i
+     * @return the i-th field path
+     */
+    public CompiledPath get(int i) {
+        return paths[i];
+    }
+
+    /**
+     * @return the message all paths start from, null if they are read by field numbers only
+     */
+    public Descriptor getDescriptor() {
+        return tree.descriptor;
+    }
+
+    PathTree tree() {
+        return tree;
+    }
+}
@@ -0,0 +1,359 @@
+package me.lihongyu.utils.parser;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.protobuf.DescriptorProtos.DescriptorProto;
+import com.google.protobuf.DescriptorProtos.FieldDescriptorProto;
+import com.google.protobuf.DescriptorProtos.FileDescriptorProto;
+import com.google.protobuf.DescriptorProtos.FileDescriptorSet;
+import com.google.protobuf.Descriptors.Descriptor;
+import com.google.protobuf.Descriptors.DescriptorValidationException;
+import com.google.protobuf.Descriptors.EnumDescriptor;
+import com.google.protobuf.Descriptors.FieldDescriptor;
+import com.google.protobuf.Descriptors.FieldDescriptor.JavaType;
+import com.google.protobuf.Descriptors.FileDescriptor;
+import com.google.protobuf.DynamicMessage;
+import com.google.protobuf.ExtensionRegistry;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * All messages and extensions of a desc file, looked up by full name,
+ * and extensions looked up by the message they extend and their field numbers as well.
+ * Extensions declared inside a message, e.g. `message B { extend A { ... } }`, are included.
+ *
+ * Every file is built only once, after the files it imports.
+ * In eager mode all files are built at once; in lazy mode only the full names are indexed at first,
+ * and a file is built along with its imports the first time a message or extension in it is asked for.
+ * It is thread-safe, so it can be shared by all parsers of the same desc file, see {@link DescriptorRegistry}.
+ *
+ * @author jared
+ * @date 2026/10/17
+ */
+final class DescriptorPool {
+    /**
+     * cache all <fileProtoName,FileDescriptorProto> pair
+     */
+    private final Map<String, FileDescriptorProto> fileProtoCache;
+    /**
+     * cache all built <fileProtoName,FileDescriptor> pair, in topological order
+     */
+    private final Map<String, FileDescriptor> fileDescriptorCache;
+    /**
+     * all of Descriptor in built files
+     */
+    private final Map<String, Descriptor> descriptorCache = new ConcurrentHashMap<>(64);
+    /**
+     * all extension field in built files
+     */
+    private final Map<String, FieldDescriptor> extensionFieldCache = new ConcurrentHashMap<>(16);
+    /**
+     * all extension field in built files: full name of extended message -> field number -> extension
+     */
+    private final Map<String, Map<Integer, FieldDescriptor>> extensionTables = new ConcurrentHashMap<>(16);
+    /**
+     * registry of all extension field in built files, built when it is asked for and dropped when a file is built
+     */
+    private volatile ExtensionRegistry extensionRegistry;
+    /**
+     * cache: syntax and its size -> (field full path -> compiled field path)
+     */
+    private final Map<String, Cache<String, CompiledPath>> compiledPathCaches = new ConcurrentHashMap<>(4);
+    /**
+     * tables of messages and enums written as JSON, built the first time they are written
+     */
+    private final Map<Descriptor, JsonWriter.MessageTable> messageTables = new ConcurrentHashMap<>(16);
+    private final Map<EnumDescriptor, JsonWriter.EnumTable> enumTables = new ConcurrentHashMap<>(16);
+    /**
+     * lazy mode: full name of message/extension (or {@link #numberKey} of extension) -> name of the file defining it;
+     * null in eager mode
+     */
+    private final Map<String, String> fileNameIndex;
+    private volatile long buildNanos;
+
+    /**
+     * @param fileDescriptorSet content of the desc file
+     * @param lazy              whether to build a file only when something in it is asked for
+     * @throws IllegalStateException if a file fails to build in eager mode
+     */
+    DescriptorPool(FileDescriptorSet fileDescriptorSet, boolean lazy) {
+        this.fileProtoCache = new LinkedHashMap<>(fileDescriptorSet.getFileCount() * 2);
+        for (FileDescriptorProto fileProto : fileDescriptorSet.getFileList()) {
+            fileProtoCache.put(fileProto.getName(), fileProto);
+        }
+        this.fileDescriptorCache = new LinkedHashMap<>(fileProtoCache.size() * 2);
+
+        if (lazy) {
+            fileNameIndex = new HashMap<>(fileProtoCache.size() * 16);
+            fileProtoCache.values().forEach(this::index);
+        } else {
+            fileNameIndex = null;
+            fileProtoCache.values().forEach(this::build);
+        }
+    }
+
+    /**
+     * @param fullName package.message
+     * @return null if not found
+     * @throws IllegalStateException if the file defining it fails to build
+     */
+    Descriptor findDescriptor(String fullName) {
+        Descriptor descriptor = descriptorCache.get(fullName);
+        if (descriptor == null && fileNameIndex != null) {
+            buildFileDefining(fullName);
+            descriptor = descriptorCache.get(fullName);
+        }
+        return descriptor;
+    }
+
+    /**
+     * @param fullName package.extension
+     * @return null if not found
+     * @throws IllegalStateException if the file defining it fails to build
+     */
+    FieldDescriptor findExtension(String fullName) {
+        FieldDescriptor extension = extensionFieldCache.get(fullName);
+        if (extension == null && fileNameIndex != null) {
+            buildFileDefining(fullName);
+            extension = extensionFieldCache.get(fullName);
+        }
+        return extension;
+    }
+
+    /**
+     * @param extendee message extended
+     * @param number   field number of the extension
+     * @return null if not found
+     * @throws IllegalStateException if the file defining it fails to build
+     */
+    FieldDescriptor findExtension(Descriptor extendee, int number) {
+        FieldDescriptor extension = findBuiltExtension(extendee, number);
+        if (extension == null && fileNameIndex != null) {
+            buildFileDefining(numberKey(extendee.getFullName(), number));
+            extension = findBuiltExtension(extendee, number);
+        }
+        return extension;
+    }
+
+    private FieldDescriptor findBuiltExtension(Descriptor extendee, int number) {
+        Map<Integer, FieldDescriptor> extensionTable = extensionTables.get(extendee.getFullName());
+        return extensionTable == null ? null : extensionTable.get(number);
+    }
+
+    /**
+     * registry of the extensions, to parse a message extracted by the parser into a DynamicMessage in one pass,
+     * with its extensions decoded along with the other fields instead of being left in the unknown fields;
+     * it is built once, and in lazy mode it holds the extensions in the files built so far
+     *
+     * @return unmodifiable registry
+     */
+    ExtensionRegistry extensionRegistry() {
+        ExtensionRegistry registry = extensionRegistry;
+        if (registry == null) {
+            synchronized (this) {
+                registry = extensionRegistry;
+                if (registry == null) {
+                    registry = ExtensionRegistry.newInstance();
+                    for (FieldDescriptor extension : extensionFieldCache.values()) {
+                        if (extension.getJavaType() == JavaType.MESSAGE) {
+                            registry.add(extension, DynamicMessage.getDefaultInstance(extension.getMessageType()));
+                        } else {
+                            registry.add(extension);
+                        }
+                    }
+                    registry = registry.getUnmodifiable();
+                    extensionRegistry = registry;
+                }
+            }
+        }
+        return registry;
+    }
+
+    /**
+     * compiled field paths depend on nothing but the descriptors and the syntax,
+     * so they are shared by all parsers using the same syntax and cache size
+     *
+     * @param syntaxName
+     * @param maximumSize max count of compiled paths kept, the least recently used ones are evicted
+     * @return cache: field full path -> compiled field path
+     */
+    Cache<String, CompiledPath> compiledPathCache(String syntaxName, long maximumSize) {
+        return compiledPathCaches.computeIfAbsent(syntaxName + '#' + maximumSize, name -> CacheBuilder.newBuilder()
+            .maximumSize(maximumSize)
+            .recordStats()
+            .build());
+    }
+
+    /**
+     * @param descriptor
+     * @return fields of the message with their quoted JSON names, built once
+     */
+    JsonWriter.MessageTable jsonTable(Descriptor descriptor) {
+        JsonWriter.MessageTable table = messageTables.get(descriptor);
+        return table != null ? table
+            : messageTables.computeIfAbsent(descriptor, key -> new JsonWriter.MessageTable(key, this));
+    }
+
+    /**
+     * @param descriptor
+     * @return quoted names of the values of the enum, built once
+     */
+    JsonWriter.EnumTable jsonTable(EnumDescriptor descriptor) {
+        JsonWriter.EnumTable table = enumTables.get(descriptor);
+        return table != null ? table : enumTables.computeIfAbsent(descriptor, JsonWriter.EnumTable::new);
+    }
+
+    /**
+     * @return count of files built so far
+     */
+    synchronized int builtFileCount() {
+        return fileDescriptorCache.size();
+    }
+
+    /**
+     * @return time spent on building file descriptors so far, in milliseconds
+     */
+    long getBuildMillis() {
+        return buildNanos / 1_000_000;
+    }
+
+    /**
+     * index full names of all messages and extensions defined in the file, without building it
+     *
+     * @param fileProto
+     */
+    private void index(FileDescriptorProto fileProto) {
+        String prefix = fileProto.getPackage().isEmpty() ? "" : fileProto.getPackage() + ".";
+        index(fileProto.getName(), prefix, fileProto.getExtensionList());
+        List<DescriptorProto> messageTypes = new ArrayList<>(fileProto.getMessageTypeList());
+        List<String> fullNames = new ArrayList<>();
+        messageTypes.forEach(messageType -> fullNames.add(prefix + messageType.getName()));
+        //iterate all nested schema
+        for (int i = 0; i < messageTypes.size(); i++) {
+            fileNameIndex.put(fullNames.get(i), fileProto.getName());
+            index(fileProto.getName(), fullNames.get(i) + ".", messageTypes.get(i).getExtensionList());
+            for (DescriptorProto nestedType : messageTypes.get(i).getNestedTypeList()) {
+                messageTypes.add(nestedType);
+                fullNames.add(fullNames.get(i) + "." + nestedType.getName());
+            }
+        }
+    }
+
+    /**
+     * index full names and number keys of extensions, without building them
+     *
+     * @param fileName   name of the file defining them
+     * @param prefix     package or message they are declared in, ending with `.`
+     * @param extensions
+     */
+    private void index(String fileName, String prefix, List<FieldDescriptorProto> extensions) {
+        for (FieldDescriptorProto extension : extensions) {
+            fileNameIndex.put(prefix + extension.getName(), fileName);
+            //extendee is fully qualified, e.g. .biz.test.Child
+            String extendee = extension.getExtendee().startsWith(".") ? extension.getExtendee().substring(1)
+                : extension.getExtendee();
+            fileNameIndex.put(numberKey(extendee, extension.getNumber()), fileName);
+        }
+    }
+
+    /**
+     * build the file defining the full name in lazy mode, unless it is unknown or built already
+     *
+     * @param fullName
+     */
+    private synchronized void buildFileDefining(String fullName) {
+        String fileName = fileNameIndex.get(fullName);
+        if (fileName != null && !fileDescriptorCache.containsKey(fileName)) {
+            build(fileProtoCache.get(fileName));
+        }
+    }
+
+    private void build(FileDescriptorProto fileProto) {
+        long start = System.nanoTime();
+        try {
+            buildFileDescriptor(fileProto, new HashSet<>());
+        } finally {
+            buildNanos += System.nanoTime() - start;
+        }
+    }
+
+    /**
+     * build file descriptor with importing proto recursively,
+     * every file is built only once no matter how many files import it
+     *
+     * @param currentFileProto current FileDescriptorProto
+     * @param building         files being built on the way to current file, to find import cycle
+     * @return current file descriptor
+     */
+    private FileDescriptor buildFileDescriptor(FileDescriptorProto currentFileProto, Set<String> building) {
+        String name = currentFileProto.getName();
+        FileDescriptor fileDescriptor = fileDescriptorCache.get(name);
+        if (fileDescriptor != null) {
+            return fileDescriptor;
+        }
+        if (!building.add(name)) {
+            throw new IllegalStateException("FileDescriptor build fail! " + name + " imports itself");
+        }
+
+        FileDescriptor[] dependencies = new FileDescriptor[currentFileProto.getDependencyCount()];
+        for (int i = 0; i < dependencies.length; i++) {
+            String dependencyStr = currentFileProto.getDependency(i);
+            FileDescriptorProto dependencyFileProto = fileProtoCache.get(dependencyStr);
+            if (dependencyFileProto == null) {
+                throw new IllegalStateException("FileDescriptor build fail! " + dependencyStr + " imported by "
+                    + name + " is not in the desc file, please compile it with --include_imports");
+            }
+            dependencies[i] = buildFileDescriptor(dependencyFileProto, building);
+        }
+        try {
+            fileDescriptor = FileDescriptor.buildFrom(currentFileProto, dependencies);
+        } catch (DescriptorValidationException e) {
+            throw new IllegalStateException("FileDescriptor build fail!", e);
+        }
+        building.remove(name);
+        fileDescriptorCache.put(name, fileDescriptor);
+        cache(fileDescriptor);
+        return fileDescriptor;
+    }
+
+    /**
+     * cache all messages (nested ones included) and extensions of a built file
+     *
+     * @param fileDescriptor
+     */
+    private void cache(FileDescriptor fileDescriptor) {
+        List<Descriptor> messageTypes = new ArrayList<>(fileDescriptor.getMessageTypes());
+        //iterate all nested schema
+        for (int i = 0; i < messageTypes.size(); i++) {
+            messageTypes.addAll(messageTypes.get(i).getNestedTypes());
+        }
+        messageTypes.forEach(descriptor -> descriptorCache.put(descriptor.getFullName(), descriptor));
+        List<FieldDescriptor> extensions = new ArrayList<>(fileDescriptor.getExtensions());
+        messageTypes.forEach(descriptor -> extensions.addAll(descriptor.getExtensions()));
+        for (FieldDescriptor extension : extensions) {
+            extensionFieldCache.put(extension.getFullName(), extension);
+            extensionTables.computeIfAbsent(extension.getContainingType().getFullName(),
+                extendee -> new ConcurrentHashMap<>(8)).put(extension.getNumber(), extension);
+        }
+        //rebuilt with the new extensions when it is asked for
+        extensionRegistry = null;
+    }
+
+    /**
+     * key of an extension in the lazy index, `#` never appears in a full name, so the key never clashes with one
+     *
+     * @param extendee full name of the message extended
+     * @param number   field number of the extension
+     * @return
+     */
+    private static String numberKey(String extendee, int number) {
+        return extendee + '#' + number;
+    }
+}
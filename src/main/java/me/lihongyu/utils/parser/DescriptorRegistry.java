@@ -0,0 +1,102 @@
+package me.lihongyu.utils.parser;
+
+import com.google.common.hash.Hashing;
+import com.google.protobuf.DescriptorProtos.FileDescriptorSet;
+import org.apache.commons.io.FileUtils;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Descriptor pools shared by all parsers in the process, keyed by canonical path and content hash of the desc file,
+ * so a desc file is parsed and built only once no matter how many parsers are built against it.
+ *
+ * A pool is held weakly, it is dropped once no parser uses it any more.
+ *
+ * @author jared
+ * @date 2026/10/17
+ */
+final class DescriptorRegistry {
+    private static final ConcurrentMap<String, PoolReference> POOLS = new ConcurrentHashMap<>(16);
+    /**
+     * references of the pools collected, to remove them from POOLS
+     */
+    private static final ReferenceQueue<DescriptorPool> COLLECTED = new ReferenceQueue<>();
+
+    private DescriptorRegistry() {}
+
+    /**
+     * get the pool of the desc file, parse and build it if no parser is using it
+     *
+     * @param descFilePath
+     * @param lazy         whether to build a proto file only when a message or extension in it is used
+     * @return
+     * @throws IOException           if the desc file can not be read or parsed
+     * @throws IllegalStateException if a file fails to build in eager mode
+     */
+    static DescriptorPool get(String descFilePath, boolean lazy) throws IOException {
+        expunge();
+
+        File descFile = FileUtils.getFile(descFilePath);
+        byte[] content = FileUtils.readFileToByteArray(descFile);
+        //the same path may be overwritten with another version, while copies of the same file are the same
+        String key = descFile.getCanonicalPath() + '@' + Hashing.sha256().hashBytes(content) + (lazy ? "#lazy" : "");
+
+        DescriptorPool[] pool = new DescriptorPool[1];
+        try {
+            //build it inside compute, so that a desc file is built only once even if many parsers ask for it at once
+            POOLS.compute(key, (k, reference) -> {
+                pool[0] = reference == null ? null : reference.get();
+                if (pool[0] == null) {
+                    pool[0] = new DescriptorPool(parse(content), lazy);
+                    reference = new PoolReference(k, pool[0]);
+                }
+                return reference;
+            });
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+        return pool[0];
+    }
+
+    /**
+     * @return count of pools in use
+     */
+    static int size() {
+        expunge();
+        return POOLS.size();
+    }
+
+    private static FileDescriptorSet parse(byte[] content) {
+        try {
+            return FileDescriptorSet.parseFrom(content);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * remove the pools no parser uses any more
+     */
+    private static void expunge() {
+        for (Reference<? extends DescriptorPool> reference; (reference = COLLECTED.poll()) != null; ) {
+            //the key may have been taken by a new pool already
+            POOLS.remove(((PoolReference)reference).key, reference);
+        }
+    }
+
+    private static final class PoolReference extends WeakReference<DescriptorPool> {
+        private final String key;
+
+        private PoolReference(String key, DescriptorPool pool) {
+            super(pool, COLLECTED);
+            this.key = key;
+        }
+    }
+}
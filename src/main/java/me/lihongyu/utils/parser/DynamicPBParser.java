@@ -1,48 +1,77 @@
 package me.lihongyu.utils.parser;
 
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheStats;
 import com.google.protobuf.ByteString;
-import com.google.protobuf.DescriptorProtos.FileDescriptorProto;
-import com.google.protobuf.DescriptorProtos.FileDescriptorSet;
 import com.google.protobuf.Descriptors.Descriptor;
-import com.google.protobuf.Descriptors.DescriptorValidationException;
 import com.google.protobuf.Descriptors.FieldDescriptor;
 import com.google.protobuf.Descriptors.FieldDescriptor.JavaType;
-import com.google.protobuf.Descriptors.FileDescriptor;
-import com.google.protobuf.DynamicMessage;
-import com.google.protobuf.InvalidProtocolBufferException;
-import com.google.protobuf.UnknownFieldSet.Field;
+import com.google.protobuf.Descriptors.FieldDescriptor.Type;
+import com.google.protobuf.ExtensionRegistry;
+import me.lihongyu.utils.parser.CompiledPath.Hop;
+import me.lihongyu.utils.parser.syntax.Filter;
+import me.lihongyu.utils.parser.syntax.ParsedPath;
+import me.lihongyu.utils.parser.syntax.Segment;
+import me.lihongyu.utils.parser.syntax.Slice;
 import me.lihongyu.utils.parser.syntax.StandardSyntax;
 import me.lihongyu.utils.parser.syntax.Syntax;
-import org.apache.commons.io.FileUtils;
+import me.lihongyu.utils.parser.syntax.SyntaxProviders;
+import me.lihongyu.utils.parser.syntax.Terminal;
 import org.apache.commons.lang3.StringUtils;
 
 import java.io.IOException;
-import java.io.InputStream;
+import java.nio.ByteBuffer;
 import java.util.*;
+import java.util.function.DoubleConsumer;
 import java.util.function.Function;
-import java.util.stream.Collectors;
+import java.util.function.IntConsumer;
+import java.util.function.LongConsumer;
 
 /**
  * Extract protobuf object from a protobuf string based on protobuf path specified,
  * and return string of the extracted protobuf object
  *
+ * It is thread-safe, one parser can be shared by all threads instead of building one per thread.
+ * All per-call state lives in the call itself, and the descriptors, the syntax and the compiled paths
+ * shared by the calls are either immutable or kept in concurrent maps that are read without locking,
+ * so calls on different threads never wait for each other once the paths are compiled,
+ * and the throughput of a single parser scales linearly with the cores.
+ *
  * @author lihongyu
  * @date 2019/02/25
  */
 public class DynamicPBParser {
-
     /**
-     * all of Descriptor in desc file
+     * types of the values read by parseLongs, parseInts and parseDoubles
      */
-    private Map<String, Descriptor> descriptorCache;
+    private static final EnumSet<JavaType> INTEGRAL = EnumSet.of(JavaType.INT, JavaType.LONG);
+    private static final EnumSet<JavaType> INT = EnumSet.of(JavaType.INT);
+    private static final EnumSet<JavaType> NUMERIC = EnumSet.of(JavaType.INT, JavaType.LONG, JavaType.FLOAT,
+        JavaType.DOUBLE);
+    /**
+     * types of the values read by parseBoolean, parseEnumNumber and parseBytes
+     */
+    private static final EnumSet<JavaType> BOOL = EnumSet.of(JavaType.BOOLEAN);
+    private static final EnumSet<JavaType> ENUM = EnumSet.of(JavaType.ENUM);
+    private static final EnumSet<JavaType> BYTES = EnumSet.of(JavaType.BYTE_STRING, JavaType.STRING,
+        JavaType.MESSAGE);
+
     /**
-     * all extension field in desc file
+     * all of Descriptor and extension field in desc file, shared by parsers of the same desc file
      */
-    private Map<String, FieldDescriptor> extensionFieldCache;
+    private DescriptorPool descriptorPool;
     /**
      * field path string syntax
      */
     private Syntax syntax;
+    /**
+     * cache: field full path -> compiled field path, shared by parsers of the same desc file and syntax
+     */
+    private Cache<String, CompiledPath> compiledPathCache;
+    /**
+     * format of the field values returned or written
+     */
+    private OutputFormat outputFormat;
 
     private DynamicPBParser() {}
 
@@ -52,42 +81,16 @@ public class DynamicPBParser {
 
     /**
      * parse all descriptors
+     *
+     * @param descFilePath
+     * @param lazy         whether to build a proto file only when a message or extension in it is used
      */
-    private void load(String descFilePath) throws IOException {
-        //just parse descriptor only once in one SELECT section
-        if (descriptorCache != null && descriptorCache.size() > 0) {
+    private void load(String descFilePath, boolean lazy) throws IOException {
+        //just parse descriptor only once in one SELECT section, and only once in the process for the same desc file
+        if (descriptorPool != null) {
             return;
         }
-
-        try (InputStream resourceAsStream = FileUtils.openInputStream(FileUtils.getFile(descFilePath))) {
-            //build file set
-            FileDescriptorSet fileDescriptorSet = FileDescriptorSet.parseFrom(resourceAsStream);
-
-            //cache file to build dependencies
-            Map<String, FileDescriptorProto> fileProtoCache = fileDescriptorSet.getFileList().stream()
-                .collect(Collectors.toMap(FileDescriptorProto::getName, Function.identity()));
-
-            //iterate all proto file
-            List<FileDescriptor> fileDescriptorList = fileDescriptorSet.getFileList().stream()
-                .map(fileProto -> buildFileDescriptor(fileProto, fileProtoCache))
-                .collect(Collectors.toList());
-
-            //cache all message (descriptor)
-            descriptorCache = fileDescriptorList.stream()
-                .flatMap(fileDescriptor -> fileDescriptor.getMessageTypes().stream())
-                .flatMap(descriptor -> {
-                    //iterate all nested schema
-                    List<Descriptor> nestedTypes = getAllNestedDescriptors(descriptor);
-                    nestedTypes.add(descriptor);
-                    return nestedTypes.stream();
-                })
-                .collect(Collectors.toMap(Descriptor::getFullName, Function.identity()));
-
-            //cache all extension
-            extensionFieldCache = fileDescriptorList.stream()
-                .flatMap(fileDescriptor -> fileDescriptor.getExtensions().stream())
-                .collect(Collectors.toMap(FieldDescriptor::getFullName, Function.identity()));
-        }
+        descriptorPool = DescriptorRegistry.get(descFilePath, lazy);
     }
 
     /**
@@ -99,211 +102,629 @@ public class DynamicPBParser {
      */
     public String parse(String base64Str, String fullPathStr) {
         //raw data must be nonnull and fullPathStr must have class$column pattern
-        if (StringUtils.isBlank(base64Str) || !syntax.check(fullPathStr)) {
+        if (StringUtils.isBlank(base64Str)) {
             return null;
         }
+        CompiledPath path = compileIfValid(fullPathStr);
+        return path == null ? null : parse(Input.of(base64Str), path);
+    }
 
-        String classFullName = syntax.getClassFullName(fullPathStr);
-        String fieldPathStr = syntax.getFieldPathStr(fullPathStr);
+    /**
+     * parse with a compiled field path, nothing but data walking is left per call;
+     * pb bytes are walked through directly, without being encoded by base64 first
+     *
+     * @param input content of pb object
+     * @param path  compiled field path
+     * @return field value, null if the input is empty
+     */
+    public String parse(Input input, CompiledPath path) {
+        if (Input.isEmpty(input)) {
+            return null;
+        }
 
-        //find the specific descriptor with class full name(pkgname.classname)
-        Descriptor descriptor = findDescriptor(classFullName);
+        //extract field value from wire format directly
+        Object extractObj = input.extract(path);
 
-        //parse object
-        Object extractObj = parseObject(base64Str, descriptor);
+        //output
+        return assembleResult(extractObj, path);
+    }
 
-        //get the field path
-        String[] fieldPathArr = syntax.getFieldPathArr(fieldPathStr);
+    /**
+     * parse many field paths of the same pb object, it is decoded once and walked through once
+     *
+     * @param base64Str    content of pb object encoded by base64
+     * @param fullPathStrs field full paths starting from the same message
+     * @return field value of every path, null for the path not conforming to the syntax
+     */
+    public String[] parseMulti(String base64Str, String... fullPathStrs) {
+        if (StringUtils.isBlank(base64Str)) {
+            return new String[fullPathStrs.length];
+        }
+        Input input = Input.of(base64Str);
+        return parseMulti(fullPathStrs, paths -> parseMulti(input, paths));
+    }
 
-        //extract field value
-        for (String fieldPath : fieldPathArr) {
-            if (extractObj == null) {
-                return null;
-            }
+    /**
+     * parse many compiled field paths of the same pb object, it is decoded once and walked through once
+     *
+     * @param input content of pb object
+     * @param paths compiled field paths
+     * @return field value of every path
+     */
+    public String[] parseMulti(Input input, CompiledPaths paths) {
+        if (Input.isEmpty(input)) {
+            return new String[paths.size()];
+        }
+        return assembleResults(input.extract(paths.tree()), paths);
+    }
 
-            //parse field name and index
-            String fieldName = syntax.getFieldName(fieldPath);
-            String fieldIndex = syntax.getFieldIndex(fieldPath);
-            FieldDescriptor fieldDescriptor = getFieldByName(descriptor, fieldName);
+    /**
+     * write the field value into a sink owned by the caller instead of returning it, in the same format as parse;
+     * no String is built for the result, and numbers, strings and objects are written straight into the sink,
+     * numbers without being boxed unless the output format is JSON,
+     * so the sink can be reused across calls, e.g. a StringBuilder whose length is reset
+     *
+     * @param input content of pb object
+     * @param path  compiled field path
+     * @param sink  receives the chars of the field value
+     * @return false if parse would return null, when nothing is written
+     * @throws IOException if the sink fails
+     */
+    public boolean parseTo(Input input, CompiledPath path, Appendable sink) throws IOException {
+        if (Input.isEmpty(input)) {
+            return false;
+        }
+        if (outputFormat == OutputFormat.JSON) {
+            return JsonWriter.write(input.extract(path), path, descriptorPool, sink);
+        }
+        return input.write(path.tree(), sink);
+    }
 
-            //extract value with field name and index
-            extractObj = extractWithField(extractObj, fieldDescriptor);
-            if (extractObj instanceof List && fieldIndex != null && fieldIndex.length() > 0) {
-                extractObj = extractWithIndex((List)extractObj, fieldIndex);
-            }
+    /**
+     * write the field value into a buffer owned by the caller as UTF-8 bytes, see {@link #parseTo(Input,
+     * CompiledPath, Appendable)}
+     *
+     * @param input content of pb object
+     * @param path  compiled field path
+     * @param sink  receives the UTF-8 bytes of the field value from its position
+     * @return false if parse would return null, when nothing is written
+     * @throws java.nio.BufferOverflowException if the sink is full, when part of the field value may be written
+     */
+    public boolean parseTo(Input input, CompiledPath path, ByteBuffer sink) {
+        if (Input.isEmpty(input)) {
+            return false;
+        }
+        if (outputFormat == OutputFormat.JSON) {
+            return JsonWriter.write(input.extract(path), path, descriptorPool, sink);
+        }
+        return input.write(path.tree(), sink);
+    }
 
-            //update descriptor to field schema if field is an object that is used in next loop
-            if (JavaType.MESSAGE.equals(fieldDescriptor.getJavaType())) {
-                descriptor = fieldDescriptor.getMessageType();
-            }
+    /**
+     * whether the field path has any value present in the pb object, a default value is not;
+     * it is answered from the tags and lengths only, and the walk stops once a value is found
+     *
+     * @param input content of pb object
+     * @param path  compiled field path
+     * @return false if the input is empty or broken
+     */
+    public boolean has(Input input, CompiledPath path) {
+        if (Input.isEmpty(input)) {
+            return false;
         }
+        return input.count(path.terminate(Terminal.HAS).tree()) > 0;
+    }
 
-        //output
-        return assembleResult(extractObj);
+    /**
+     * count of values of the field path, e.g. how many phones there are;
+     * it is answered from the tags and lengths only, a packed field is counted by the last bytes of its varints
+     *
+     * @param input content of pb object
+     * @param path  compiled field path
+     * @return 0 if the input is empty or broken
+     */
+    public long size(Input input, CompiledPath path) {
+        if (Input.isEmpty(input)) {
+            return 0;
+        }
+        //-1 if the content is broken
+        return Math.max(input.count(path.terminate(Terminal.SIZE).tree()), 0);
     }
 
     /**
-     * find normal/extension field by name
+     * values of a path of integer fields (int32, int64, uint32, etc.) as longs, unsigned 32-bit ones are widened as
+     * unsigned; a packed field is decoded straight into the array, and no value is boxed
      *
-     * @param descriptor
-     * @param fieldName
-     * @return
+     * @param input content of pb object
+     * @param path  compiled field path
+     * @return values in wire order, null if the input is empty or broken just like parse
+     * @throws IllegalArgumentException if the path is not of integer fields
      */
-    private FieldDescriptor getFieldByName(Descriptor descriptor, String fieldName) {
-        FieldDescriptor fieldDescriptor = descriptor.findFieldByName(fieldName);
-        if (fieldDescriptor == null) {
-            fieldDescriptor = extensionFieldCache.get(fieldName);
+    public long[] parseLongs(Input input, CompiledPath path) {
+        LongCollector collector = new LongCollector();
+        //the path is checked even if the input is empty
+        return parseLongs(input, path, collector) >= 0 && !Input.isEmpty(input) ? collector.toArray() : null;
+    }
+
+    /**
+     * pass the values of a path of integer fields to the sink in wire order, without boxing them,
+     * e.g. into a primitive buffer reused across calls, see {@link #parseLongs(Input, CompiledPath)}
+     *
+     * @param input content of pb object
+     * @param path  compiled field path
+     * @param sink  receives every value
+     * @return count of values passed, -1 if the content is broken, when some values may have been passed already
+     * @throws IllegalArgumentException if the path is not of integer fields
+     */
+    public int parseLongs(Input input, CompiledPath path, LongConsumer sink) {
+        CompiledPath longs = numeric(path, INTEGRAL, "longs");
+        return Input.isEmpty(input) ? 0 : input.extract(longs.tree(), sink, null);
+    }
+
+    /**
+     * values of a path of 32-bit integer fields as ints, see {@link #parseLongs(Input, CompiledPath)}
+     *
+     * @param input content of pb object
+     * @param path  compiled field path
+     * @return values in wire order, null if the input is empty or broken just like parse
+     * @throws IllegalArgumentException if the path is not of 32-bit integer fields
+     */
+    public int[] parseInts(Input input, CompiledPath path) {
+        IntCollector collector = new IntCollector();
+        //the path is checked even if the input is empty
+        return parseInts(input, path, collector) >= 0 && !Input.isEmpty(input) ? collector.toArray() : null;
+    }
+
+    /**
+     * pass the values of a path of 32-bit integer fields to the sink, see {@link #parseLongs(Input, CompiledPath,
+     * LongConsumer)}
+     *
+     * @param input content of pb object
+     * @param path  compiled field path
+     * @param sink  receives every value
+     * @return count of values passed, -1 if the content is broken, when some values may have been passed already
+     * @throws IllegalArgumentException if the path is not of 32-bit integer fields
+     */
+    public int parseInts(Input input, CompiledPath path, IntConsumer sink) {
+        CompiledPath ints = numeric(path, INT, "ints");
+        return Input.isEmpty(input) ? 0 : input.extract(ints.tree(), value -> sink.accept((int)value), null);
+    }
+
+    /**
+     * values of a path of float, double or integer fields as doubles, e.g. a packed feature vector,
+     * see {@link #parseLongs(Input, CompiledPath)}
+     *
+     * @param input content of pb object
+     * @param path  compiled field path
+     * @return values in wire order, null if the input is empty or broken just like parse
+     * @throws IllegalArgumentException if the path is not of numeric fields
+     */
+    public double[] parseDoubles(Input input, CompiledPath path) {
+        DoubleCollector collector = new DoubleCollector();
+        //the path is checked even if the input is empty
+        return parseDoubles(input, path, collector) >= 0 && !Input.isEmpty(input) ? collector.toArray() : null;
+    }
+
+    /**
+     * pass the values of a path of float, double or integer fields to the sink as doubles,
+     * see {@link #parseLongs(Input, CompiledPath, LongConsumer)}
+     *
+     * @param input content of pb object
+     * @param path  compiled field path
+     * @param sink  receives every value
+     * @return count of values passed, -1 if the content is broken, when some values may have been passed already
+     * @throws IllegalArgumentException if the path is not of numeric fields
+     */
+    public int parseDoubles(Input input, CompiledPath path, DoubleConsumer sink) {
+        CompiledPath doubles = numeric(path, NUMERIC, "doubles");
+        return Input.isEmpty(input) ? 0 : input.extract(doubles.tree(), null, sink);
+    }
+
+    /**
+     * @param path      compiled field path
+     * @param javaTypes types the values of the path may be of
+     * @param what      what the values are read as, to report
+     * @return the path
+     * @throws IllegalArgumentException if the values of the path are not of the types
+     */
+    private static CompiledPath numeric(CompiledPath path, EnumSet<JavaType> javaTypes, String what) {
+        Hop last = path.hops()[path.hops().length - 1];
+        if (last.terminal != null) {
+            throw new IllegalArgumentException(path + " ends with " + last.terminal
+                + ", so it can not be read as " + what);
         }
-        if (fieldDescriptor == null){
-            throw new IllegalArgumentException(fieldName + " is not found in "+ descriptor.getFullName());
+        //a raw value is read as a number if it is one
+        if (!last.isRaw() && !javaTypes.contains(last.field.getJavaType())) {
+            throw new IllegalArgumentException(last.field.getFullName() + " is " + last.field.getType()
+                + ", so it can not be read as " + what);
         }
-        return fieldDescriptor;
+        return path;
     }
 
     /**
-     * extract field value with field name
+     * the value of a path of a single integer field, e.g. int64, uint32, fixed64, or the count(), sum(), min(), max()
+     * of one, into a holder reused across calls instead of a String, see {@link ScalarValue};
+     * unsigned 32-bit values are widened as unsigned, and a value is never boxed, nor is the result of a terminal
      *
-     * @param extractObj
-     * @param fieldDescriptor
-     * @return
+     * @param input content of pb object
+     * @param path  compiled field path
+     * @param value holder of the value, not present if the content is empty or broken, or parse would return null
+     * @return the holder
+     * @throws IllegalArgumentException if the path is not of a long
      */
-    private Object extractWithField(Object extractObj, FieldDescriptor fieldDescriptor) {
-        if (extractObj instanceof List) {
-            List<Object> result = new ArrayList<>();
-            ((List<DynamicMessage>)extractObj).forEach(obj -> {
-                Object fieldValue = getFieldValue(obj, fieldDescriptor);
-                if (fieldValue instanceof List) {
-                    result.addAll((List)fieldValue);
-                } else if (fieldValue != null) {
-                    result.add(fieldValue);
-                }
-            });
-            return result;
+    public ScalarValue parseLong(Input input, CompiledPath path, ScalarValue value) {
+        return scalar(input, scalar(path, INTEGRAL, "a long"), value, value, null);
+    }
+
+    /**
+     * the value of a path of a single float, double or integer field, or the sum(), min(), max() of one,
+     * into a holder reused across calls instead of a String, see {@link #parseLong(Input, CompiledPath, ScalarValue)}
+     *
+     * @param input content of pb object
+     * @param path  compiled field path
+     * @param value holder of the value, not present if the content is empty or broken, or parse would return null
+     * @return the holder
+     * @throws IllegalArgumentException if the path is not of a double
+     */
+    public ScalarValue parseDouble(Input input, CompiledPath path, ScalarValue value) {
+        return scalar(input, scalar(path, NUMERIC, "a double"), value, null, value);
+    }
+
+    /**
+     * the value of a path of a single bool field, or the has() of any path,
+     * see {@link #parseLong(Input, CompiledPath, ScalarValue)}
+     *
+     * @param input content of pb object
+     * @param path  compiled field path
+     * @param value holder of the value, not present if the content is empty or broken, or parse would return null
+     * @return the holder
+     * @throws IllegalArgumentException if the path is not of a boolean
+     */
+    public ScalarValue parseBoolean(Input input, CompiledPath path, ScalarValue value) {
+        return scalar(input, scalar(path, BOOL, "a boolean"), value, value, null);
+    }
+
+    /**
+     * the value of a path of a single enum field by its number instead of its name,
+     * see {@link #parseLong(Input, CompiledPath, ScalarValue)}
+     *
+     * @param input content of pb object
+     * @param path  compiled field path
+     * @param value holder of the value, not present if the content is empty or broken, or parse would return null
+     * @return the holder
+     * @throws IllegalArgumentException if the path is not of an enum number
+     */
+    public ScalarValue parseEnumNumber(Input input, CompiledPath path, ScalarValue value) {
+        return scalar(input, scalar(path, ENUM, "an enum number"), value, value, null);
+    }
+
+    /**
+     * the value of a path of a single bytes field, string field as UTF-8 bytes, or message field as its bytes in the
+     * input, into a holder reused across calls instead of a String, see {@link ScalarValue}
+     *
+     * @param input content of pb object
+     * @param path  compiled field path
+     * @param value holder of the value, not present if the content is empty or broken, or parse would return null
+     * @return the holder
+     * @throws IllegalArgumentException if the path is not of bytes
+     */
+    public ScalarValue parseBytes(Input input, CompiledPath path, ScalarValue value) {
+        return scalar(input, scalar(path, BYTES, "bytes"), value, null, null);
+    }
+
+    /**
+     * @param path      compiled field path
+     * @param javaTypes types the value of the path may be of
+     * @param what      what the value is read as, to report
+     * @return the path
+     * @throws IllegalArgumentException if the path gives a list, or its value is not of the types
+     */
+    private static CompiledPath scalar(CompiledPath path, EnumSet<JavaType> javaTypes, String what) {
+        if (path.isList()) {
+            throw new IllegalArgumentException(path + " gives a list, so it can not be read as " + what);
+        }
+        Hop last = path.hops()[path.hops().length - 1];
+        JavaType javaType;
+        if (last.terminal == Terminal.HAS) {
+            javaType = JavaType.BOOLEAN;
+        } else if (last.terminal != null && last.terminal.isCounting()) {
+            javaType = JavaType.LONG;
+        } else if (last.isRaw()) {
+            //a raw value is read as what it is on the wire
+            return path;
         } else {
-            return getFieldValue((DynamicMessage)extractObj, fieldDescriptor);
+            javaType = last.field.getJavaType();
+        }
+        if (!javaTypes.contains(javaType)) {
+            throw new IllegalArgumentException(path + " is " + (last.terminal != null ? javaType : last.field.getType())
+                + ", so it can not be read as " + what);
+        }
+        return path;
+    }
+
+    /**
+     * @param input      content of pb object
+     * @param path       path of a single value
+     * @param value      holder of the value
+     * @param longSink   the holder if the value is read as a long without being boxed, otherwise null
+     * @param doubleSink the holder if the value is read as a double without being boxed, otherwise null
+     * @return the holder
+     */
+    private static ScalarValue scalar(Input input, CompiledPath path, ScalarValue value, LongConsumer longSink,
+                                      DoubleConsumer doubleSink) {
+        value.clear();
+        if (Input.isEmpty(input)) {
+            return value;
+        }
+        //bytes are sliced, and a terminal is passed to the sink once it is computed
+        if (longSink == null && doubleSink == null) {
+            value.set(input.extract(path));
+        } else if (input.extract(path.tree(), longSink, doubleSink) < 0) {
+            value.clear();
         }
+        return value;
     }
 
     /**
-     * get field value even if it is an extension field
+     * compile the paths conforming to the syntax and parse them together
      *
-     * @param extractObj
-     * @param fieldDescriptor
-     * @return
+     * @param fullPathStrs field full paths starting from the same message
+     * @param parser       parse the compiled paths
+     * @return field value of every path, null for the path not conforming to the syntax
      */
-    private Object getFieldValue(DynamicMessage extractObj, FieldDescriptor fieldDescriptor) {
-        //normal field
-        if (!fieldDescriptor.isExtension()) {
-            // java.lang.IllegalArgumentException: hasField() can only be called on non-repeated fields.
-            if (fieldDescriptor.isRepeated() || extractObj.hasField(fieldDescriptor)) {
-                return extractObj.getField(fieldDescriptor);
-            } else {
-                return fieldDescriptor.hasDefaultValue() ? fieldDescriptor.getDefaultValue() : null;
+    private String[] parseMulti(String[] fullPathStrs, Function<CompiledPaths, String[]> parser) {
+        String[] results = new String[fullPathStrs.length];
+
+        //skip the paths that parse() returns null for
+        List<CompiledPath> paths = new ArrayList<>(fullPathStrs.length);
+        int[] slots = new int[fullPathStrs.length];
+        for (int i = 0; i < fullPathStrs.length; i++) {
+            CompiledPath path = compileIfValid(fullPathStrs[i]);
+            if (path != null) {
+                slots[paths.size()] = i;
+                paths.add(path);
             }
         }
-        // extension field
-        Object value = null;
-        Field field = extractObj.getUnknownFields().getField(fieldDescriptor.getNumber());
-        // extension field with basic type
-        if (field.getVarintList() != null && field.getVarintList().size() > 0) {
-            Long varint = field.getVarintList().get(0);
-            if (JavaType.ENUM.equals(fieldDescriptor.getJavaType())) {
-                value = fieldDescriptor.getEnumType().findValueByNumber(varint.intValue());
-            } else if (JavaType.BOOLEAN.equals(fieldDescriptor.getJavaType())) {
-                value = varint == 1 ? Boolean.TRUE : Boolean.FALSE;
-            } else {
-                // INT LONG
-                value = varint;
+        if (paths.isEmpty()) {
+            return results;
+        }
+
+        String[] values = parser.apply(new CompiledPaths(paths.toArray(new CompiledPath[0])));
+        for (int i = 0; i < values.length; i++) {
+            results[slots[i]] = values[i];
+        }
+        return results;
+    }
+
+    /**
+     * resolve the field path against descriptors once, the result can be reused across calls and threads
+     *
+     * @param fullPathStr field full path
+     * @return compiled field path
+     * @throws IllegalArgumentException if the path is malformed or refers to nonexistent message/field
+     */
+    public CompiledPath compile(String fullPathStr) {
+        CompiledPath path = fullPathStr == null ? null : compiledPathCache.getIfPresent(fullPathStr);
+        return path == null ? compileAndCache(fullPathStr) : path;
+    }
+
+    private CompiledPath compileAndCache(String fullPathStr) {
+        CompiledPath path = doCompile(fullPathStr);
+        //the one compiled by another thread wins, so the same path is always the same instance
+        CompiledPath cached = compiledPathCache.asMap().putIfAbsent(fullPathStr, path);
+        return cached == null ? path : cached;
+    }
+
+    /**
+     * @param fullPathStr field full path
+     * @return compiled field path, null if the path does not conform to the syntax
+     * @throws IllegalArgumentException if the path refers to nonexistent message/field
+     */
+    private CompiledPath compileIfValid(String fullPathStr) {
+        if (fullPathStr == null) {
+            return null;
+        }
+        //a cached path has passed the check already
+        CompiledPath path = compiledPathCache.getIfPresent(fullPathStr);
+        if (path == null && syntax.check(fullPathStr)) {
+            path = compileAndCache(fullPathStr);
+        }
+        return path;
+    }
+
+    /**
+     * compile field paths to be parsed together by {@link #parseMulti(Input, CompiledPaths)}
+     *
+     * @param fullPathStrs field full paths starting from the same message
+     * @return compiled field paths
+     * @throws IllegalArgumentException if any path is malformed, refers to nonexistent message/field,
+     *                                  or does not start from the same message as the others
+     */
+    public CompiledPaths compileMulti(String... fullPathStrs) {
+        CompiledPath[] paths = new CompiledPath[fullPathStrs.length];
+        for (int i = 0; i < fullPathStrs.length; i++) {
+            paths[i] = compile(fullPathStrs[i]);
+        }
+        return new CompiledPaths(paths);
+    }
+
+    private CompiledPath doCompile(String fullPathStr) {
+        ParsedPath parsedPath = syntax.parse(fullPathStr);
+
+        //find the specific descriptor with class full name(pkgname.classname), no name means raw bytes
+        Descriptor rootDescriptor = parsedPath.getClassFullName().isEmpty() ? null
+            : findDescriptor(parsedPath.getClassFullName());
+
+        //resolve every hop of the field path
+        Descriptor descriptor = rootDescriptor;
+        List<Hop> hops = new ArrayList<>(parsedPath.size());
+        for (int i = 0; i < parsedPath.size(); i++) {
+            Segment segment = parsedPath.getSegment(i);
+            Hop previous = hops.isEmpty() ? null : hops.get(hops.size() - 1);
+            boolean afterList = previous != null && previous.list;
+            boolean raw = previous == null ? rootDescriptor == null : previous.isRaw();
+            if (descriptor == null && !raw) {
+                throw new IllegalArgumentException(previous.field.getFullName() + " is not a message field");
             }
-        } else if (field.getFixed32List() != null && field.getFixed32List().size() > 0) {
-            Integer fix32 = field.getFixed32List().get(0);
-            if (JavaType.FLOAT.equals(fieldDescriptor.getJavaType())) {
-                value = Float.intBitsToFloat(fix32);
+
+            FieldDescriptor fieldDescriptor = null;
+            if (!raw) {
+                fieldDescriptor = segment.getNumber() > 0 ? getFieldByNumber(descriptor, segment.getNumber())
+                    : getFieldByName(descriptor, segment.getName());
+            } else if (segment.getNumber() == 0) {
+                throw new IllegalArgumentException(
+                    segment.getName() + " can not be found by name in raw bytes, use its field number instead");
+            } else if (segment.getFilter() != null || segment.getKey() != null) {
+                throw new IllegalArgumentException(segment + " can not be filtered in raw bytes");
             }
-        } else if (field.getFixed64List() != null && field.getFixed64List().size() > 0) {
-            Long fixed64 = field.getFixed64List().get(0);
-            if (JavaType.DOUBLE.equals(fieldDescriptor.getJavaType())) {
-                value = Double.longBitsToDouble(fixed64);
+            if (fieldDescriptor == null) {
+                //a field unknown to the descriptor is read by number only, so is everything in it
+                hops.add(new Hop(segment, afterList));
+                continue;
             }
-        } else if (field.getLengthDelimitedList() != null && field.getLengthDelimitedList().size() > 0) {
-            // extension field with complex type
-            ByteString bytes = field.getLengthDelimitedList().get(0);
-            if (JavaType.MESSAGE.equals(fieldDescriptor.getJavaType())) {
-                try {
-                    value = DynamicMessage.parseFrom(fieldDescriptor.getMessageType(), bytes.toByteArray());
-                } catch (InvalidProtocolBufferException e) {
-                    return null;
-                }
-            } else if (JavaType.STRING.equals(fieldDescriptor.getJavaType())) {
-                value = bytes.toStringUtf8();
-            } else if (JavaType.BYTE_STRING.equals(fieldDescriptor.getJavaType())) {
-                value = bytes;
+
+            String key = mapKey(fieldDescriptor, segment);
+            if (key != null) {
+                //the value of the last entry with the key, just like the map does; the value of every one after a list
+                Descriptor entry = fieldDescriptor.getMessageType();
+                FieldFilter filter = new FieldFilter(entry.findFieldByNumber(1), Filter.Operator.EQ, key);
+                hops.add(new Hop(fieldDescriptor, segment.withSlice(afterList ? Slice.of(null, null, 1)
+                    : Slice.index(-1)), filter, afterList));
+                fieldDescriptor = entry.findFieldByNumber(2);
+                hops.add(new Hop(fieldDescriptor, segment.withSlice(null), null, afterList));
+            } else {
+                Filter segmentFilter = segment.getFilter();
+                FieldFilter filter = segmentFilter == null ? null : compileFilter(fieldDescriptor, segmentFilter);
+                hops.add(new Hop(fieldDescriptor, segment, filter, afterList));
             }
+
+            //update descriptor to field schema if field is an object that is used in next hop
+            descriptor = JavaType.MESSAGE.equals(fieldDescriptor.getJavaType()) ? fieldDescriptor.getMessageType() : null;
         }
-        return value;
+        if (parsedPath.getTerminal() != null) {
+            //computed over the values of the last hop
+            int last = hops.size() - 1;
+            hops.set(last, hops.get(last).withTerminal(parsedPath.getTerminal()));
+        }
+        return new CompiledPath(fullPathStr, rootDescriptor, hops.toArray(new Hop[0]));
     }
 
     /**
-     * extract List field value with field index
+     * key to look up a map field by: a number in `[]` if the key is an integer, or a quoted key otherwise;
+     * a number in `[]` selects entries by position just like any repeated field if the key is not an integer
      *
-     * @param extractObj
-     * @param fieldIndex
-     * @return null if index out of bounds
+     * @param fieldDescriptor
+     * @param segment
+     * @return null if the segment selects entries instead of looking up a key
+     * @throws IllegalArgumentException if the key is not of the form the key field takes
      */
-    private Object extractWithIndex(List extractObj, String fieldIndex) {
-        if (StringUtils.equals(syntax.getWildcard(), fieldIndex)) {
-            return extractObj;
+    private static String mapKey(FieldDescriptor fieldDescriptor, Segment segment) {
+        if (!fieldDescriptor.isMapField()) {
+            if (segment.getKey() != null) {
+                throw new IllegalArgumentException(
+                    fieldDescriptor.getFullName() + " is not a map field, so it can not be looked up by key");
+            }
+            return null;
+        }
+        FieldDescriptor keyField = fieldDescriptor.getMessageType().findFieldByNumber(1);
+        boolean integral = INTEGRAL.contains(keyField.getJavaType());
+        if (segment.getKey() != null) {
+            if (integral) {
+                throw new IllegalArgumentException(fieldDescriptor.getFullName() + " has " + keyField.getType()
+                    + " keys, so it is looked up by a number without quotes");
+            }
+            return segment.getKey();
+        }
+        if (!integral) {
+            return null;
+        }
+        long key;
+        if (segment.getIndex() != Segment.ALL) {
+            key = segment.getIndex();
+        } else if (segment.getSlice() != null && segment.getSlice().isIndex()) {
+            key = segment.getSlice().getStart();
+        } else {
+            return null;
+        }
+        Type keyType = keyField.getType();
+        boolean unsigned = keyType == Type.UINT32 || keyType == Type.FIXED32 || keyType == Type.UINT64
+            || keyType == Type.FIXED64;
+        if (unsigned && key < 0) {
+            throw new IllegalArgumentException(key + " is not a valid value of " + keyField.getFullName());
         }
-        int index = Integer.parseInt(fieldIndex);
-        return index >= extractObj.size() ? null : extractObj.get(index);
+        return String.valueOf(key);
     }
 
     /**
-     * find the descriptor by the full package.message path
+     * find normal/extension field by name
      *
-     * @param classFullName
+     * @param descriptor
+     * @param fieldName
      * @return
      */
-    private Descriptor findDescriptor(String classFullName) {
-        //user should notice that his class does not found and maybe it is just a slip of the pen
-        if (!descriptorCache.containsKey(classFullName)) {
-            throw new IllegalArgumentException(
-                classFullName + " can not be found in any description file! Please check out if it exist.");
+    private FieldDescriptor getFieldByName(Descriptor descriptor, String fieldName) {
+        FieldDescriptor fieldDescriptor = descriptor.findFieldByName(fieldName);
+        if (fieldDescriptor == null) {
+            fieldDescriptor = descriptorPool.findExtension(fieldName);
         }
-        return descriptorCache.get(classFullName);
+        if (fieldDescriptor == null){
+            throw new IllegalArgumentException(fieldName + " is not found in "+ descriptor.getFullName());
+        }
+        return fieldDescriptor;
     }
 
     /**
-     * get dynamic message
+     * resolve the filter against the element of the field
      *
-     * @param base64Str
-     * @param descriptor
+     * @param fieldDescriptor field filtered
+     * @param filter
      * @return
      */
-    private Object parseObject(String base64Str, Descriptor descriptor) {
-        Object extractObj;
-        try {
-            extractObj = DynamicMessage.parseFrom(descriptor, Base64.getDecoder().decode(base64Str));
-        } catch (InvalidProtocolBufferException e) {
-            //get_json_object return null even though the JSON string is broken, so following up on that
-            //throw new IllegalStateException("parse dynamic message failed! base64:" + base64Str, e);
-            return null;
+    private FieldFilter compileFilter(FieldDescriptor fieldDescriptor, Filter filter) {
+        if (!fieldDescriptor.isRepeated() || !JavaType.MESSAGE.equals(fieldDescriptor.getJavaType())
+            || Type.GROUP.equals(fieldDescriptor.getType())) {
+            throw new IllegalArgumentException(
+                fieldDescriptor.getFullName() + " is not a repeated message field, so it can not be filtered");
         }
-        return extractObj;
+        Descriptor element = fieldDescriptor.getMessageType();
+        FieldDescriptor filterField;
+        if (filter.getFieldNumber() > 0) {
+            filterField = getFieldByNumber(element, filter.getFieldNumber());
+            if (filterField == null) {
+                throw new IllegalArgumentException(filter.getFieldName() + " is not found in " + element.getFullName());
+            }
+        } else {
+            filterField = getFieldByName(element, filter.getFieldName());
+        }
+        return new FieldFilter(filterField, filter.getOperator(), filter.getValue());
     }
 
     /**
-     * get all nested types of a descriptor recursively
+     * find normal/extension field by number
      *
      * @param descriptor
+     * @param number
+     * @return null if the message does not define the number
+     */
+    private FieldDescriptor getFieldByNumber(Descriptor descriptor, int number) {
+        FieldDescriptor fieldDescriptor = descriptor.findFieldByNumber(number);
+        return fieldDescriptor == null ? descriptorPool.findExtension(descriptor, number) : fieldDescriptor;
+    }
+
+    /**
+     * find the descriptor by the full package.message path
+     *
+     * @param classFullName
      * @return
      */
-    private List<Descriptor> getAllNestedDescriptors(Descriptor descriptor) {
-        List<Descriptor> nestedTypes = new ArrayList<>(descriptor.getNestedTypes());
-        for (int i = 0; i < nestedTypes.size(); i++) {
-            nestedTypes.addAll(getAllNestedDescriptors(nestedTypes.get(i)));
+    private Descriptor findDescriptor(String classFullName) {
+        Descriptor descriptor = descriptorPool.findDescriptor(classFullName);
+        //user should notice that his class does not found and maybe it is just a slip of the pen
+        if (descriptor == null) {
+            throw new IllegalArgumentException(
+                classFullName + " can not be found in any description file! Please check out if it exist.");
         }
-        return nestedTypes;
+        return descriptor;
     }
 
     /**
@@ -312,7 +733,10 @@ public class DynamicPBParser {
      * @param extractObj
      * @return
      */
-    private String assembleResult(Object extractObj) {
+    private String assembleResult(Object extractObj, CompiledPath path) {
+        if (outputFormat == OutputFormat.JSON) {
+            return JsonWriter.toJson(extractObj, path, descriptorPool);
+        }
         String result;
         if (extractObj instanceof List) {
             result = assembleListResult((List)extractObj);
@@ -322,6 +746,21 @@ public class DynamicPBParser {
         return result;
     }
 
+    /**
+     * assemble the final result of every path
+     *
+     * @param extractObjs
+     * @param paths
+     * @return
+     */
+    private String[] assembleResults(Object[] extractObjs, CompiledPaths paths) {
+        String[] results = new String[extractObjs.length];
+        for (int i = 0; i < extractObjs.length; i++) {
+            results[i] = assembleResult(extractObjs[i], paths.get(i));
+        }
+        return results;
+    }
+
     /**
      * assemble just one object
      *
@@ -332,11 +771,9 @@ public class DynamicPBParser {
         String result;
         if (extractObj == null) {
             result = null;
-        } else if (extractObj instanceof DynamicMessage) {
-            //return an object as a base64 string when field path is refer to an object
-            result = Base64.getEncoder().encodeToString(((DynamicMessage)extractObj).toByteArray());
         } else if (extractObj instanceof ByteString) {
-            result = Base64.getEncoder().encodeToString(((ByteString)extractObj).toByteArray());
+            //return an object as a base64 string of its bytes when field path is refer to an object
+            result = Base64ByteOutput.encode((ByteString)extractObj);
         } else {
             result = String.valueOf(extractObj);
         }
@@ -350,48 +787,98 @@ public class DynamicPBParser {
      * @return
      */
     private String assembleListResult(List extractList) {
-        StringBuilder fieldValue = new StringBuilder("[");
-        if (extractList.size() > 0) {
-            fieldValue.append(assembleOneResultInList(extractList.get(0)));
-            for (int i = 1; i < extractList.size(); i++) {
-                fieldValue.append(",").append(assembleOneResultInList(extractList.get(i)));
-            }
-        }
-        fieldValue.append("]");
+        //elements are written straight into the builder, without a temporary string for each of them
+        StringBuilder fieldValue = new StringBuilder(extractList.size() * 8 + 2);
+        ResultWriter.write(extractList, fieldValue);
         return fieldValue.toString();
     }
 
+    DescriptorPool descriptorPool() {
+        return descriptorPool;
+    }
+
     /**
-     * assemble object in list
+     * statistics of the caches, to size them by {@link ParserBuilder#cacheSize(long)}
      *
-     * @param extractObj
-     * @return
+     * @return cache name -> hit, miss and eviction counts of it
      */
-    private Object assembleOneResultInList(Object extractObj) {
-        return extractObj == null || extractObj instanceof Number ? extractObj
-            : "\"" + assembleOneObject(extractObj) + "\"";
+    public Map<String, CacheStats> getCacheStats() {
+        Map<String, CacheStats> cacheStats = new LinkedHashMap<>(8);
+        cacheStats.put("compiledPath", compiledPathCache.stats());
+        cacheStats.putAll(syntax.getCacheStats());
+        return cacheStats;
     }
 
     /**
-     * build file descriptor with importing proto recursively
+     * registry of all extensions in the desc file, built once and shared by the parsers of the desc file,
+     * to parse a message returned by the parser, e.g. DynamicMessage.parseFrom(descriptor, bytes, registry),
+     * with its extensions decoded in the same pass as the other fields; in lazy mode it holds the extensions
+     * in the proto files built so far
      *
-     * @param currentFileProto current FileDescriptorProto
-     * @param fileProtoCache   cache all <fileProtoName,FileDescriptorProto> pair
-     * @return current file descriptor
+     * @return unmodifiable registry
+     */
+    public ExtensionRegistry getExtensionRegistry() {
+        return descriptorPool.extensionRegistry();
+    }
+
+    /**
+     * @return time spent on building file descriptors of the desc file so far, in milliseconds
      */
-    private FileDescriptor buildFileDescriptor(FileDescriptorProto currentFileProto,
-        Map<String, FileDescriptorProto> fileProtoCache) {
-        List<FileDescriptor> dependencyFileDescriptorList = new ArrayList<>();
-        currentFileProto.getDependencyList().forEach(dependencyStr -> {
-            FileDescriptorProto dependencyFileProto = fileProtoCache.get(dependencyStr);
-            FileDescriptor dependencyFileDescriptor = buildFileDescriptor(dependencyFileProto, fileProtoCache);
-            dependencyFileDescriptorList.add(dependencyFileDescriptor);
-        });
-        try {
-            return FileDescriptor.buildFrom(currentFileProto,
-                dependencyFileDescriptorList.toArray(new FileDescriptor[0]));
-        } catch (DescriptorValidationException e) {
-            throw new IllegalStateException("FileDescriptor build fail!", e);
+    public long getDescriptorBuildMillis() {
+        return descriptorPool.getBuildMillis();
+    }
+
+    /**
+     * growable array of values passed by a sink
+     */
+    private static final class LongCollector implements LongConsumer {
+        private long[] values = new long[16];
+        private int size;
+
+        @Override
+        public void accept(long value) {
+            if (size == values.length) {
+                values = Arrays.copyOf(values, size * 2);
+            }
+            values[size++] = value;
+        }
+
+        long[] toArray() {
+            return Arrays.copyOf(values, size);
+        }
+    }
+
+    private static final class IntCollector implements IntConsumer {
+        private int[] values = new int[16];
+        private int size;
+
+        @Override
+        public void accept(int value) {
+            if (size == values.length) {
+                values = Arrays.copyOf(values, size * 2);
+            }
+            values[size++] = value;
+        }
+
+        int[] toArray() {
+            return Arrays.copyOf(values, size);
+        }
+    }
+
+    private static final class DoubleCollector implements DoubleConsumer {
+        private double[] values = new double[16];
+        private int size;
+
+        @Override
+        public void accept(double value) {
+            if (size == values.length) {
+                values = Arrays.copyOf(values, size * 2);
+            }
+            values[size++] = value;
+        }
+
+        double[] toArray() {
+            return Arrays.copyOf(values, size);
         }
     }
 
@@ -400,25 +887,73 @@ public class DynamicPBParser {
 
         private String descFilePath;
         private String syntaxStr;
+        private boolean lazy;
+        private long cacheSize = StandardSyntax.DEFAULT_CACHE_SIZE;
+        private OutputFormat outputFormat = OutputFormat.PLAIN;
 
         public ParserBuilder descFilePath(String descFilePath) {
             this.descFilePath = descFilePath;
             return this;
         }
 
+        /**
+         * name of the syntax, see {@link SyntaxProviders#getProviders()}, StandardSyntax if not set
+         *
+         * @param syntaxStr
+         * @return
+         */
         public ParserBuilder syntax(String syntaxStr) {
             this.syntaxStr = syntaxStr;
             return this;
         }
 
+        /**
+         * build a proto file only when a message or extension in it is used for the first time,
+         * instead of building all of them at once, to save the time and memory of a large desc file
+         *
+         * @param lazy
+         * @return
+         */
+        public ParserBuilder lazy(boolean lazy) {
+            this.lazy = lazy;
+            return this;
+        }
+
+        /**
+         * max count of field paths kept in every cache, the least recently used ones are evicted,
+         * see {@link DynamicPBParser#getCacheStats()}
+         *
+         * @param cacheSize
+         * @return
+         */
+        public ParserBuilder cacheSize(long cacheSize) {
+            this.cacheSize = cacheSize;
+            return this;
+        }
+
+        /**
+         * format of the field values returned by parse and parseMulti, and written by parseTo, PLAIN if not set
+         *
+         * @param outputFormat
+         * @return
+         */
+        public ParserBuilder outputFormat(OutputFormat outputFormat) {
+            this.outputFormat = outputFormat == null ? OutputFormat.PLAIN : outputFormat;
+            return this;
+        }
+
+        /**
+         * @return
+         * @throws IOException              if the desc file can not be read
+         * @throws IllegalArgumentException if no syntax has the name
+         */
         public DynamicPBParser build() throws IOException {
             DynamicPBParser parser = new DynamicPBParser();
-            parser.load(descFilePath);
-            if ("StandardSyntax".equals(syntaxStr)) {
-                parser.syntax = StandardSyntax.create();
-            } else {//there may be many syntax implements
-                parser.syntax = StandardSyntax.create();
-            }
+            parser.load(descFilePath, lazy);
+            parser.syntax = SyntaxProviders.create(syntaxStr, cacheSize);
+            parser.outputFormat = outputFormat;
+            parser.compiledPathCache = parser.descriptorPool.compiledPathCache(parser.syntax.getClass().getName(),
+                cacheSize);
             return parser;
         }
     }
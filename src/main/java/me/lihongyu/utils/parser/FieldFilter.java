@@ -0,0 +1,200 @@
+package me.lihongyu.utils.parser;
+
+import com.google.protobuf.ByteString;
+import com.google.protobuf.CodedInputStream;
+import com.google.protobuf.Descriptors.EnumValueDescriptor;
+import com.google.protobuf.Descriptors.FieldDescriptor;
+import com.google.protobuf.Descriptors.FieldDescriptor.JavaType;
+import com.google.protobuf.Descriptors.FieldDescriptor.Type;
+import com.google.protobuf.InvalidProtocolBufferException;
+import me.lihongyu.utils.parser.syntax.Filter.Operator;
+
+import java.io.IOException;
+import java.util.Objects;
+
+/**
+ * A filter resolved against the descriptor of the element once: the field, the operator,
+ * and the literal value converted to the type of the field.
+ * An element is tested on the wire: only the tag of the field is decoded, everything else is skipped by length.
+ * Integers, enums and bools are compared as primitive longs, and strings are compared by their UTF-8 bytes
+ * for equality, so a failing element allocates nothing.
+ * The field takes its default value if it is absent, just like DynamicMessage.getField.
+ * It is immutable, so it can be reused across calls and threads.
+ *
+ * @author jared
+ * @date 2026/10/17
+ */
+final class FieldFilter {
+    private final FieldDescriptor field;
+    private final int number;
+    private final int tag;
+    private final Operator operator;
+    /**
+     * uint64 and fixed64 are compared as unsigned
+     */
+    private final boolean unsigned;
+    /**
+     * integers, enums and bools: compared as longs
+     */
+    private final boolean integral;
+    private final long longLiteral;
+    private final long longDefault;
+    /**
+     * strings tested for equality: compared by UTF-8 bytes, otherwise null
+     */
+    private final ByteString bytesLiteral;
+    private final ByteString bytesDefault;
+    private final Comparable<?> literal;
+    private final Comparable<?> defaultValue;
+
+    /**
+     * @param field    singular scalar field of the element
+     * @param operator
+     * @param value    literal value
+     * @throws IllegalArgumentException if the field can not be filtered or the value does not fit it
+     */
+    FieldFilter(FieldDescriptor field, Operator operator, String value) {
+        if (field.isRepeated()) {
+            throw new IllegalArgumentException(field.getFullName() + " is repeated, so it can not be used in a filter");
+        }
+        this.field = field;
+        this.number = field.getNumber();
+        this.tag = (number << 3) | field.getLiteType().getWireType();
+        this.operator = operator;
+        this.unsigned = field.getType() == Type.UINT64 || field.getType() == Type.FIXED64;
+        this.literal = parse(field, value);
+        this.defaultValue = normalize(field, field.getDefaultValue());
+        this.integral = literal instanceof Long || literal instanceof Boolean;
+        this.longLiteral = integral ? toLong(literal) : 0;
+        this.longDefault = integral ? toLong(defaultValue) : 0;
+        boolean equality = operator == Operator.EQ || operator == Operator.NE;
+        this.bytesLiteral = equality && literal instanceof String ? ByteString.copyFromUtf8((String)literal) : null;
+        this.bytesDefault = bytesLiteral != null ? ByteString.copyFromUtf8((String)defaultValue) : null;
+    }
+
+    /**
+     * @param element pb bytes of an element
+     * @return whether the element passes
+     * @throws IOException if the element is broken
+     */
+    boolean test(ByteString element) throws IOException {
+        CodedInputStream input = element.newCodedInput();
+        //strings are sliced instead of copied
+        input.enableAliasing(true);
+        boolean found = false;
+        long longValue = 0;
+        Object value = null;
+        for (int tag = input.readTag(); tag != 0; tag = input.readTag()) {
+            if (tag != this.tag) {
+                if (!input.skipField(tag)) {
+                    throw new InvalidProtocolBufferException(
+                        "Protocol message end-group tag did not match expected tag.");
+                }
+            } else if (integral) {
+                //the last occurrence wins, unknown enum value is kept as an unknown field by DynamicMessage
+                long current = WireExtractor.readLong(input, field);
+                if (field.getJavaType() != JavaType.ENUM || WireExtractor.toEnum(field, (int)current) != null) {
+                    longValue = current;
+                    found = true;
+                }
+            } else if (bytesLiteral != null) {
+                value = input.readBytes();
+            } else {
+                Object current = WireExtractor.readValue(input, field);
+                value = current == null ? value : current;
+            }
+        }
+        if (integral) {
+            long actual = found ? longValue : longDefault;
+            return operator.test(
+                unsigned ? Long.compareUnsigned(actual, longLiteral) : Long.compare(actual, longLiteral));
+        }
+        if (bytesLiteral != null) {
+            return operator.test((value == null ? bytesDefault : value).equals(bytesLiteral) ? 0 : 1);
+        }
+        return operator.test(compare(value == null ? defaultValue : normalize(field, value)));
+    }
+
+    private static long toLong(Comparable<?> value) {
+        return value instanceof Boolean ? ((Boolean)value ? 1 : 0) : (Long)value;
+    }
+
+    @SuppressWarnings("unchecked")
+    private int compare(Comparable<?> value) {
+        if (unsigned) {
+            return Long.compareUnsigned((Long)value, (Long)literal);
+        }
+        return ((Comparable<Object>)value).compareTo(literal);
+    }
+
+    /**
+     * @param field
+     * @param value literal value
+     * @return the literal value comparable to {@link #normalize}
+     */
+    private static Comparable<?> parse(FieldDescriptor field, String value) {
+        try {
+            switch (field.getJavaType()) {
+                case INT:
+                case LONG:
+                    return field.getType() == Type.UINT64 || field.getType() == Type.FIXED64
+                        ? Long.parseUnsignedLong(value) : Long.parseLong(value);
+                case FLOAT:
+                    //rounded to a float just like the value of the field, so 0.1 matches 0.1f
+                    return Float.parseFloat(value);
+                case DOUBLE:
+                    return Double.parseDouble(value);
+                case BOOLEAN:
+                    if (!"true".equals(value) && !"false".equals(value)) {
+                        break;
+                    }
+                    return Boolean.parseBoolean(value);
+                case STRING:
+                    return value;
+                case ENUM:
+                    EnumValueDescriptor enumValue = field.getEnumType().findValueByName(value);
+                    return enumValue != null ? (long)enumValue.getNumber() : Long.parseLong(value);
+                default:
+                    throw new IllegalArgumentException(field.getFullName() + " is not a scalar field, "
+                        + "so it can not be used in a filter");
+            }
+        } catch (NumberFormatException e) {
+            //fall through
+        }
+        throw new IllegalArgumentException(value + " is not a valid value of " + field.getFullName());
+    }
+
+    /**
+     * @param field
+     * @param value the same type as DynamicMessage.getField
+     * @return
+     */
+    private static Comparable<?> normalize(FieldDescriptor field, Object value) {
+        switch (field.getJavaType()) {
+            case INT:
+                return field.getType() == Type.UINT32 || field.getType() == Type.FIXED32
+                    ? Integer.toUnsignedLong((Integer)value) : (long)(Integer)value;
+            case ENUM:
+                return (long)((EnumValueDescriptor)value).getNumber();
+            default:
+                return (Comparable<?>)value;
+        }
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof FieldFilter)) {
+            return false;
+        }
+        FieldFilter other = (FieldFilter)o;
+        return field == other.field && operator == other.operator && literal.equals(other.literal);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(number, operator, literal);
+    }
+}
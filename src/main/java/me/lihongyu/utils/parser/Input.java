@@ -0,0 +1,198 @@
+package me.lihongyu.utils.parser;
+
+import com.google.protobuf.ByteString;
+import com.google.protobuf.UnsafeByteOperations;
+import org.apache.commons.lang3.StringUtils;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.function.DoubleConsumer;
+import java.util.function.LongConsumer;
+
+/**
+ * Content of a pb object to parse, either its bytes or its base64 chars, so every operation of DynamicPBParser
+ * takes one kind of input instead of an overload per kind.
+ * Bytes are wrapped without being copied, so they must not be modified while the input is in use;
+ * base64 chars are decoded by every call, at once if they are short, otherwise while being walked through.
+ * It is immutable, so it can be reused across calls and threads.
+ *
+ * e.g. parser.parse(Input.of(bytes), parser.compile("biz.test.Person$name"))
+ *
+ * @author jared
+ * @date 2026/10/17
+ */
+public final class Input {
+    /**
+     * base64 content at least this long is decoded while being walked through instead of at once
+     */
+    private static final int STREAMING_THRESHOLD = 8192;
+    private static final Input EMPTY = new Input(null, null);
+
+    /**
+     * exactly one of them is set unless the input is empty
+     */
+    private final ByteString bytes;
+    private final String base64Str;
+
+    private Input(ByteString bytes, String base64Str) {
+        this.bytes = bytes;
+        this.base64Str = base64Str;
+    }
+
+    /**
+     * @param bytes content of pb object, null for an empty input
+     * @return
+     */
+    public static Input of(byte[] bytes) {
+        return bytes == null ? EMPTY : of(UnsafeByteOperations.unsafeWrap(bytes));
+    }
+
+    /**
+     * @param bytes  array holding content of pb object, null for an empty input
+     * @param offset start of pb object in the array
+     * @param length length of pb object
+     * @return
+     */
+    public static Input of(byte[] bytes, int offset, int length) {
+        return bytes == null ? EMPTY : of(UnsafeByteOperations.unsafeWrap(bytes, offset, length));
+    }
+
+    /**
+     * @param buffer content of pb object between position and limit of a heap or direct buffer, null for an empty
+     *               input; the position of the buffer is not changed, and later changes of it are not seen
+     * @return
+     */
+    public static Input of(ByteBuffer buffer) {
+        return buffer == null ? EMPTY : of(UnsafeByteOperations.unsafeWrap(buffer));
+    }
+
+    /**
+     * @param bytes content of pb object, null for an empty input
+     * @return
+     */
+    public static Input of(ByteString bytes) {
+        return bytes == null || bytes.isEmpty() ? EMPTY : new Input(bytes, null);
+    }
+
+    /**
+     * @param base64Str content of pb object encoded by base64, standard, URL-safe and MIME base64 are all accepted;
+     *                  null or blank for an empty input
+     * @return
+     */
+    public static Input of(String base64Str) {
+        return StringUtils.isBlank(base64Str) ? EMPTY : new Input(null, base64Str);
+    }
+
+    /**
+     * @param input
+     * @return whether there is no content to parse, every operation gives its empty result then
+     */
+    static boolean isEmpty(Input input) {
+        return input == null || input == EMPTY;
+    }
+
+    /**
+     * extract the values of all field paths in one walk
+     *
+     * @param tree field paths starting from the same message
+     * @return value of every path boxed, see {@link WireExtractor#results()}; all null if the content is broken
+     */
+    Object[] extract(PathTree tree) {
+        WireExtractor extractor = WireExtractor.acquire();
+        try {
+            //get_json_object return null even though the JSON string is broken, so following up on that
+            return walk(extractor, tree, null, null) ? extractor.results() : new Object[tree.slotNodes.length];
+        } finally {
+            extractor.release();
+        }
+    }
+
+    /**
+     * @param path compiled field path
+     * @return value of the path, see {@link #extract(PathTree)}
+     */
+    Object extract(CompiledPath path) {
+        return extract(path.tree())[0];
+    }
+
+    /**
+     * pass numeric values of one field path to the sinks, or its terminal once it is computed
+     *
+     * @param tree       tree of the field path
+     * @param longSink   sink of integral values, or null
+     * @param doubleSink sink of values as doubles, or null
+     * @return count of values, -1 if the content is broken
+     */
+    int extract(PathTree tree, LongConsumer longSink, DoubleConsumer doubleSink) {
+        WireExtractor extractor = WireExtractor.acquire();
+        try {
+            return walk(extractor, tree, longSink, doubleSink) ? extractor.sunkCount() : -1;
+        } finally {
+            extractor.release();
+        }
+    }
+
+    /**
+     * @param tree tree of one field path ending with a counting terminal
+     * @return count of values of the path, -1 if the content is broken
+     */
+    long count(PathTree tree) {
+        WireExtractor extractor = WireExtractor.acquire();
+        try {
+            return walk(extractor, tree, null, null) ? extractor.count(0) : -1;
+        } finally {
+            extractor.release();
+        }
+    }
+
+    /**
+     * write the value of one field path into the sink, see {@link ResultWriter}
+     *
+     * @param tree tree of the field path
+     * @param sink
+     * @return false if the value is null or the content is broken, when nothing is written
+     * @throws IOException if the sink fails
+     */
+    boolean write(PathTree tree, Appendable sink) throws IOException {
+        WireExtractor extractor = WireExtractor.acquire();
+        try {
+            return walk(extractor, tree, null, null) && ResultWriter.write(extractor.values(0), sink);
+        } finally {
+            extractor.release();
+        }
+    }
+
+    /**
+     * @see #write(PathTree, Appendable)
+     */
+    boolean write(PathTree tree, ByteBuffer sink) {
+        WireExtractor extractor = WireExtractor.acquire();
+        try {
+            return walk(extractor, tree, null, null) && ResultWriter.write(extractor.values(0), sink);
+        } finally {
+            extractor.release();
+        }
+    }
+
+    /**
+     * @return false if the content is broken
+     */
+    private boolean walk(WireExtractor extractor, PathTree tree, LongConsumer longSink, DoubleConsumer doubleSink) {
+        if (bytes != null) {
+            return extractor.run(bytes, tree, longSink, doubleSink);
+        }
+        //reading an array is faster than pulling from a stream, it pays off only when the content is large
+        if (base64Str.length() < STREAMING_THRESHOLD) {
+            ByteString decoded;
+            try {
+                decoded = Base64InputStream.decode(base64Str);
+            } catch (IOException e) {
+                //broken just like a truncated pb object
+                return false;
+            }
+            return extractor.run(decoded, tree, longSink, doubleSink);
+        }
+        //never allocate the whole bytes, and stop decoding once all the values are found
+        return extractor.run(new Base64InputStream(base64Str), tree, longSink, doubleSink);
+    }
+}
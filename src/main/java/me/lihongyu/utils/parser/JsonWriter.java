@@ -0,0 +1,792 @@
+package me.lihongyu.utils.parser;
+
+import com.google.protobuf.ByteString;
+import com.google.protobuf.CodedInputStream;
+import com.google.protobuf.Descriptors.Descriptor;
+import com.google.protobuf.Descriptors.EnumDescriptor;
+import com.google.protobuf.Descriptors.EnumValueDescriptor;
+import com.google.protobuf.Descriptors.FieldDescriptor;
+import com.google.protobuf.Descriptors.FieldDescriptor.JavaType;
+import com.google.protobuf.Descriptors.FieldDescriptor.Type;
+import com.google.protobuf.DynamicMessage;
+import com.google.protobuf.InvalidProtocolBufferException;
+import com.google.protobuf.WireFormat;
+import me.lihongyu.utils.parser.CompiledPath.Hop;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Write the result of a field path as JSON text, following the JSON mapping of proto3 like JsonFormat.printer():
+ * a message is an object of the fields present in it, keyed by their JSON names in wire order,
+ * a repeated field is an array, a map field is an object keyed by its keys as strings,
+ * an enum is its name (or its number if it is unknown), bytes are base64 strings,
+ * NaN and infinities are strings, and unknown fields and extensions are left out.
+ * Unlike JsonFormat, 64-bit integers are numbers instead of strings, just like the other integers.
+ *
+ * A message is streamed straight from its bytes into a scratch builder kept per thread:
+ * every field is decoded once, numbers are appended without being boxed, and the quoted names of fields and enum
+ * values are taken from tables built once per descriptor, so neither a DynamicMessage nor a String per value is made.
+ * The values of a repeated field are expected to be next to each other, as every serializer writes them;
+ * a message that is not written so, or has a singular field more than once, is rendered again from its canonical
+ * bytes, where the occurrences are merged just like DynamicMessage does, and so is a map entry with its key after
+ * its value or either of them more than once.
+ *
+ * @author jared
+ * @date 2026/10/17
+ */
+final class JsonWriter {
+    private static final ThreadLocal<JsonWriter> WRITERS = ThreadLocal.withInitial(JsonWriter::new);
+    /**
+     * a builder grown beyond this is dropped after use instead of being kept by the thread
+     */
+    private static final int MAX_RETAINED_CAPACITY = 1 << 20;
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    private StringBuilder json = new StringBuilder(256);
+    private DescriptorPool pool;
+    /**
+     * fields already written in the message at every depth, by their indexes in the table
+     */
+    private boolean[][] seen = new boolean[8][];
+    private int depth;
+
+    private JsonWriter() {}
+
+    /**
+     * @param result result of extracting the path
+     * @param path   field path
+     * @param pool   where the tables of descriptors are kept
+     * @return JSON text, null if the result is null or an object in it is broken
+     */
+    static String toJson(Object result, CompiledPath path, DescriptorPool pool) {
+        JsonWriter writer = WRITERS.get();
+        return writer.render(result, path, pool) ? writer.json.toString() : null;
+    }
+
+    /**
+     * @param result result of extracting the path
+     * @param path   field path
+     * @param pool   where the tables of descriptors are kept
+     * @param sink
+     * @return false if the result is null or an object in it is broken, when nothing is written
+     * @throws IOException if the sink fails
+     */
+    static boolean write(Object result, CompiledPath path, DescriptorPool pool, Appendable sink) throws IOException {
+        JsonWriter writer = WRITERS.get();
+        if (!writer.render(result, path, pool)) {
+            return false;
+        }
+        sink.append(writer.json);
+        return true;
+    }
+
+    /**
+     * @param result result of extracting the path
+     * @param path   field path
+     * @param pool   where the tables of descriptors are kept
+     * @param sink   receives UTF-8 bytes from its position
+     * @return false if the result is null or an object in it is broken, when nothing is written
+     * @throws java.nio.BufferOverflowException if the sink is full, when part of the text may be written
+     */
+    static boolean write(Object result, CompiledPath path, DescriptorPool pool, ByteBuffer sink) {
+        JsonWriter writer = WRITERS.get();
+        return writer.render(result, path, pool) && ResultWriter.write(writer.json, sink);
+    }
+
+    /**
+     * render the result into the scratch builder
+     *
+     * @param result
+     * @param path
+     * @param pool
+     * @return false if the result is null or an object in it is broken
+     */
+    private boolean render(Object result, CompiledPath path, DescriptorPool pool) {
+        if (result == null) {
+            return false;
+        }
+        if (json.capacity() > MAX_RETAINED_CAPACITY) {
+            json = new StringBuilder(256);
+        }
+        json.setLength(0);
+        this.pool = pool;
+        this.depth = 0;
+        Hop[] hops = path.hops();
+        Hop last = hops[hops.length - 1];
+        try {
+            if (!(result instanceof List)) {
+                return writeValue(result, last);
+            } else if (isMap(last) && (hops.length == 1 || !hops[hops.length - 2].list)) {
+                //entries of one map field are one object
+                return writeMap((List<?>)result, last.field);
+            }
+            List<?> list = (List<?>)result;
+            json.append('[');
+            for (int i = 0; i < list.size(); i++) {
+                if (i > 0) {
+                    json.append(',');
+                }
+                if (list.get(i) == null) {
+                    json.append("null");
+                } else if (!writeValue(list.get(i), last)) {
+                    return false;
+                }
+            }
+            json.append(']');
+            return true;
+        } catch (IOException e) {
+            //get_json_object return null even though the JSON string is broken, so following up on that
+            return false;
+        } finally {
+            this.pool = null;
+        }
+    }
+
+    private static boolean isMap(Hop hop) {
+        return hop.terminal == null && !hop.isRaw() && hop.field.isMapField();
+    }
+
+    /**
+     * @param value nonnull value extracted by the hop
+     * @param hop
+     * @return false if an object in it is broken
+     */
+    private boolean writeValue(Object value, Hop hop) throws IOException {
+        if (hop.terminal != null || hop.isRaw()) {
+            //a computed value, or a raw value of which nothing is known but the wire type
+            if (value instanceof Boolean) {
+                json.append((boolean)(Boolean)value);
+            } else if (value instanceof Double) {
+                writeDouble((Double)value);
+            } else if (value instanceof Long) {
+                json.append((long)(Long)value);
+            } else if (value instanceof Integer) {
+                json.append((int)(Integer)value);
+            } else if (value instanceof ByteString) {
+                writeBase64((ByteString)value);
+            } else {
+                writeString(String.valueOf(value));
+            }
+            return true;
+        }
+        return writeValue(value, hop.field);
+    }
+
+    /**
+     * @param value the same type as DynamicMessage.getField, except that a message is its bytes
+     * @param field
+     * @return false if the object is broken
+     */
+    private boolean writeValue(Object value, FieldDescriptor field) throws IOException {
+        switch (field.getJavaType()) {
+            case MESSAGE:
+                return writeMessage((ByteString)value, pool.jsonTable(field.getMessageType()));
+            case BYTE_STRING:
+                writeBase64((ByteString)value);
+                break;
+            case STRING:
+                writeString((String)value);
+                break;
+            case ENUM:
+                writeEnum(pool.jsonTable(field.getEnumType()), ((EnumValueDescriptor)value).getNumber());
+                break;
+            case INT:
+                if (isUnsigned(field)) {
+                    json.append(Integer.toUnsignedLong((Integer)value));
+                } else {
+                    json.append((int)(Integer)value);
+                }
+                break;
+            case LONG:
+                if (isUnsigned(field)) {
+                    writeUnsigned((Long)value);
+                } else {
+                    json.append((long)(Long)value);
+                }
+                break;
+            case FLOAT:
+                writeFloat((Float)value);
+                break;
+            case DOUBLE:
+                writeDouble((Double)value);
+                break;
+            default:
+                json.append((boolean)(Boolean)value);
+                break;
+        }
+        return true;
+    }
+
+    /**
+     * @param entries bytes of the entries of a map field
+     * @param field   the map field
+     * @return false if an entry is broken
+     */
+    private boolean writeMap(List<?> entries, FieldDescriptor field) throws IOException {
+        JsonField mapField = pool.jsonTable(field.getContainingType()).find(field.getNumber());
+        json.append('{');
+        for (int i = 0; i < entries.size(); i++) {
+            if (i > 0) {
+                json.append(',');
+            }
+            ByteString entry = (ByteString)entries.get(i);
+            int mark = json.length();
+            if (!writeEntry(newInput(entry), mapField, entry.size())) {
+                json.setLength(mark);
+                ByteString canonical = DynamicMessage.parseFrom(field.getMessageType(), entry).toByteString();
+                if (!writeEntry(newInput(canonical), mapField, canonical.size())) {
+                    return false;
+                }
+            }
+        }
+        json.append('}');
+        return true;
+    }
+
+    /**
+     * @param bytes bytes of a whole message
+     * @param table
+     * @return false if it is not canonical even rendered again, which never happens unless it is broken
+     */
+    private boolean writeMessage(ByteString bytes, MessageTable table) throws IOException {
+        int mark = json.length();
+        if (writeFields(newInput(bytes), bytes, table, 0)) {
+            return true;
+        }
+        json.setLength(mark);
+        return writeCanonical(bytes, table);
+    }
+
+    /**
+     * @param input  positioned at the length of a message
+     * @param bytes  the input as a whole, to render the message again from if it is not canonical
+     * @param table
+     * @param length length of the message
+     * @return see {@link #writeMessage(ByteString, MessageTable)}
+     */
+    private boolean writeMessage(CodedInputStream input, ByteString bytes, MessageTable table, int length)
+        throws IOException {
+        int start = input.getTotalBytesRead();
+        int oldLimit = input.pushLimit(length);
+        int mark = json.length();
+        try {
+            if (writeFields(input, bytes, table, 0)) {
+                return true;
+            }
+            json.setLength(mark);
+            input.skipRawBytes(input.getBytesUntilLimit());
+            return writeCanonical(bytes.substring(start, start + length), table);
+        } finally {
+            input.popLimit(oldLimit);
+        }
+    }
+
+    /**
+     * render the message from the bytes DynamicMessage writes, where the occurrences of a field are merged
+     *
+     * @param bytes bytes of a whole message
+     * @param table
+     * @return see {@link #writeMessage(ByteString, MessageTable)}
+     */
+    private boolean writeCanonical(ByteString bytes, MessageTable table) throws IOException {
+        ByteString canonical = DynamicMessage.parseFrom(table.descriptor, bytes).toByteString();
+        return writeFields(newInput(canonical), canonical, table, 0);
+    }
+
+    /**
+     * write the fields of one message as an object
+     *
+     * @param input
+     * @param bytes  the input as a whole, see {@link #writeMessage(CodedInputStream, ByteString, MessageTable, int)}
+     * @param table
+     * @param endTag end group tag if the message is a group, otherwise 0
+     * @return false if it is not canonical, when it is written partly
+     */
+    private boolean writeFields(CodedInputStream input, ByteString bytes, MessageTable table, int endTag)
+        throws IOException {
+        boolean[] written = enter(table.fields.length);
+        try {
+            json.append('{');
+            boolean first = true;
+            //repeated field whose values are being written, and count of them
+            JsonField run = null;
+            int runCount = 0;
+            for (int tag = input.readTag(); tag != endTag; tag = input.readTag()) {
+                if (tag == 0) {
+                    throw new InvalidProtocolBufferException("Protocol message end-group tag is missing.");
+                }
+                JsonField field = table.find(WireFormat.getTagFieldNumber(tag));
+                int wireType = WireFormat.getTagWireType(tag);
+                if (field == null || !field.accepts(wireType)) {
+                    //unknown field, or kept as an unknown field by DynamicMessage for the wrong wire type
+                    if (!input.skipField(tag)) {
+                        throw new InvalidProtocolBufferException(
+                            "Protocol message end-group tag did not match expected tag.");
+                    }
+                    continue;
+                }
+                if (field != run) {
+                    if (run != null) {
+                        json.append(run.map ? '}' : ']');
+                        run = null;
+                    }
+                    if (written[field.index]) {
+                        //a singular field more than once, or the values of a repeated field split
+                        return false;
+                    }
+                    written[field.index] = true;
+                    if (!first) {
+                        json.append(',');
+                    }
+                    first = false;
+                    json.append(field.name);
+                    if (field.repeated) {
+                        json.append(field.map ? '{' : '[');
+                        run = field;
+                        runCount = 0;
+                    }
+                }
+                if (run == null) {
+                    if (!writeValue(input, bytes, field)) {
+                        return false;
+                    }
+                } else if (wireType != field.wireType) {
+                    //packed
+                    int oldLimit = input.pushLimit(input.readRawVarint32());
+                    try {
+                        while (input.getBytesUntilLimit() > 0) {
+                            if (runCount++ > 0) {
+                                json.append(',');
+                            }
+                            //a packable field is a scalar, which is always written
+                            writeValue(input, bytes, field);
+                        }
+                    } finally {
+                        input.popLimit(oldLimit);
+                    }
+                } else {
+                    if (runCount++ > 0) {
+                        json.append(',');
+                    }
+                    if (!writeValue(input, bytes, field)) {
+                        return false;
+                    }
+                }
+            }
+            if (run != null) {
+                json.append(run.map ? '}' : ']');
+            }
+            json.append('}');
+            return true;
+        } finally {
+            depth--;
+        }
+    }
+
+    /**
+     * @param size count of fields of the message entered
+     * @return flags of the fields written in the message, all false
+     */
+    private boolean[] enter(int size) {
+        if (depth == seen.length) {
+            seen = Arrays.copyOf(seen, depth * 2);
+        }
+        boolean[] written = seen[depth];
+        if (written == null || written.length < size) {
+            written = new boolean[Math.max(size, 16)];
+            seen[depth] = written;
+        } else {
+            Arrays.fill(written, 0, size, false);
+        }
+        depth++;
+        return written;
+    }
+
+    /**
+     * decode one value of the field from the input and write it
+     *
+     * @param input
+     * @param bytes the input as a whole
+     * @param field
+     * @return false if a group or map entry is not canonical, see {@link #writeFields}
+     */
+    private boolean writeValue(CodedInputStream input, ByteString bytes, JsonField field) throws IOException {
+        switch (field.field.getType()) {
+            case DOUBLE:
+                writeDouble(input.readDouble());
+                break;
+            case FLOAT:
+                writeFloat(input.readFloat());
+                break;
+            case INT64:
+                json.append(input.readInt64());
+                break;
+            case UINT64:
+                writeUnsigned(input.readUInt64());
+                break;
+            case INT32:
+                json.append(input.readInt32());
+                break;
+            case FIXED64:
+                writeUnsigned(input.readFixed64());
+                break;
+            case FIXED32:
+                json.append(Integer.toUnsignedLong(input.readFixed32()));
+                break;
+            case BOOL:
+                json.append(input.readBool());
+                break;
+            case STRING:
+                writeString(input.readString());
+                break;
+            case GROUP:
+                return writeFields(input, bytes, field.child(pool), (field.field.getNumber() << 3)
+                    | WireFormat.WIRETYPE_END_GROUP);
+            case MESSAGE:
+                if (field.map) {
+                    return writeEntry(input, field, input.readRawVarint32());
+                }
+                return writeMessage(input, bytes, field.child(pool), input.readRawVarint32());
+            case BYTES:
+                writeBase64(input.readBytes());
+                break;
+            case UINT32:
+                json.append(Integer.toUnsignedLong(input.readUInt32()));
+                break;
+            case ENUM:
+                writeEnum(field.enumTable, input.readEnum());
+                break;
+            case SFIXED32:
+                json.append(input.readSFixed32());
+                break;
+            case SFIXED64:
+                json.append(input.readSFixed64());
+                break;
+            case SINT32:
+                json.append(input.readSInt32());
+                break;
+            default:
+                json.append(input.readSInt64());
+                break;
+        }
+        return true;
+    }
+
+    /**
+     * write one entry of a map field as `"key":value`, an absent key or value takes its default value,
+     * and the fields other than them are skipped just like unknown fields of a message
+     *
+     * @param input  positioned at the first field of the entry
+     * @param field  the map field
+     * @param length length of the entry
+     * @return false if the entry is not canonical, that is, the key after the value or either of them more than once
+     */
+    private boolean writeEntry(CodedInputStream input, JsonField field, int length) throws IOException {
+        MessageTable entry = field.child(pool);
+        JsonField key = entry.find(1);
+        JsonField value = entry.find(2);
+        int oldLimit = input.pushLimit(length);
+        try {
+            boolean keyWritten = false;
+            boolean valueWritten = false;
+            for (int tag = input.readTag(); tag != 0; tag = input.readTag()) {
+                if (tag == key.tag && !keyWritten) {
+                    writeKey(input, key);
+                    keyWritten = true;
+                } else if (tag == value.tag && !valueWritten) {
+                    if (!keyWritten) {
+                        writeKey(null, key);
+                        keyWritten = true;
+                    }
+                    if (!writeEntryValue(input, value)) {
+                        return false;
+                    }
+                    valueWritten = true;
+                } else if (tag == key.tag || tag == value.tag) {
+                    return false;
+                } else if (!input.skipField(tag)) {
+                    throw new InvalidProtocolBufferException(
+                        "Protocol message end-group tag did not match expected tag.");
+                }
+            }
+            if (!keyWritten) {
+                writeKey(null, key);
+            }
+            return valueWritten || writeEntryValue(null, value);
+        } finally {
+            input.popLimit(oldLimit);
+        }
+    }
+
+    /**
+     * @param input positioned at the key, null for the default key
+     * @param key
+     */
+    private void writeKey(CodedInputStream input, JsonField key) throws IOException {
+        //keys of a JSON object are always strings
+        boolean quoted = key.field.getJavaType() != JavaType.STRING;
+        if (quoted) {
+            json.append('"');
+        }
+        if (input != null) {
+            writeValue(input, null, key);
+        } else {
+            writeValue(key.field.getDefaultValue(), key.field);
+        }
+        if (quoted) {
+            json.append('"');
+        }
+        json.append(':');
+    }
+
+    /**
+     * @param input positioned at the value, null for the default value
+     * @param value
+     * @return false if the value is an object that is broken
+     */
+    private boolean writeEntryValue(CodedInputStream input, JsonField value) throws IOException {
+        if (value.field.getJavaType() != JavaType.MESSAGE) {
+            return input != null ? writeValue(input, null, value)
+                : writeValue(value.field.getDefaultValue(), value.field);
+        }
+        if (input == null) {
+            json.append("{}");
+            return true;
+        }
+        return writeMessage(input.readBytes(), value.child(pool));
+    }
+
+    private void writeEnum(EnumTable table, int number) {
+        char[] name = table.find(number);
+        if (name != null) {
+            json.append(name);
+        } else {
+            json.append(number);
+        }
+    }
+
+    private void writeUnsigned(long value) {
+        if (value >= 0) {
+            json.append(value);
+        } else {
+            //the same as Long.toUnsignedString without the String
+            long quotient = (value >>> 1) / 5;
+            json.append(quotient).append(value - quotient * 10);
+        }
+    }
+
+    private void writeDouble(double value) {
+        if (Double.isNaN(value) || Double.isInfinite(value)) {
+            json.append('"').append(value).append('"');
+        } else {
+            json.append(value);
+        }
+    }
+
+    private void writeFloat(float value) {
+        if (Float.isNaN(value) || Float.isInfinite(value)) {
+            json.append('"').append(value).append('"');
+        } else {
+            json.append(value);
+        }
+    }
+
+    private void writeBase64(ByteString value) {
+        json.append('"');
+        ResultWriter.write(value, json);
+        json.append('"');
+    }
+
+    private void writeString(String value) {
+        escape(value, json);
+    }
+
+    /**
+     * append a JSON string, only quotes, backslashes and control chars are escaped
+     *
+     * @param value
+     * @param json
+     */
+    static void escape(String value, StringBuilder json) {
+        json.append('"');
+        int length = value.length();
+        int from = 0;
+        for (int i = 0; i < length; i++) {
+            char c = value.charAt(i);
+            if (c >= 0x20 && c != '"' && c != '\\') {
+                continue;
+            }
+            json.append(value, from, i);
+            from = i + 1;
+            switch (c) {
+                case '"':
+                    json.append("\\\"");
+                    break;
+                case '\\':
+                    json.append("\\\\");
+                    break;
+                case '\n':
+                    json.append("\\n");
+                    break;
+                case '\r':
+                    json.append("\\r");
+                    break;
+                case '\t':
+                    json.append("\\t");
+                    break;
+                case '\b':
+                    json.append("\\b");
+                    break;
+                case '\f':
+                    json.append("\\f");
+                    break;
+                default:
+                    json.append("\\u00").append(HEX[c >>> 4]).append(HEX[c & 0xF]);
+                    break;
+            }
+        }
+        json.append(value, from, length).append('"');
+    }
+
+    private static boolean isUnsigned(FieldDescriptor field) {
+        Type type = field.getType();
+        return type == Type.UINT32 || type == Type.FIXED32 || type == Type.UINT64 || type == Type.FIXED64;
+    }
+
+    private static CodedInputStream newInput(ByteString bytes) {
+        CodedInputStream input = bytes.newCodedInput();
+        //bytes fields and messages are slices of the input
+        input.enableAliasing(true);
+        return input;
+    }
+
+    /**
+     * fields of a message looked up by number, with their quoted JSON names.
+     * It is immutable except for the tables of message fields resolved on first use, so it is shared by all threads.
+     */
+    static final class MessageTable {
+        private final Descriptor descriptor;
+        private final int[] numbers;
+        private final JsonField[] fields;
+
+        /**
+         * @param descriptor
+         * @param pool       where the tables of enums are kept
+         */
+        MessageTable(Descriptor descriptor, DescriptorPool pool) {
+            this.descriptor = descriptor;
+            List<FieldDescriptor> fieldDescriptors = new ArrayList<>(descriptor.getFields());
+            fieldDescriptors.sort((x, y) -> Integer.compare(x.getNumber(), y.getNumber()));
+            this.numbers = new int[fieldDescriptors.size()];
+            this.fields = new JsonField[fieldDescriptors.size()];
+            for (int i = 0; i < fields.length; i++) {
+                FieldDescriptor field = fieldDescriptors.get(i);
+                numbers[i] = field.getNumber();
+                fields[i] = new JsonField(field, i,
+                    field.getJavaType() == JavaType.ENUM ? pool.jsonTable(field.getEnumType()) : null);
+            }
+        }
+
+        /**
+         * @param number
+         * @return null if the message has no such field
+         */
+        JsonField find(int number) {
+            int i = Arrays.binarySearch(numbers, number);
+            return i >= 0 ? fields[i] : null;
+        }
+    }
+
+    /**
+     * a field with its quoted JSON name followed by the colon
+     */
+    static final class JsonField {
+        private final FieldDescriptor field;
+        private final int index;
+        private final char[] name;
+        private final int tag;
+        private final int wireType;
+        private final boolean repeated;
+        private final boolean packable;
+        private final boolean map;
+        private final EnumTable enumTable;
+        /**
+         * table of the message type, resolved on first use since messages may be recursive
+         */
+        private volatile MessageTable child;
+
+        private JsonField(FieldDescriptor field, int index, EnumTable enumTable) {
+            this.field = field;
+            this.index = index;
+            StringBuilder name = new StringBuilder(field.getJsonName().length() + 3);
+            escape(field.getJsonName(), name);
+            this.name = name.append(':').toString().toCharArray();
+            this.wireType = field.getLiteType().getWireType();
+            this.tag = (field.getNumber() << 3) | wireType;
+            this.repeated = field.isRepeated();
+            this.packable = field.isPackable();
+            this.map = field.isMapField();
+            this.enumTable = enumTable;
+        }
+
+        /**
+         * @param wireType
+         * @return whether a value of the wire type is read as this field, just like DynamicMessage
+         */
+        private boolean accepts(int wireType) {
+            return wireType == this.wireType || packable && wireType == WireFormat.WIRETYPE_LENGTH_DELIMITED;
+        }
+
+        private MessageTable child(DescriptorPool pool) {
+            MessageTable table = child;
+            if (table == null) {
+                //a benign race, both get the same table from the pool
+                table = pool.jsonTable(field.getMessageType());
+                child = table;
+            }
+            return table;
+        }
+    }
+
+    /**
+     * quoted names of the values of an enum looked up by number, the first one wins for an alias
+     */
+    static final class EnumTable {
+        private final int[] numbers;
+        private final char[][] names;
+
+        EnumTable(EnumDescriptor descriptor) {
+            List<EnumValueDescriptor> values = new ArrayList<>(descriptor.getValues());
+            //stable, so the first one defined is the first one of the same number
+            values.sort((x, y) -> Integer.compare(x.getNumber(), y.getNumber()));
+            int[] numbers = new int[values.size()];
+            char[][] names = new char[values.size()][];
+            int size = 0;
+            for (EnumValueDescriptor value : values) {
+                if (size > 0 && numbers[size - 1] == value.getNumber()) {
+                    continue;
+                }
+                StringBuilder name = new StringBuilder(value.getName().length() + 2);
+                escape(value.getName(), name);
+                numbers[size] = value.getNumber();
+                names[size] = name.toString().toCharArray();
+                size++;
+            }
+            this.numbers = Arrays.copyOf(numbers, size);
+            this.names = Arrays.copyOf(names, size);
+        }
+
+        /**
+         * @param number
+         * @return quoted name, null if it is an unknown value
+         */
+        private char[] find(int number) {
+            int i = Arrays.binarySearch(numbers, number);
+            return i >= 0 ? names[i] : null;
+        }
+    }
+}
@@ -0,0 +1,21 @@
+package me.lihongyu.utils.parser;
+
+/**
+ * format of the field values returned by parse and parseMulti, and written by parseTo,
+ * see {@link DynamicPBParser.ParserBuilder#outputFormat(OutputFormat)}
+ *
+ * @author jared
+ * @date 2026/10/17
+ */
+public enum OutputFormat {
+    /**
+     * a number, a bool, a string or an enum name as it is, an object as base64 of its bytes,
+     * and a list as [1,2] or ["a","b"], whose strings are quoted without being escaped
+     */
+    PLAIN,
+    /**
+     * JSON text: a string, an enum name or bytes (base64) as an escaped JSON string, an object as a JSON object
+     * of its fields, a map field as a JSON object keyed by its keys, and a list as a JSON array of them
+     */
+    JSON
+}
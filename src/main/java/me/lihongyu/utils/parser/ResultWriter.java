@@ -0,0 +1,227 @@
+package me.lihongyu.utils.parser;
+
+import com.google.protobuf.ByteString;
+import com.google.protobuf.Descriptors.EnumValueDescriptor;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.List;
+
+/**
+ * Write the result of a field path straight into a sink owned by the caller, exactly as DynamicPBParser.parse
+ * returns it: chars into an Appendable, or UTF-8 bytes into a ByteBuffer.
+ * Numbers are formatted in a scratch builder, read from their primitive bits if the result is a ValueList,
+ * strings are encoded char by char, and an object is encoded by base64 straight from the arrays backing its bytes,
+ * so no value allocates anything.
+ * One writer is kept per thread and reused across calls.
+ *
+ * @author jared
+ * @date 2026/10/17
+ */
+final class ResultWriter extends Base64ByteOutput {
+    private static final ThreadLocal<ResultWriter> WRITERS = ThreadLocal.withInitial(ResultWriter::new);
+
+    private final StringBuilder scratch = new StringBuilder(32);
+    /**
+     * exactly one of them is set while writing
+     */
+    private Appendable chars;
+    private ByteBuffer bytes;
+
+    private ResultWriter() {}
+
+    /**
+     * @param result result of extracting a field path, boxed or a ValueList
+     * @param sink
+     * @return false if the result is null, when nothing is written
+     * @throws IOException if the sink fails
+     */
+    static boolean write(Object result, Appendable sink) throws IOException {
+        if (result == null) {
+            return false;
+        }
+        ResultWriter writer = WRITERS.get();
+        writer.chars = sink;
+        try {
+            writer.writeResult(result);
+        } finally {
+            writer.chars = null;
+        }
+        return true;
+    }
+
+    /**
+     * @see #write(Object, Appendable)
+     */
+    static boolean write(Object result, StringBuilder sink) {
+        try {
+            return write(result, (Appendable)sink);
+        } catch (IOException e) {
+            //never happens when writing to memory
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * @param result result of extracting a field path, boxed or a ValueList
+     * @param sink   written from its position
+     * @return false if the result is null, when nothing is written
+     * @throws java.nio.BufferOverflowException if the sink is full, when part of the result may be written
+     */
+    static boolean write(Object result, ByteBuffer sink) {
+        if (result == null) {
+            return false;
+        }
+        ResultWriter writer = WRITERS.get();
+        writer.bytes = sink;
+        try {
+            writer.writeResult(result);
+        } catch (IOException e) {
+            //never happens when writing to memory
+            throw new IllegalStateException(e);
+        } finally {
+            writer.bytes = null;
+        }
+        return true;
+    }
+
+    /**
+     * @param result boxed result, or a ValueList written without boxing its values
+     */
+    private void writeResult(Object result) throws IOException {
+        if (result instanceof ValueList) {
+            writeValues((ValueList)result);
+        } else if (result instanceof List) {
+            List<?> list = (List<?>)result;
+            put('[');
+            for (int i = 0; i < list.size(); i++) {
+                if (i > 0) {
+                    put(',');
+                }
+                Object element = list.get(i);
+                writeElement(ValueList.kindOf(element), ValueList.bitsOf(element), element);
+            }
+            put(']');
+        } else {
+            writeOne(ValueList.kindOf(result), ValueList.bitsOf(result), result);
+        }
+    }
+
+    private void writeValues(ValueList values) throws IOException {
+        if (!values.list) {
+            writeOne(values.kind(0), values.bits(0), values.object(0));
+            return;
+        }
+        put('[');
+        for (int i = 0; i < values.size(); i++) {
+            if (i > 0) {
+                put(',');
+            }
+            writeElement(values.kind(i), values.bits(i), values.object(i));
+        }
+        put(']');
+    }
+
+    /**
+     * @param kind   see {@link ValueList}
+     * @param bits
+     * @param object
+     */
+    private void writeElement(int kind, long bits, Object object) throws IOException {
+        if (kind == ValueList.OBJECT && object == null) {
+            put("null");
+        } else if (ValueList.isNumber(kind)) {
+            writeOne(kind, bits, object);
+        } else {
+            put('"');
+            writeOne(kind, bits, object);
+            put('"');
+        }
+    }
+
+    /**
+     * write a nonnull value, the same format as String.valueOf except that an object is encoded by base64
+     *
+     * @param kind   see {@link ValueList}
+     * @param bits   bits of a number or a bool
+     * @param object value of kind OBJECT
+     */
+    private void writeOne(int kind, long bits, Object object) throws IOException {
+        switch (kind) {
+            case ValueList.BOOL:
+                put(bits != 0 ? "true" : "false");
+                return;
+            case ValueList.OBJECT:
+                if (object instanceof ByteString) {
+                    writeBase64((ByteString)object);
+                } else if (object instanceof CharSequence) {
+                    put((CharSequence)object);
+                } else if (object instanceof EnumValueDescriptor) {
+                    put(((EnumValueDescriptor)object).getName());
+                } else {
+                    scratch.setLength(0);
+                    scratch.append(object);
+                    put(scratch);
+                }
+                return;
+            default:
+                break;
+        }
+        scratch.setLength(0);
+        if (kind == ValueList.FLOAT) {
+            scratch.append(Float.intBitsToFloat((int)bits));
+        } else if (kind == ValueList.DOUBLE) {
+            scratch.append(Double.longBitsToDouble(bits));
+        } else {
+            //an int is kept sign-extended, so it is formatted the same as a long
+            scratch.append(bits);
+        }
+        put(scratch);
+    }
+
+    /**
+     * @param c ascii char
+     */
+    @Override
+    void put(char c) throws IOException {
+        if (chars != null) {
+            chars.append(c);
+        } else {
+            bytes.put((byte)c);
+        }
+    }
+
+    /**
+     * @param value chars, encoded by UTF-8 into the byte sink, where an unpaired surrogate becomes `?`
+     *              just like String.getBytes
+     */
+    private void put(CharSequence value) throws IOException {
+        if (chars != null) {
+            chars.append(value);
+            return;
+        }
+        int length = value.length();
+        for (int i = 0; i < length; i++) {
+            char c = value.charAt(i);
+            if (c < 0x80) {
+                bytes.put((byte)c);
+            } else if (c < 0x800) {
+                bytes.put((byte)(0xC0 | (c >>> 6)));
+                bytes.put((byte)(0x80 | (c & 0x3F)));
+            } else if (!Character.isSurrogate(c)) {
+                bytes.put((byte)(0xE0 | (c >>> 12)));
+                bytes.put((byte)(0x80 | ((c >>> 6) & 0x3F)));
+                bytes.put((byte)(0x80 | (c & 0x3F)));
+            } else if (Character.isHighSurrogate(c) && i + 1 < length
+                && Character.isLowSurrogate(value.charAt(i + 1))) {
+                int codePoint = Character.toCodePoint(c, value.charAt(++i));
+                bytes.put((byte)(0xF0 | (codePoint >>> 18)));
+                bytes.put((byte)(0x80 | ((codePoint >>> 12) & 0x3F)));
+                bytes.put((byte)(0x80 | ((codePoint >>> 6) & 0x3F)));
+                bytes.put((byte)(0x80 | (codePoint & 0x3F)));
+            } else {
+                bytes.put((byte)'?');
+            }
+        }
+    }
+}
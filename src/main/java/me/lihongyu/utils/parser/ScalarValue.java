@@ -0,0 +1,172 @@
+package me.lihongyu.utils.parser;
+
+import com.google.protobuf.ByteString;
+
+import java.util.NoSuchElementException;
+import java.util.function.DoubleConsumer;
+import java.util.function.LongConsumer;
+
+/**
+ * Holder of a single value parsed by parseLong, parseDouble, parseBoolean, parseEnumNumber or parseBytes,
+ * just like OptionalLong, except that it is mutable: one holder is filled again by every call,
+ * so a numeric value goes from the wire into it without any object allocated.
+ * It is not thread-safe, so keep one holder per thread.
+ * e.g.
+ * <pre>
+ * ScalarValue price = new ScalarValue();
+ * long total = 0;
+ * for (byte[] bytes : rows) {
+ *     total += parser.parseLong(Input.of(bytes), pricePath, price).orElse(0);
+ * }
+ * </pre>
+ *
+ * @author jared
+ * @date 2026/10/17
+ */
+public final class ScalarValue implements LongConsumer, DoubleConsumer {
+    private boolean present;
+    private long longValue;
+    private double doubleValue;
+    private ByteString bytesValue;
+
+    /**
+     * @return whether the path gives a value, that is, parse would not return null
+     */
+    public boolean isPresent() {
+        return present;
+    }
+
+    /**
+     * @return value of parseLong or parseEnumNumber, truncated if it is parsed by parseDouble
+     * @throws NoSuchElementException if there is no value present
+     */
+    public long getAsLong() {
+        check();
+        return longValue;
+    }
+
+    /**
+     * @return value of parseDouble, or the others widened
+     * @throws NoSuchElementException if there is no value present
+     */
+    public double getAsDouble() {
+        check();
+        return doubleValue;
+    }
+
+    /**
+     * @return value of parseBoolean
+     * @throws NoSuchElementException if there is no value present
+     */
+    public boolean getAsBoolean() {
+        check();
+        return longValue != 0;
+    }
+
+    /**
+     * @return value of parseBytes, a slice of the input if it is passed as bytes
+     * @throws NoSuchElementException if there is no value present
+     */
+    public ByteString getBytes() {
+        if (bytesValue == null) {
+            check();
+            throw new NoSuchElementException("Value is not bytes");
+        }
+        return bytesValue;
+    }
+
+    /**
+     * @param other
+     * @return the value if present, otherwise other
+     */
+    public long orElse(long other) {
+        return present ? longValue : other;
+    }
+
+    /**
+     * @param other
+     * @return the value if present, otherwise other
+     */
+    public double orElse(double other) {
+        return present ? doubleValue : other;
+    }
+
+    /**
+     * @param other
+     * @return the value if present, otherwise other
+     */
+    public boolean orElse(boolean other) {
+        return present ? longValue != 0 : other;
+    }
+
+    /**
+     * set by the parser
+     *
+     * @param value
+     */
+    @Override
+    public void accept(long value) {
+        present = true;
+        longValue = value;
+        doubleValue = value;
+    }
+
+    /**
+     * set by the parser
+     *
+     * @param value
+     */
+    @Override
+    public void accept(double value) {
+        present = true;
+        longValue = (long)value;
+        doubleValue = value;
+    }
+
+    /**
+     * @param value boxed result of the parser, nothing if it is null
+     */
+    void set(Object value) {
+        if (value instanceof Boolean) {
+            accept((Boolean)value ? 1 : 0);
+        } else if (value instanceof Double || value instanceof Float) {
+            accept(((Number)value).doubleValue());
+        } else if (value instanceof Number) {
+            accept(((Number)value).longValue());
+        } else if (value instanceof ByteString) {
+            present = true;
+            bytesValue = (ByteString)value;
+        } else if (value instanceof String) {
+            present = true;
+            bytesValue = ByteString.copyFromUtf8((String)value);
+        }
+    }
+
+    /**
+     * no value present any more
+     */
+    void clear() {
+        present = false;
+        longValue = 0;
+        doubleValue = 0;
+        bytesValue = null;
+    }
+
+    private void check() {
+        if (!present) {
+            throw new NoSuchElementException("No value present");
+        }
+    }
+
+    @Override
+    public String toString() {
+        if (!present) {
+            return "ScalarValue.empty";
+        }
+        if (bytesValue != null) {
+            return "ScalarValue[" + bytesValue + "]";
+        }
+        return "ScalarValue[" + (longValue == doubleValue ? String.valueOf(longValue) : String.valueOf(doubleValue))
+            + "]";
+    }
+}
@@ -0,0 +1,190 @@
+package me.lihongyu.utils.parser;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Values of a field path in wire order, where a number or a bool is kept as primitive bits by its kind,
+ * and only boxed into the same type as DynamicMessage.getField when it is read as an object.
+ * It is reused across calls by the extractor of a thread, so it grows to the most values of a call and stays there.
+ *
+ * @author jared
+ * @date 2026/10/17
+ */
+final class ValueList {
+    /**
+     * kinds of a value: no value, Long, Integer, Float, Double, Boolean, or any other object
+     */
+    static final int NONE = 0;
+    static final int LONG = 1;
+    static final int INT = 2;
+    static final int FLOAT = 3;
+    static final int DOUBLE = 4;
+    static final int BOOL = 5;
+    static final int OBJECT = 6;
+
+    /**
+     * whether the path gives a list, otherwise its value is the first one
+     */
+    boolean list;
+    private byte[] kinds = new byte[8];
+    /**
+     * the long or int, the raw bits of the float or double, 1 or 0 for a bool
+     */
+    private long[] bits = new long[8];
+    /**
+     * values of kind OBJECT, null for the others
+     */
+    private Object[] objects = new Object[8];
+    private int size;
+
+    /**
+     * @param kind
+     * @param bits   bits of a number or a bool
+     * @param object value of kind OBJECT, ignored for the others
+     */
+    void add(int kind, long bits, Object object) {
+        if (size == kinds.length) {
+            kinds = Arrays.copyOf(kinds, size * 2);
+            this.bits = Arrays.copyOf(this.bits, size * 2);
+            objects = Arrays.copyOf(objects, size * 2);
+        }
+        kinds[size] = (byte)kind;
+        this.bits[size] = bits;
+        objects[size] = kind == OBJECT ? object : null;
+        size++;
+    }
+
+    /**
+     * drop the values, objects are not referenced any more
+     */
+    void clear() {
+        Arrays.fill(objects, 0, size, null);
+        size = 0;
+    }
+
+    int size() {
+        return size;
+    }
+
+    int kind(int index) {
+        return kinds[index];
+    }
+
+    long bits(int index) {
+        return bits[index];
+    }
+
+    Object object(int index) {
+        return objects[index];
+    }
+
+    /**
+     * @param index
+     * @return the value boxed
+     */
+    Object get(int index) {
+        return box(kinds[index], bits[index], objects[index]);
+    }
+
+    /**
+     * @return the values boxed
+     */
+    List<Object> toList() {
+        List<Object> values = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            values.add(get(i));
+        }
+        return values;
+    }
+
+    /**
+     * @param value boxed value, or null
+     * @return
+     */
+    static int kindOf(Object value) {
+        if (value instanceof Long) {
+            return LONG;
+        } else if (value instanceof Integer) {
+            return INT;
+        } else if (value instanceof Float) {
+            return FLOAT;
+        } else if (value instanceof Double) {
+            return DOUBLE;
+        } else if (value instanceof Boolean) {
+            return BOOL;
+        }
+        return OBJECT;
+    }
+
+    /**
+     * @param value boxed value, or null
+     * @return bits of a number or a bool, 0 for the others
+     */
+    static long bitsOf(Object value) {
+        switch (kindOf(value)) {
+            case LONG:
+            case INT:
+                return ((Number)value).longValue();
+            case FLOAT:
+                return Float.floatToRawIntBits((Float)value);
+            case DOUBLE:
+                return Double.doubleToRawLongBits((Double)value);
+            case BOOL:
+                return (Boolean)value ? 1 : 0;
+            default:
+                return 0;
+        }
+    }
+
+    static Object box(int kind, long bits, Object object) {
+        switch (kind) {
+            case LONG:
+                return bits;
+            case INT:
+                return (int)bits;
+            case FLOAT:
+                return Float.intBitsToFloat((int)bits);
+            case DOUBLE:
+                return Double.longBitsToDouble(bits);
+            case BOOL:
+                return bits != 0;
+            default:
+                return object;
+        }
+    }
+
+    /**
+     * @param kind kind of a number
+     * @param bits
+     * @return
+     */
+    static double toDouble(int kind, long bits) {
+        switch (kind) {
+            case FLOAT:
+                return Float.intBitsToFloat((int)bits);
+            case DOUBLE:
+                return Double.longBitsToDouble(bits);
+            default:
+                return bits;
+        }
+    }
+
+    /**
+     * @param kind kind of a number
+     * @param bits
+     * @return a float or double truncated
+     */
+    static long toLong(int kind, long bits) {
+        return kind == FLOAT || kind == DOUBLE ? (long)toDouble(kind, bits) : bits;
+    }
+
+    /**
+     * @param kind
+     * @return whether a value of the kind is a Number
+     */
+    static boolean isNumber(int kind) {
+        return kind >= LONG && kind <= DOUBLE;
+    }
+}
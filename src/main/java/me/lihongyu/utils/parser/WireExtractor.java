@@ -0,0 +1,1387 @@
+package me.lihongyu.utils.parser;
+
+import com.google.protobuf.ByteString;
+import com.google.protobuf.CodedInputStream;
+import com.google.protobuf.CodedOutputStream;
+import com.google.protobuf.Descriptors.EnumValueDescriptor;
+import com.google.protobuf.Descriptors.FieldDescriptor;
+import com.google.protobuf.Descriptors.FieldDescriptor.JavaType;
+import com.google.protobuf.Descriptors.FieldDescriptor.Type;
+import com.google.protobuf.Descriptors.FileDescriptor.Syntax;
+import com.google.protobuf.InvalidProtocolBufferException;
+import com.google.protobuf.WireFormat;
+import me.lihongyu.utils.parser.CompiledPath.Hop;
+import me.lihongyu.utils.parser.PathTree.Node;
+import me.lihongyu.utils.parser.syntax.Terminal;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.function.DoubleConsumer;
+import java.util.function.LongConsumer;
+
+/**
+ * Walk the protobuf wire format along a tree of field paths, decoding only the tags on the paths and skipping
+ * everything else by length, with the same results as walking a DynamicMessage hop by hop,
+ * except that a message value is the slice of its bytes in the input.
+ * Values are selected by index as they are walked through, or through a small ring for positions from the end,
+ * and the walk stops once no more value could be selected; a terminal is accumulated into primitives,
+ * and numeric values of a path can be passed to a sink instead of being collected.
+ * Scalars are kept unboxed in a {@link ValueList} per path. One extractor is kept per thread and reused across calls,
+ * so its results are valid until it is released.
+ *
+ * @author jared
+ * @date 2026/10/17
+ */
+final class WireExtractor {
+    /**
+     * size of the buffer pb bytes are pulled into from a stream
+     */
+    private static final int STREAM_BUFFER_SIZE = 4096;
+    /**
+     * one extractor is kept per thread and reused across calls, so its arrays are allocated once
+     */
+    private static final ThreadLocal<WireExtractor> EXTRACTORS = ThreadLocal.withInitial(WireExtractor::new);
+
+    /**
+     * whether a call is using this extractor
+     */
+    private boolean busy;
+    private PathTree tree;
+    /**
+     * pb bytes of the root message to slice sub messages from, null if they are pulled from a stream
+     */
+    private ByteString payload;
+    /**
+     * values of every slot, in wire order
+     */
+    private ValueList[] values = new ValueList[0];
+    /**
+     * result of a terminal, see {@link #values(int)}
+     */
+    private final ValueList aggregate = new ValueList();
+    /**
+     * ordinal of the next value of every node, used to select value by index
+     */
+    private int[] ordinals = new int[0];
+    /**
+     * count of selected values of every node
+     */
+    private int[] selectedCounts = new int[0];
+    /**
+     * singular scalar node: the last value seen in current message, see {@link ValueList}
+     */
+    private byte[] lastKinds = new byte[0];
+    private long[] lastBits = new long[0];
+    private Object[] lastObjects = new Object[0];
+    /**
+     * singular message node: whether it has been seen in current message
+     */
+    private boolean[] opened = new boolean[0];
+    /**
+     * singular message node: whether it is selected by index
+     */
+    private boolean[] selected = new boolean[0];
+    /**
+     * singular message node ending a path: all occurrences, concatenating is the same as merging
+     */
+    private ByteString[] leafBytes = new ByteString[0];
+    /**
+     * no value could reach any slot through the node any more
+     */
+    private boolean[] dead = new boolean[0];
+    /**
+     * nodes matching the current tag, indexed by depth
+     */
+    private Node[][] matched = new Node[0][];
+    /**
+     * values of the node kept until their positions from the end are known, indexed by node id
+     */
+    private Ring[] rings = new Ring[0];
+    /**
+     * a node on its own, to walk through its values one by one, indexed by node id
+     */
+    private Node[][] singles = new Node[0][];
+    /**
+     * node ending a path with a terminal: count of values, and the sum, min or max of them
+     */
+    private long[] counts = new long[0];
+    private long[] longResults = new long[0];
+    private double[] doubleResults = new double[0];
+    /**
+     * the scalar value just decoded, see {@link ValueList}
+     */
+    private int valueKind;
+    private long valueBits;
+    private Object valueObject;
+    /**
+     * node ending the path whose values are passed to a sink instead of being collected, or null
+     */
+    private Node sinkNode;
+    /**
+     * exactly one of them is set if there is a sink
+     */
+    private LongConsumer longSink;
+    private DoubleConsumer doubleSink;
+    /**
+     * count of values passed to the sink
+     */
+    private int sunkCount;
+
+    private WireExtractor() {}
+
+    /**
+     * get an extractor for one call, which must be released after the results are read
+     *
+     * @return the extractor of this thread, or a new one if it is used by a call up the stack, e.g. a sink parsing
+     */
+    static WireExtractor acquire() {
+        WireExtractor extractor = EXTRACTORS.get();
+        if (extractor.busy) {
+            extractor = new WireExtractor();
+        }
+        extractor.busy = true;
+        return extractor;
+    }
+
+    /**
+     * drop everything of the call, so the results are not valid any more and nothing of the input is referenced
+     */
+    void release() {
+        if (tree != null) {
+            int nodeCount = tree.nodes.length;
+            Arrays.fill(ordinals, 0, nodeCount, 0);
+            Arrays.fill(selectedCounts, 0, nodeCount, 0);
+            Arrays.fill(lastKinds, 0, nodeCount, (byte)ValueList.NONE);
+            Arrays.fill(lastObjects, 0, nodeCount, null);
+            Arrays.fill(opened, 0, nodeCount, false);
+            Arrays.fill(selected, 0, nodeCount, false);
+            Arrays.fill(leafBytes, 0, nodeCount, null);
+            Arrays.fill(dead, 0, nodeCount, false);
+            Arrays.fill(rings, 0, nodeCount, null);
+            Arrays.fill(singles, 0, nodeCount, null);
+            Arrays.fill(counts, 0, nodeCount, 0);
+            Arrays.fill(longResults, 0, nodeCount, 0);
+            Arrays.fill(doubleResults, 0, nodeCount, 0);
+            for (int depth = 0; depth < tree.widths.length; depth++) {
+                Arrays.fill(matched[depth], null);
+            }
+            for (int slot = 0; slot < tree.slotNodes.length; slot++) {
+                values[slot].clear();
+            }
+        }
+        aggregate.clear();
+        valueObject = null;
+        tree = null;
+        payload = null;
+        sinkNode = null;
+        longSink = null;
+        doubleSink = null;
+        sunkCount = 0;
+        busy = false;
+    }
+
+    /**
+     * extract the values of all field paths in one walk, once between acquire and release
+     *
+     * @param payload    pb bytes of the root message, it is never copied
+     * @param tree       field paths starting from the same message
+     * @param longSink   sink of the integral values of the only path, or null
+     * @param doubleSink sink of the values of the only path as doubles, or null
+     * @return false if the input is broken, when some values may be passed to the sink already
+     */
+    boolean run(ByteString payload, PathTree tree, LongConsumer longSink, DoubleConsumer doubleSink) {
+        CodedInputStream input = payload.newCodedInput();
+        //bytes fields are slices of the payload as well
+        input.enableAliasing(true);
+        return run(input, payload, tree, longSink, doubleSink);
+    }
+
+    /**
+     * pull pb bytes from the stream chunk by chunk, the stream is not read any further once no more value could be
+     * selected, see {@link #run(ByteString, PathTree, LongConsumer, DoubleConsumer)}
+     */
+    boolean run(InputStream stream, PathTree tree, LongConsumer longSink, DoubleConsumer doubleSink) {
+        return run(CodedInputStream.newInstance(stream, STREAM_BUFFER_SIZE), null, tree, longSink, doubleSink);
+    }
+
+    private boolean run(CodedInputStream input, ByteString payload, PathTree tree, LongConsumer longSink,
+                        DoubleConsumer doubleSink) {
+        init(tree, payload, longSink, doubleSink);
+        try {
+            Node[] parents = matched[0];
+            parents[0] = tree.root;
+            walk(input, parents, 1, 0);
+            end(tree.root);
+            flush();
+            if ((longSink != null || doubleSink != null) && sinkNode == null) {
+                sinkAggregate();
+            }
+            return true;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    /**
+     * grow the arrays to the tree, they are cleared by the last release already
+     */
+    private void init(PathTree tree, ByteString payload, LongConsumer longSink, DoubleConsumer doubleSink) {
+        this.tree = tree;
+        this.payload = payload;
+        this.longSink = longSink;
+        this.doubleSink = doubleSink;
+        Node[] sinkPath = tree.slotNodes[0];
+        Node last = sinkPath[sinkPath.length - 1];
+        //a terminal is passed to the sink once it is computed
+        this.sinkNode = (longSink != null || doubleSink != null) && last.hop.terminal == null ? last : null;
+        int nodeCount = tree.nodes.length;
+        if (ordinals.length < nodeCount) {
+            ordinals = new int[nodeCount];
+            selectedCounts = new int[nodeCount];
+            lastKinds = new byte[nodeCount];
+            lastBits = new long[nodeCount];
+            lastObjects = new Object[nodeCount];
+            opened = new boolean[nodeCount];
+            selected = new boolean[nodeCount];
+            leafBytes = new ByteString[nodeCount];
+            dead = new boolean[nodeCount];
+            rings = new Ring[nodeCount];
+            singles = new Node[nodeCount][];
+            counts = new long[nodeCount];
+            longResults = new long[nodeCount];
+            doubleResults = new double[nodeCount];
+        }
+        if (matched.length < tree.widths.length) {
+            matched = Arrays.copyOf(matched, tree.widths.length);
+        }
+        for (int depth = 0; depth < tree.widths.length; depth++) {
+            if (matched[depth] == null || matched[depth].length < tree.widths[depth]) {
+                matched[depth] = new Node[tree.widths[depth]];
+            }
+        }
+        int slotCount = tree.slotNodes.length;
+        if (values.length < slotCount) {
+            int oldLength = values.length;
+            values = Arrays.copyOf(values, slotCount);
+            for (int slot = oldLength; slot < slotCount; slot++) {
+                values[slot] = new ValueList();
+            }
+        }
+        for (int slot = 0; slot < slotCount; slot++) {
+            Node[] nodes = tree.slotNodes[slot];
+            values[slot].list = nodes[nodes.length - 1].hop.list;
+        }
+    }
+
+    /**
+     * @return value of every path boxed: a List if the path goes through a repeated field, otherwise the value;
+     * null if absent
+     */
+    Object[] results() {
+        Object[] results = new Object[tree.slotNodes.length];
+        for (int slot = 0; slot < results.length; slot++) {
+            ValueList slotValues = values(slot);
+            if (slotValues != null) {
+                results[slot] = slotValues.list ? slotValues.toList() : slotValues.get(0);
+            }
+        }
+        return results;
+    }
+
+    /**
+     * @param slot
+     * @return values of the path without boxing them, a terminal gives one value, which is Long, or Double if the
+     * values are float or double, Boolean for has; null if the result is null
+     */
+    ValueList values(int slot) {
+        Node[] nodes = tree.slotNodes[slot];
+        Node last = nodes[nodes.length - 1];
+        if (last.hop.terminal != null) {
+            return aggregate(last);
+        }
+        for (Node node : nodes) {
+            //just like a null value in the middle of the path
+            if (!node.hop.list && selectedCounts[node.id] == 0) {
+                return null;
+            }
+        }
+        ValueList slotValues = values[slot];
+        return slotValues.list || slotValues.size() > 0 ? slotValues : null;
+    }
+
+    /**
+     * @param slot slot of a path ending with a counting terminal
+     * @return count of values of the path
+     */
+    long count(int slot) {
+        Node[] nodes = tree.slotNodes[slot];
+        return counts[nodes[nodes.length - 1].id];
+    }
+
+    /**
+     * @return count of values passed to the sink
+     */
+    int sunkCount() {
+        return sunkCount;
+    }
+
+    /**
+     * @param node node ending a path with a terminal
+     * @return null for min or max of nothing
+     */
+    private ValueList aggregate(Node node) {
+        Hop hop = node.hop;
+        long count = counts[node.id];
+        aggregate.clear();
+        if (hop.terminal == Terminal.HAS) {
+            aggregate.add(ValueList.BOOL, count > 0 ? 1 : 0, null);
+        } else if (hop.terminal.isCounting()) {
+            aggregate.add(ValueList.LONG, count, null);
+        } else if (count == 0 && hop.terminal != Terminal.SUM) {
+            return null;
+        } else if (hop.floating) {
+            aggregate.add(ValueList.DOUBLE, Double.doubleToRawLongBits(doubleResults[node.id]), null);
+        } else {
+            aggregate.add(ValueList.LONG, longResults[node.id], null);
+        }
+        return aggregate;
+    }
+
+    /**
+     * pass the result of the terminal ending the only path to the sink
+     */
+    private void sinkAggregate() {
+        Node[] nodes = tree.slotNodes[0];
+        ValueList result = aggregate(nodes[nodes.length - 1]);
+        if (result == null) {
+            return;
+        }
+        if (result.kind(0) == ValueList.DOUBLE) {
+            sink(Double.longBitsToDouble(result.bits(0)));
+        } else {
+            sink(result.bits(0));
+        }
+    }
+
+    /**
+     * walk through one message, whose fields are matched with children of parents
+     *
+     * @param input
+     * @param parents     nodes of this message
+     * @param parentCount count of parents
+     * @param endTag      end group tag if the message is a group, otherwise 0
+     */
+    private void walk(CodedInputStream input, Node[] parents, int parentCount, int endTag) throws IOException {
+        Node[] candidates = matched[parents[0].depth + 1];
+        while (!dead[tree.root.id]) {
+            int tag = input.readTag();
+            if (tag == endTag) {
+                break;
+            }
+            if (tag == 0) {
+                throw new InvalidProtocolBufferException("Group is not terminated by an end-group tag.");
+            }
+            int number = WireFormat.getTagFieldNumber(tag);
+            int count = 0;
+            for (int i = 0; i < parentCount; i++) {
+                Node[] children = parents[i].match(number);
+                if (children == null) {
+                    continue;
+                }
+                for (Node child : children) {
+                    if (!dead[child.id]) {
+                        candidates[count++] = child;
+                    }
+                }
+            }
+            if (count == 0) {
+                skip(input, tag);
+                continue;
+            }
+
+            Hop hop = candidates[0].hop;
+            int wireType = WireFormat.getTagWireType(tag);
+            if (hop.isRaw()) {
+                if (wireType == WireFormat.WIRETYPE_LENGTH_DELIMITED || wireType == WireFormat.WIRETYPE_START_GROUP) {
+                    readMessage(input, tag, candidates, count);
+                } else {
+                    decodeRaw(input, wireType);
+                    readScalar(candidates, count);
+                }
+            } else if (wireType == hop.wireType) {
+                if (hop.message) {
+                    readMessage(input, tag, candidates, count);
+                } else if (unboxed(candidates, count)) {
+                    readAccumulated(input, candidates, count);
+                } else if (decode(input, hop.field)) {
+                    readScalar(candidates, count);
+                }
+            } else if (hop.packable && wireType == WireFormat.WIRETYPE_LENGTH_DELIMITED) {
+                int length = input.readRawVarint32();
+                if (countsAll(candidates, count)) {
+                    countPacked(input, length, candidates, count);
+                    continue;
+                }
+                boolean unboxed = unboxed(candidates, count);
+                int limit = input.pushLimit(length);
+                while (!dead[tree.root.id] && input.getBytesUntilLimit() > 0) {
+                    if (unboxed) {
+                        readAccumulated(input, candidates, count);
+                    } else if (decode(input, hop.field)) {
+                        readScalar(candidates, count);
+                    }
+                }
+                input.popLimit(limit);
+            } else {
+                //wire type mismatch, DynamicMessage keeps it as an unknown field
+                skip(input, tag);
+            }
+        }
+    }
+
+    private void skip(CodedInputStream input, int tag) throws IOException {
+        if (!input.skipField(tag)) {
+            throw new InvalidProtocolBufferException("Protocol message end-group tag did not match expected tag.");
+        }
+    }
+
+    /**
+     * read one occurrence of a message (or group) field
+     *
+     * @param input
+     * @param tag
+     * @param candidates nodes matching the field
+     * @param count      count of candidates
+     */
+    private void readMessage(CodedInputStream input, int tag, Node[] candidates, int count) throws IOException {
+        Hop hop = candidates[0].hop;
+        boolean group = WireFormat.getTagWireType(tag) == WireFormat.WIRETYPE_START_GROUP;
+        //an element is read ahead if it has to be tested or kept before it is selected
+        int length = -1;
+        int offset = -1;
+        ByteString element = null;
+        if (readAhead(candidates, count)) {
+            if (payload == null) {
+                element = group ? readGroup(input, hop) : input.readBytes();
+            } else if (group) {
+                offset = input.getTotalBytesRead();
+                skip(input, tag);
+                int end = input.getTotalBytesRead() - CodedOutputStream.computeUInt32SizeNoTag(hop.endGroupTag);
+                element = payload.substring(offset, end);
+            } else {
+                length = input.readRawVarint32();
+                offset = input.getTotalBytesRead();
+                element = payload.substring(offset, offset + length);
+            }
+        }
+
+        //keep the selected nodes only
+        int selectedCount = 0;
+        boolean descend = false;
+        boolean leaf = false;
+        for (int i = 0; i < count; i++) {
+            Node node = candidates[i];
+            boolean select;
+            if (node.hop.filter != null && !node.hop.filter.test(element)) {
+                select = false;
+            } else if (node.hop.bufferSize > 0) {
+                buffer(node, element, offset, true);
+                select = false;
+            } else if (node.hop.repeated) {
+                select = select(node);
+            } else {
+                //singular message is selected once no matter how many times it occurs
+                if (!opened[node.id]) {
+                    opened[node.id] = true;
+                    selected[node.id] = select(node);
+                }
+                select = selected[node.id];
+            }
+            if (select) {
+                candidates[selectedCount++] = node;
+                descend |= node.children.length > 0;
+                //a message only counted is never sliced
+                leaf |= node.slots.length > 0 && node.hop.terminal == null;
+            }
+        }
+        if (selectedCount == 0) {
+            if (element == null) {
+                skip(input, tag);
+            } else if (payload != null && !group) {
+                input.skipRawBytes(length);
+            }
+            return;
+        }
+
+        ByteString bytes = null;
+        if (element != null && (payload == null || group)) {
+            bytes = element;
+            if (descend) {
+                walkElement(element, offset, candidates, selectedCount);
+            }
+        } else if (payload == null && leaf) {
+            //streamed bytes can not be sliced afterwards, so read the message out before walking through it
+            bytes = group ? readGroup(input, hop) : input.readBytes();
+            if (descend) {
+                walk(bytes.newCodedInput(), candidates, selectedCount, 0);
+            }
+        } else if (group) {
+            int start = input.getTotalBytesRead();
+            if (descend) {
+                walk(input, candidates, selectedCount, hop.endGroupTag);
+            } else {
+                skip(input, tag);
+            }
+            if (leaf) {
+                int end = input.getTotalBytesRead() - CodedOutputStream.computeUInt32SizeNoTag(hop.endGroupTag);
+                bytes = payload.substring(start, end);
+            }
+        } else {
+            length = length < 0 ? input.readRawVarint32() : length;
+            int start = input.getTotalBytesRead();
+            if (descend) {
+                int limit = input.pushLimit(length);
+                walk(input, candidates, selectedCount, 0);
+                input.popLimit(limit);
+            } else {
+                input.skipRawBytes(length);
+            }
+            if (leaf) {
+                bytes = payload.substring(start, start + length);
+            }
+        }
+
+        for (int i = 0; i < selectedCount; i++) {
+            Node node = candidates[i];
+            if (node.slots.length > 0) {
+                if (node.hop.repeated) {
+                    emit(node, ValueList.OBJECT, 0, bytes);
+                } else {
+                    leafBytes[node.id] = leafBytes[node.id] == null ? bytes : leafBytes[node.id].concat(bytes);
+                }
+            }
+            //every element of a repeated message is a message on its own
+            if (node.hop.repeated) {
+                end(node);
+                finish(node);
+            }
+        }
+    }
+
+    private static boolean readAhead(Node[] candidates, int count) {
+        for (int i = 0; i < count; i++) {
+            if (candidates[i].hop.filter != null || candidates[i].hop.bufferSize > 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * read the body of a group out, without its start and end tags
+     *
+     * @param input
+     * @param hop
+     * @return
+     */
+    private static ByteString readGroup(CodedInputStream input, Hop hop) throws IOException {
+        ByteString.Output out = ByteString.newOutput();
+        CodedOutputStream output = CodedOutputStream.newInstance(out);
+        copyGroup(input, output, hop.endGroupTag);
+        output.flush();
+        return out.toByteString();
+    }
+
+    /**
+     * copy the fields of a group field by field up to its end tag, which is read but not copied
+     *
+     * @param input
+     * @param output
+     * @param endTag end tag of the group
+     */
+    private static void copyGroup(CodedInputStream input, CodedOutputStream output, int endTag) throws IOException {
+        while (true) {
+            int tag = input.readTag();
+            if (tag == endTag) {
+                return;
+            }
+            if (tag == 0) {
+                throw new InvalidProtocolBufferException("Group is not terminated by an end-group tag.");
+            }
+            output.writeUInt32NoTag(tag);
+            switch (WireFormat.getTagWireType(tag)) {
+                case WireFormat.WIRETYPE_VARINT:
+                    output.writeUInt64NoTag(input.readRawVarint64());
+                    break;
+                case WireFormat.WIRETYPE_FIXED64:
+                    output.writeFixed64NoTag(input.readRawLittleEndian64());
+                    break;
+                case WireFormat.WIRETYPE_FIXED32:
+                    output.writeFixed32NoTag(input.readRawLittleEndian32());
+                    break;
+                case WireFormat.WIRETYPE_LENGTH_DELIMITED:
+                    output.writeBytesNoTag(input.readBytes());
+                    break;
+                case WireFormat.WIRETYPE_START_GROUP:
+                    int nestedEndTag = (WireFormat.getTagFieldNumber(tag) << 3) | WireFormat.WIRETYPE_END_GROUP;
+                    copyGroup(input, output, nestedEndTag);
+                    output.writeUInt32NoTag(nestedEndTag);
+                    break;
+                case WireFormat.WIRETYPE_END_GROUP:
+                    throw new InvalidProtocolBufferException(
+                        "Protocol message end-group tag did not match expected tag.");
+                default:
+                    throw new InvalidProtocolBufferException("Protocol message tag had invalid wire type.");
+            }
+        }
+    }
+
+    /**
+     * read the value just decoded for candidates
+     *
+     * @param candidates
+     * @param count
+     */
+    private void readScalar(Node[] candidates, int count) throws IOException {
+        for (int i = 0; i < count; i++) {
+            Node node = candidates[i];
+            if (!node.hop.repeated) {
+                keep(node, valueKind, valueBits, valueObject);
+            } else if (node.hop.bufferSize > 0) {
+                buffer(node, ValueList.box(valueKind, valueBits, valueObject), -1, false);
+            } else if (select(node)) {
+                emit(node, valueKind, valueBits, valueObject);
+                finish(node);
+            }
+        }
+    }
+
+    /**
+     * keep the last value of a singular scalar node in current message
+     *
+     * @param node
+     * @param kind
+     * @param bits
+     * @param object
+     */
+    private void keep(Node node, int kind, long bits, Object object) {
+        lastKinds[node.id] = (byte)kind;
+        lastBits[node.id] = bits;
+        lastObjects[node.id] = object;
+    }
+
+    /**
+     * the message of parent is ended, so singular fields in it are determined now
+     *
+     * @param parent
+     */
+    private void end(Node parent) throws IOException {
+        for (Node node : parent.children) {
+            Hop hop = node.hop;
+            if (hop.repeated) {
+                continue;
+            }
+            if (!hop.message) {
+                int kind = lastKinds[node.id];
+                long bits = lastBits[node.id];
+                Object object = lastObjects[node.id];
+                lastKinds[node.id] = ValueList.NONE;
+                lastObjects[node.id] = null;
+                if (kind == ValueList.NONE && hop.defaultValue != null) {
+                    kind = ValueList.kindOf(hop.defaultValue);
+                    bits = ValueList.bitsOf(hop.defaultValue);
+                    object = hop.defaultValue;
+                }
+                if (kind != ValueList.NONE && select(node)) {
+                    emit(node, kind, bits, object);
+                    finish(node);
+                }
+            } else if (opened[node.id]) {
+                opened[node.id] = false;
+                if (!selected[node.id]) {
+                    continue;
+                }
+                if (node.slots.length > 0) {
+                    emit(node, ValueList.OBJECT, 0, leafBytes[node.id]);
+                    leafBytes[node.id] = null;
+                }
+                end(node);
+                finish(node);
+            }
+        }
+    }
+
+    /**
+     * select the next value of node by the range of its hop
+     *
+     * @param node
+     * @return
+     */
+    private boolean select(Node node) {
+        Hop hop = node.hop;
+        int ordinal = ordinals[node.id]++;
+        if (ordinal >= hop.start && ordinal < hop.stop && (hop.step == 1 || (ordinal - hop.start) % hop.step == 0)) {
+            selectedCounts[node.id]++;
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * a selected value of node is walked through
+     *
+     * @param node
+     * @param kind   see {@link ValueList}
+     * @param bits
+     * @param object value of kind OBJECT, pb bytes of a message, or null for a message only counted
+     */
+    private void emit(Node node, int kind, long bits, Object object) {
+        if (node == sinkNode) {
+            sink(node, kind, bits, object);
+            return;
+        }
+        if (node.hop.terminal != null) {
+            accumulate(node, kind, bits);
+            return;
+        }
+        for (int slot : node.slots) {
+            values[slot].add(kind, bits, object);
+        }
+    }
+
+    /**
+     * @param node node ending a path with a terminal
+     * @param kind
+     * @param bits
+     */
+    private void accumulate(Node node, int kind, long bits) {
+        Hop hop = node.hop;
+        if (hop.terminal.isCounting()) {
+            count(node, 1);
+        } else if (!ValueList.isNumber(kind)) {
+            //a length-delimited value of a raw hop is not a number
+            return;
+        } else if (hop.floating) {
+            accumulate(node, ValueList.toDouble(kind, bits));
+        } else if (hop.unsigned && kind == ValueList.INT) {
+            accumulate(node, Integer.toUnsignedLong((int)bits));
+        } else {
+            accumulate(node, ValueList.toLong(kind, bits));
+        }
+    }
+
+    private void accumulate(Node node, long value) {
+        int id = node.id;
+        long count = ++counts[id];
+        long result = longResults[id];
+        switch (node.hop.terminal) {
+            case SUM:
+                longResults[id] = result + value;
+                break;
+            case MIN:
+                if (count == 1 || compare(node.hop, value, result) < 0) {
+                    longResults[id] = value;
+                }
+                break;
+            case MAX:
+                if (count == 1 || compare(node.hop, value, result) > 0) {
+                    longResults[id] = value;
+                }
+                break;
+            default:
+                break;
+        }
+    }
+
+    /**
+     * @param node   node ending a path with a counting terminal
+     * @param values count of values walked through
+     */
+    private void count(Node node, int values) {
+        counts[node.id] += values;
+        //presence is known once a value is found
+        if (node.hop.terminal == Terminal.HAS && values > 0) {
+            kill(node);
+        }
+    }
+
+    private static int compare(Hop hop, long x, long y) {
+        return hop.unsigned ? Long.compareUnsigned(x, y) : Long.compare(x, y);
+    }
+
+    private void accumulate(Node node, double value) {
+        int id = node.id;
+        long count = ++counts[id];
+        double result = doubleResults[id];
+        switch (node.hop.terminal) {
+            case SUM:
+                doubleResults[id] = result + value;
+                break;
+            case MIN:
+                doubleResults[id] = count == 1 ? value : Math.min(result, value);
+                break;
+            case MAX:
+                doubleResults[id] = count == 1 ? value : Math.max(result, value);
+                break;
+            default:
+                break;
+        }
+    }
+
+    /**
+     * @param node   the sink node
+     * @param kind
+     * @param bits
+     * @param object value of kind OBJECT
+     */
+    private void sink(Node node, int kind, long bits, Object object) {
+        if (kind == ValueList.BOOL) {
+            sink(bits);
+        } else if (object instanceof EnumValueDescriptor) {
+            sink(((EnumValueDescriptor)object).getNumber());
+        } else if (!ValueList.isNumber(kind)) {
+            //a length-delimited value of a raw hop is not a number
+            return;
+        } else if (node.hop.floating) {
+            sink(ValueList.toDouble(kind, bits));
+        } else if (node.hop.unsigned && kind == ValueList.INT) {
+            sink(Integer.toUnsignedLong((int)bits));
+        } else {
+            sink(ValueList.toLong(kind, bits));
+        }
+    }
+
+    private void sink(long value) {
+        sunkCount++;
+        if (longSink != null) {
+            longSink.accept(value);
+        } else {
+            doubleSink.accept(value);
+        }
+    }
+
+    private void sink(double value) {
+        sunkCount++;
+        doubleSink.accept(value);
+    }
+
+    /**
+     * whether every candidate ends a path with a terminal or a sink, and selects values without keeping them,
+     * so their values are read without being boxed
+     *
+     * @param candidates
+     * @param count
+     * @return
+     */
+    private boolean unboxed(Node[] candidates, int count) {
+        for (int i = 0; i < count; i++) {
+            Hop hop = candidates[i].hop;
+            if (hop.terminal == null && candidates[i] != sinkNode || hop.bufferSize > 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * whether every candidate counts all values of the field, so a packed field is counted as a whole
+     *
+     * @param candidates
+     * @param count
+     * @return
+     */
+    private static boolean countsAll(Node[] candidates, int count) {
+        Hop hop = candidates[0].hop;
+        //unknown enum value of proto2 is not counted, so it has to be decoded
+        if (hop.field.getJavaType() == JavaType.ENUM && hop.field.getFile().getSyntax() != Syntax.PROTO3) {
+            return false;
+        }
+        for (int i = 0; i < count; i++) {
+            Hop candidate = candidates[i].hop;
+            if (candidate.terminal == null || !candidate.terminal.isCounting() || !candidate.selectsAll()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * read one scalar value for candidates accumulating it or passing it to the sink, see {@link #unboxed}
+     *
+     * @param input
+     * @param candidates
+     * @param count
+     */
+    private void readAccumulated(CodedInputStream input, Node[] candidates, int count) throws IOException {
+        Hop hop = candidates[0].hop;
+        boolean counting = true;
+        for (int i = 0; i < count; i++) {
+            counting &= candidates[i].hop.terminal != null && candidates[i].hop.terminal.isCounting();
+        }
+        long longValue = 0;
+        double doubleValue = 0;
+        if (hop.field.getJavaType() == JavaType.ENUM) {
+            //unknown enum value is kept as an unknown field by DynamicMessage
+            longValue = input.readEnum();
+            if (toEnum(hop.field, (int)longValue) == null) {
+                return;
+            }
+        } else if (counting) {
+            skipValue(input, hop.wireType);
+        } else if (hop.floating) {
+            doubleValue = hop.field.getType() == Type.DOUBLE ? input.readDouble() : input.readFloat();
+        } else {
+            longValue = readLong(input, hop.field);
+        }
+        for (int i = 0; i < count; i++) {
+            Node node = candidates[i];
+            if (!node.hop.repeated) {
+                //the last occurrence wins, so it is passed to the sink or accumulated when the message ends
+                if (counting) {
+                    keep(node, ValueList.BOOL, 1, null);
+                } else if (hop.floating) {
+                    keep(node, ValueList.DOUBLE, Double.doubleToRawLongBits(doubleValue), null);
+                } else {
+                    keep(node, ValueList.LONG, longValue, null);
+                }
+                if (node.hop.terminal == Terminal.HAS) {
+                    kill(node);
+                }
+                continue;
+            }
+            if (!select(node)) {
+                continue;
+            }
+            if (node == sinkNode) {
+                if (hop.floating) {
+                    sink(doubleValue);
+                } else {
+                    sink(longValue);
+                }
+            } else if (node.hop.terminal.isCounting()) {
+                count(node, 1);
+            } else if (hop.floating) {
+                accumulate(node, doubleValue);
+            } else {
+                accumulate(node, longValue);
+            }
+            finish(node);
+        }
+    }
+
+    /**
+     * count the values of a packed field by its length, or by the last bytes of its varints, without decoding them
+     *
+     * @param input
+     * @param length     length of the packed field
+     * @param candidates nodes counting all values of the field, see {@link #countsAll(Node[], int)}
+     * @param count      count of candidates
+     */
+    private void countPacked(CodedInputStream input, int length, Node[] candidates, int count) throws IOException {
+        int wireType = candidates[0].hop.wireType;
+        int values = 0;
+        if (wireType == WireFormat.WIRETYPE_FIXED32) {
+            values = length / 4;
+            input.skipRawBytes(length);
+        } else if (wireType == WireFormat.WIRETYPE_FIXED64) {
+            values = length / 8;
+            input.skipRawBytes(length);
+        } else {
+            for (int i = 0; i < length; i++) {
+                //the last byte of a varint is the one without the continuation bit
+                if (input.readRawByte() >= 0) {
+                    values++;
+                }
+            }
+        }
+        for (int i = 0; i < count; i++) {
+            Node node = candidates[i];
+            ordinals[node.id] += values;
+            selectedCounts[node.id] += values;
+            count(node, values);
+        }
+    }
+
+    /**
+     * skip one scalar value without decoding it
+     *
+     * @param input
+     * @param wireType
+     */
+    private static void skipValue(CodedInputStream input, int wireType) throws IOException {
+        switch (wireType) {
+            case WireFormat.WIRETYPE_VARINT:
+                while (input.readRawByte() < 0) {
+                    //continuation bit is set
+                }
+                break;
+            case WireFormat.WIRETYPE_FIXED64:
+                input.skipRawBytes(8);
+                break;
+            case WireFormat.WIRETYPE_FIXED32:
+                input.skipRawBytes(4);
+                break;
+            default:
+                input.skipRawBytes(input.readRawVarint32());
+                break;
+        }
+    }
+
+    /**
+     * a selected value of node has been walked through
+     *
+     * @param node
+     */
+    private void finish(Node node) {
+        //nothing after the last value in the range could reach a slot
+        Hop hop = node.hop;
+        if (hop.stop == CompiledPath.OPEN) {
+            return;
+        }
+        long next = ordinals[node.id];
+        long remainder = (next - hop.start) % hop.step;
+        if (remainder != 0) {
+            next += hop.step - remainder;
+        }
+        if (next < hop.stop) {
+            return;
+        }
+        kill(node);
+    }
+
+    /**
+     * no value could reach any slot through the node any more
+     *
+     * @param node
+     */
+    private void kill(Node node) {
+        dead[node.id] = true;
+        //so does the parent if every path through it is dead, the walk stops when the root is dead
+        for (Node parent = node.parent; parent != null && parent.slots.length == 0; parent = parent.parent) {
+            for (Node child : parent.children) {
+                if (!dead[child.id]) {
+                    return;
+                }
+            }
+            dead[parent.id] = true;
+        }
+    }
+
+    /**
+     * keep a value of node whose position is counted from the end,
+     * a value pushed out of the ring is selected right away if its position is known to be in the range
+     *
+     * @param node
+     * @param value   scalar value, or pb bytes of a message
+     * @param offset  start of the message in the payload, -1 if it is not sliced from the payload
+     * @param message whether the value is a message
+     */
+    private void buffer(Node node, Object value, int offset, boolean message) throws IOException {
+        Hop hop = node.hop;
+        Ring ring = rings[node.id];
+        if (ring == null) {
+            ring = rings[node.id] = new Ring(hop.bufferSize);
+        }
+        ordinals[node.id]++;
+        if (ring.size == hop.bufferSize) {
+            //stop is negative and start is not, so the oldest one is not among the last -stop values
+            int ordinal = ordinals[node.id] - 1 - ring.size;
+            int oldest = ring.head;
+            Object oldestValue = ring.values[oldest];
+            int oldestOffset = ring.offsets[oldest];
+            boolean oldestMessage = ring.messages[oldest];
+            ring.poll();
+            if (hop.start >= 0 && ordinal >= hop.start && (ordinal - hop.start) % hop.step == 0) {
+                process(node, oldestValue, oldestOffset, oldestMessage);
+            }
+        }
+        ring.add(value, offset, message);
+    }
+
+    /**
+     * the input is ended, so positions counted from the end are known now,
+     * parents are flushed before children, so values walked out of a parent's ring are flushed as well
+     */
+    private void flush() throws IOException {
+        for (Node node : tree.nodes) {
+            Ring ring = rings[node.id];
+            if (ring == null || node.hop.start >= 0) {
+                continue;
+            }
+            Hop hop = node.hop;
+            int total = ordinals[node.id];
+            int start = Math.max(total + hop.start, 0);
+            int stop = hop.stop < 0 ? total + hop.stop : Math.min(hop.stop, total);
+            int first = total - ring.size;
+            for (int i = 0; i < ring.size; i++) {
+                int ordinal = first + i;
+                int index = (ring.head + i) % ring.values.length;
+                if (ordinal >= start && ordinal < stop && (ordinal - start) % hop.step == 0) {
+                    process(node, ring.values[index], ring.offsets[index], ring.messages[index]);
+                }
+            }
+            rings[node.id] = null;
+        }
+    }
+
+    /**
+     * walk through a value of node selected after it is read
+     *
+     * @param node
+     * @param value
+     * @param offset
+     * @param message
+     */
+    private void process(Node node, Object value, int offset, boolean message) throws IOException {
+        selectedCounts[node.id]++;
+        if (!message) {
+            emit(node, ValueList.kindOf(value), ValueList.bitsOf(value), value);
+            return;
+        }
+        ByteString bytes = (ByteString)value;
+        if (node.slots.length > 0) {
+            emit(node, ValueList.OBJECT, 0, bytes);
+        }
+        if (node.children.length > 0) {
+            Node[] single = singles[node.id];
+            if (single == null) {
+                single = singles[node.id] = new Node[] {node};
+            }
+            walkElement(bytes, offset, single, 1);
+        }
+        end(node);
+    }
+
+    /**
+     * walk through a message read out already
+     *
+     * @param bytes   pb bytes of the message
+     * @param offset  start of the message in the payload, -1 if it is not sliced from the payload
+     * @param parents nodes of the message
+     * @param count   count of parents
+     */
+    private void walkElement(ByteString bytes, int offset, Node[] parents, int count) throws IOException {
+        if (offset < 0) {
+            walk(bytes.newCodedInput(), parents, count, 0);
+            return;
+        }
+        //read from the payload, so sub messages are still sliced from it at the right position
+        CodedInputStream input = payload.newCodedInput();
+        input.enableAliasing(true);
+        input.skipRawBytes(offset);
+        input.pushLimit(bytes.size());
+        walk(input, parents, count, 0);
+    }
+
+    /**
+     * decode one scalar value, the same type as DynamicMessage.getField
+     *
+     * @param input
+     * @param field
+     * @return null if it is an unknown enum value
+     */
+    static Object readValue(CodedInputStream input, FieldDescriptor field) throws IOException {
+        switch (field.getType()) {
+            case DOUBLE:
+                return input.readDouble();
+            case FLOAT:
+                return input.readFloat();
+            case INT64:
+                return input.readInt64();
+            case UINT64:
+                return input.readUInt64();
+            case INT32:
+                return input.readInt32();
+            case FIXED64:
+                return input.readFixed64();
+            case FIXED32:
+                return input.readFixed32();
+            case BOOL:
+                return input.readBool();
+            case STRING:
+                return field.needsUtf8Check() ? input.readStringRequireUtf8() : input.readString();
+            case BYTES:
+                return input.readBytes();
+            case UINT32:
+                return input.readUInt32();
+            case SFIXED32:
+                return input.readSFixed32();
+            case SFIXED64:
+                return input.readSFixed64();
+            case SINT32:
+                return input.readSInt32();
+            case SINT64:
+                return input.readSInt64();
+            case ENUM:
+                return toEnum(field, input.readEnum());
+            default:
+                throw new IllegalStateException(field.getFullName() + " is not a scalar field");
+        }
+    }
+
+    /**
+     * decode an integral value without boxing it, unsigned 32-bit values are widened as unsigned
+     *
+     * @param input
+     * @param field integer, enum or bool field
+     * @return
+     */
+    static long readLong(CodedInputStream input, FieldDescriptor field) throws IOException {
+        switch (field.getType()) {
+            case INT32:
+                return input.readInt32();
+            case INT64:
+                return input.readInt64();
+            case UINT32:
+                return Integer.toUnsignedLong(input.readUInt32());
+            case UINT64:
+                return input.readUInt64();
+            case SINT32:
+                return input.readSInt32();
+            case SINT64:
+                return input.readSInt64();
+            case FIXED32:
+                return Integer.toUnsignedLong(input.readFixed32());
+            case FIXED64:
+                return input.readFixed64();
+            case SFIXED32:
+                return input.readSFixed32();
+            case SFIXED64:
+                return input.readSFixed64();
+            case BOOL:
+                return input.readBool() ? 1 : 0;
+            case ENUM:
+                return input.readEnum();
+            default:
+                throw new IllegalStateException(field.getFullName() + " is not an integral field");
+        }
+    }
+
+    /**
+     * decode one scalar value into the current value, the same as {@link #readValue} except that a number or a bool
+     * is not boxed
+     *
+     * @param input
+     * @param field
+     * @return false if it is an unknown enum value
+     */
+    private boolean decode(CodedInputStream input, FieldDescriptor field) throws IOException {
+        valueObject = null;
+        switch (field.getJavaType()) {
+            case INT:
+                //signed just like the Integer of DynamicMessage, it is widened as unsigned where it is a number
+                valueKind = ValueList.INT;
+                valueBits = (int)readLong(input, field);
+                return true;
+            case LONG:
+                valueKind = ValueList.LONG;
+                valueBits = readLong(input, field);
+                return true;
+            case FLOAT:
+                valueKind = ValueList.FLOAT;
+                valueBits = Float.floatToRawIntBits(input.readFloat());
+                return true;
+            case DOUBLE:
+                valueKind = ValueList.DOUBLE;
+                valueBits = Double.doubleToRawLongBits(input.readDouble());
+                return true;
+            case BOOLEAN:
+                valueKind = ValueList.BOOL;
+                valueBits = input.readBool() ? 1 : 0;
+                return true;
+            default:
+                valueKind = ValueList.OBJECT;
+                valueObject = readValue(input, field);
+                return valueObject != null;
+        }
+    }
+
+    /**
+     * decode one value of a raw hop by its wire type into the current value, the same type as UnknownFieldSet keeps it
+     *
+     * @param input
+     * @param wireType varint, fixed64 or fixed32
+     */
+    private void decodeRaw(CodedInputStream input, int wireType) throws IOException {
+        valueObject = null;
+        switch (wireType) {
+            case WireFormat.WIRETYPE_VARINT:
+                valueKind = ValueList.LONG;
+                valueBits = input.readInt64();
+                break;
+            case WireFormat.WIRETYPE_FIXED64:
+                valueKind = ValueList.LONG;
+                valueBits = input.readFixed64();
+                break;
+            case WireFormat.WIRETYPE_FIXED32:
+                valueKind = ValueList.INT;
+                valueBits = input.readFixed32();
+                break;
+            default:
+                throw new InvalidProtocolBufferException("Protocol message tag had invalid wire type.");
+        }
+    }
+
+    /**
+     * the last values of a node, oldest first
+     */
+    private static final class Ring {
+        private final int capacity;
+        private Object[] values = new Object[1];
+        private int[] offsets = new int[1];
+        private boolean[] messages = new boolean[1];
+        private int head;
+        private int size;
+
+        private Ring(int capacity) {
+            this.capacity = capacity;
+        }
+
+        private void add(Object value, int offset, boolean message) {
+            if (size == values.length) {
+                grow();
+            }
+            int index = (head + size) % values.length;
+            values[index] = value;
+            offsets[index] = offset;
+            messages[index] = message;
+            size++;
+        }
+
+        private void poll() {
+            values[head] = null;
+            head = (head + 1) % values.length;
+            size--;
+        }
+
+        /**
+         * the ring grows with the values up to its capacity, so a large capacity costs nothing for a short list
+         */
+        private void grow() {
+            int length = (int)Math.min((long)values.length * 2, capacity);
+            Object[] newValues = new Object[length];
+            int[] newOffsets = new int[length];
+            boolean[] newMessages = new boolean[length];
+            for (int i = 0; i < size; i++) {
+                int index = (head + i) % values.length;
+                newValues[i] = values[index];
+                newOffsets[i] = offsets[index];
+                newMessages[i] = messages[index];
+            }
+            values = newValues;
+            offsets = newOffsets;
+            messages = newMessages;
+            head = 0;
+        }
+    }
+
+    static EnumValueDescriptor toEnum(FieldDescriptor field, int number) {
+        EnumValueDescriptor value = field.getEnumType().findValueByNumber(number);
+        if (value == null && field.getFile().getSyntax() == Syntax.PROTO3) {
+            //proto3 enum is open
+            value = field.getEnumType().findValueByNumberCreatingIfUnknown(number);
+        }
+        return value;
+    }
+}
@@ -0,0 +1,104 @@
+package me.lihongyu.utils.parser.syntax;
+
+/**
+ * filter of the elements of a repeated message field: a field of the element, an operator and a literal value
+ * e.g. phones[type=MOBILE] -> (type, EQ, MOBILE), people[#2>100] -> (#2, GT, 100)
+ * It is immutable.
+ *
+ * @author jared
+ * @date 2026/10/17
+ */
+public final class Filter {
+    private final String fieldName;
+    private final int fieldNumber;
+    private final Operator operator;
+    private final String value;
+
+    /**
+     * @param fieldName   name of the field of the element, `#number` if it is addressed by number
+     * @param fieldNumber field number, or 0 if the field is addressed by name
+     * @param operator
+     * @param value       literal value, unquoted
+     */
+    public Filter(String fieldName, int fieldNumber, Operator operator, String value) {
+        this.fieldName = fieldName;
+        this.fieldNumber = fieldNumber;
+        this.operator = operator;
+        this.value = value;
+    }
+
+    public String getFieldName() {
+        return fieldName;
+    }
+
+    /**
+     * @return field number, or 0 if the field is addressed by name
+     */
+    public int getFieldNumber() {
+        return fieldNumber;
+    }
+
+    public Operator getOperator() {
+        return operator;
+    }
+
+    public String getValue() {
+        return value;
+    }
+
+    @Override
+    public String toString() {
+        boolean bare = !value.isEmpty();
+        for (int i = 0; i < value.length() && bare; i++) {
+            char c = value.charAt(i);
+            bare = c != ']' && c != '"' && c != '\'' && c != '\\';
+        }
+        if (bare) {
+            return fieldName + operator.getSymbol() + value;
+        }
+        return fieldName + operator.getSymbol() + '"' + value.replace("\\", "\\\\").replace("\"", "\\\"") + '"';
+    }
+
+    /**
+     * comparison between the field value and the literal value
+     */
+    public enum Operator {
+        EQ("="),
+        NE("!="),
+        GT(">"),
+        GE(">="),
+        LT("<"),
+        LE("<=");
+
+        private final String symbol;
+
+        Operator(String symbol) {
+            this.symbol = symbol;
+        }
+
+        public String getSymbol() {
+            return symbol;
+        }
+
+        /**
+         * @param comparison result of comparing the field value to the literal value
+         * @return whether the element passes
+         */
+        public boolean test(int comparison) {
+            switch (this) {
+                case EQ:
+                    return comparison == 0;
+                case NE:
+                    return comparison != 0;
+                case GT:
+                    return comparison > 0;
+                case GE:
+                    return comparison >= 0;
+                case LT:
+                    return comparison < 0;
+                default:
+                    return comparison <= 0;
+            }
+        }
+    }
+}
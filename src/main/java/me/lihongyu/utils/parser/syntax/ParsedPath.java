@@ -0,0 +1,66 @@
+package me.lihongyu.utils.parser.syntax;
+
+/**
+ * A field path parsed by a syntax once: the message it starts from, its segments and the terminal ending it,
+ * left to be resolved against descriptors only.
+ * It is immutable.
+ *
+ * @author jared
+ * @date 2026/10/17
+ */
+public final class ParsedPath {
+    private final String fullPathStr;
+    private final String classFullName;
+    private final Segment[] segments;
+    private final Terminal terminal;
+
+    /**
+     * @param fullPathStr   field full path parsed from
+     * @param classFullName pkgname.classname of the message the path starts from
+     * @param segments      hops of the path
+     */
+    public ParsedPath(String fullPathStr, String classFullName, Segment[] segments) {
+        this(fullPathStr, classFullName, segments, null);
+    }
+
+    /**
+     * @param fullPathStr   field full path parsed from
+     * @param classFullName pkgname.classname of the message the path starts from
+     * @param segments      hops of the path
+     * @param terminal      function computed over the values of the path, or null
+     */
+    public ParsedPath(String fullPathStr, String classFullName, Segment[] segments, Terminal terminal) {
+        this.fullPathStr = fullPathStr;
+        this.classFullName = classFullName;
+        this.segments = segments.clone();
+        this.terminal = terminal;
+    }
+
+    public String getFullPath() {
+        return fullPathStr;
+    }
+
+    public String getClassFullName() {
+        return classFullName;
+    }
+
+    public int size() {
+        return segments.length;
+    }
+
+    public Segment getSegment(int i) {
+        return segments[i];
+    }
+
+    /**
+     * @return function computed over the values of the path, null if the values are returned
+     */
+    public Terminal getTerminal() {
+        return terminal;
+    }
+
+    @Override
+    public String toString() {
+        return fullPathStr;
+    }
+}
@@ -0,0 +1,150 @@
+package me.lihongyu.utils.parser.syntax;
+
+/**
+ * one hop of a field path: the name of the field, whether it is an extension field, and the index of it
+ * e.g. phones[1] -> (phones, false, 1), (biz.test.feet)[*] -> (biz.test.feet, true, ALL)
+ * A field can be addressed by its number instead of its name, e.g. #4[1] -> (#4, number 4, 1)
+ * A repeated message field can be filtered instead of indexed, e.g. phones[type=MOBILE] -> (phones, false, ALL, type=MOBILE)
+ * A repeated field can be sliced or indexed from the end as well, e.g. phones[-1], phones[:3]
+ * A map field can be looked up by a quoted key, e.g. attributes["region"], or by a number for an integral key
+ * It is immutable.
+ *
+ * @author jared
+ * @date 2026/10/17
+ */
+public final class Segment {
+    /**
+     * index of a segment selecting every element, either by the wildcard or by no index at all
+     */
+    public static final int ALL = -1;
+
+    private final String name;
+    private final int number;
+    private final boolean extension;
+    private final int index;
+    private final boolean wildcard;
+    private final Filter filter;
+    private final Slice slice;
+    private final String key;
+
+    /**
+     * @param name      field name, or full name of the extension field
+     * @param extension whether it is an extension field written in `()`
+     * @param index     index of the element to select, or ALL
+     * @param wildcard  whether the index is the wildcard
+     */
+    public Segment(String name, boolean extension, int index, boolean wildcard) {
+        this(name, 0, extension, index, wildcard, null, null, null);
+    }
+
+    /**
+     * @param number   field number
+     * @param index    index of the element to select, or ALL
+     * @param wildcard whether the index is the wildcard
+     */
+    public Segment(int number, int index, boolean wildcard) {
+        this("#" + number, number, false, index, wildcard, null, null, null);
+    }
+
+    private Segment(String name, int number, boolean extension, int index, boolean wildcard, Filter filter,
+        Slice slice, String key) {
+        this.name = name;
+        this.number = number;
+        this.extension = extension;
+        this.index = index;
+        this.wildcard = wildcard;
+        this.filter = filter;
+        this.slice = slice;
+        this.key = key;
+    }
+
+    /**
+     * @param filter filter of the elements, which are all selected by it instead of by index
+     * @return a copy of this segment with the filter
+     */
+    public Segment withFilter(Filter filter) {
+        return new Segment(name, number, extension, ALL, false, filter, null, null);
+    }
+
+    /**
+     * @param slice positions of the elements, which are selected by it instead of by index
+     * @return a copy of this segment with the slice
+     */
+    public Segment withSlice(Slice slice) {
+        return new Segment(name, number, extension, ALL, false, null, slice, null);
+    }
+
+    /**
+     * @param key key of the map entry to look up, unquoted
+     * @return a copy of this segment with the key
+     */
+    public Segment withKey(String key) {
+        return new Segment(name, number, extension, ALL, false, null, null, key);
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * @return field number, or 0 if the field is addressed by name
+     */
+    public int getNumber() {
+        return number;
+    }
+
+    public boolean isExtension() {
+        return extension;
+    }
+
+    /**
+     * @return index of the element to select, or ALL
+     */
+    public int getIndex() {
+        return index;
+    }
+
+    public boolean isWildcard() {
+        return wildcard;
+    }
+
+    /**
+     * @return quoted key of the map entry to look up, or null;
+     * a number in `[]` is a key as well if the field turns out to be a map with integral keys
+     */
+    public String getKey() {
+        return key;
+    }
+
+    /**
+     * @return slice of the elements, or null
+     */
+    public Slice getSlice() {
+        return slice;
+    }
+
+    /**
+     * @return filter of the elements, or null
+     */
+    public Filter getFilter() {
+        return filter;
+    }
+
+    @Override
+    public String toString() {
+        String field = extension ? "(" + name + ")" : name;
+        if (filter != null) {
+            return field + "[" + filter + "]";
+        }
+        if (slice != null) {
+            return field + "[" + slice + "]";
+        }
+        if (key != null) {
+            return field + "[\"" + key.replace("\\", "\\\\").replace("\"", "\\\"") + "\"]";
+        }
+        if (wildcard) {
+            return field + "[*]";
+        }
+        return index == ALL ? field : field + "[" + index + "]";
+    }
+}
@@ -0,0 +1,78 @@
+package me.lihongyu.utils.parser.syntax;
+
+/**
+ * elements of a repeated field selected by position, counted from the end if negative
+ * e.g. [-1] -> the last one, [1:3] -> the 2nd and 3rd, [:3] -> the first 3, [-3:] -> the last 3, [::2] -> every other one
+ * It is immutable.
+ *
+ * @author jared
+ * @date 2026/10/17
+ */
+public final class Slice {
+    private final Integer start;
+    private final Integer stop;
+    private final int step;
+    private final boolean index;
+
+    private Slice(Integer start, Integer stop, int step, boolean index) {
+        this.start = start;
+        this.stop = stop;
+        this.step = step;
+        this.index = index;
+    }
+
+    /**
+     * @param start first position, inclusive, null for the first element
+     * @param stop  last position, exclusive, null for the end
+     * @param step  positive distance between selected positions
+     * @return [start:stop:step]
+     * @throws IllegalArgumentException if step is not positive
+     */
+    public static Slice of(Integer start, Integer stop, int step) {
+        if (step <= 0) {
+            throw new IllegalArgumentException("step of slice must be positive");
+        }
+        return new Slice(start, stop, step, false);
+    }
+
+    /**
+     * @param index position counted from the end, e.g. -1 for the last element
+     * @return [index], which selects a single value instead of a list
+     */
+    public static Slice index(int index) {
+        return new Slice(index, index == -1 ? null : index + 1, 1, true);
+    }
+
+    /**
+     * @return first position, inclusive, null for the first element
+     */
+    public Integer getStart() {
+        return start;
+    }
+
+    /**
+     * @return last position, exclusive, null for the end
+     */
+    public Integer getStop() {
+        return stop;
+    }
+
+    public int getStep() {
+        return step;
+    }
+
+    /**
+     * @return whether it is a single index, which selects a single value instead of a list
+     */
+    public boolean isIndex() {
+        return index;
+    }
+
+    @Override
+    public String toString() {
+        if (index) {
+            return String.valueOf(start);
+        }
+        return (start == null ? "" : start) + ":" + (stop == null ? "" : stop) + (step == 1 ? "" : ":" + step);
+    }
+}
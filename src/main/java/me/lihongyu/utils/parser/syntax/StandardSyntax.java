@@ -1,70 +1,88 @@
 package me.lihongyu.utils.parser.syntax;
 
-import com.google.common.collect.Maps;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheLoader;
+import com.google.common.cache.CacheStats;
+import com.google.common.cache.LoadingCache;
 import org.apache.commons.lang3.ArrayUtils;
+import com.google.common.util.concurrent.UncheckedExecutionException;
 import org.apache.commons.lang3.StringUtils;
 
 import java.util.ArrayList;
-import java.util.Collections;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
 
 /**
  * standard syntax : pkg_name.message_name$field1.field2
+ * a field can be addressed by number as well, e.g. pkg_name.message_name$#1.field2,
+ * and a path without message name is read by field numbers only, e.g. $#1.#2
+ * a path may end with a terminal computed over its values, e.g. pkg_name.message_name$field1[*].field2.sum()
+ * It is stateless except for the caches, which are safe to share, so one instance can be used by all threads.
  * @author jared
  */
 public class StandardSyntax extends Syntax {
-    private StandardSyntax() {
+    private StandardSyntax(long maximumCacheSize) {
+        //lock-free reads, and a path is parsed only once even if many threads ask for it at the same time
+        this.segmentCache = CacheBuilder.newBuilder()
+            .maximumSize(maximumCacheSize)
+            .recordStats()
+            .build(CacheLoader.from(StandardSyntax::parseSegments));
     }
 
     public static StandardSyntax create() {
-        return new StandardSyntax();
+        return create(DEFAULT_CACHE_SIZE);
     }
 
     /**
-     * pattern of field name
+     * @param maximumCacheSize max count of field paths kept in every cache, the least recently used ones are evicted
+     * @return
      */
-    private static final Pattern PATTERN_KEY = Pattern.compile("^([a-zA-Z0-9_.\\-\\:\\s]+).*");
-    /**
-     * pattern of field index
-     */
-    private static final Pattern PATTERN_INDEX = Pattern.compile("\\[([0-9]+|\\*)\\]");
+    public static StandardSyntax create(long maximumCacheSize) {
+        return new StandardSyntax(maximumCacheSize);
+    }
+
     private static final char CLASS_SEPARATOR = '$';
     private static final char FIELD_SEPARATOR = '.';
     private static final char EXTENSION_FIELD_PREFIX = '(';
     private static final char EXTENSION_FIELD_SUFFIX = ')';
     private static final char ARRAY_FIELD_PREFIX = '[';
     private static final char ARRAY_FIELD_SUFFIX = ']';
-    private static final String WILDCARD = "*";
+    private static final char WILDCARD_CHAR = '*';
+    private static final char FIELD_NUMBER_PREFIX = '#';
+    private static final char SLICE_SEPARATOR = ':';
+    private static final char ESCAPE_CHAR = '\\';
+    private static final String TERMINAL_SUFFIX = "()";
     /**
-     * fullPathArr[0] is class name
-     * fullPathArr[1] is field name
+     * longer symbols first, so `>=` is not taken as `>`
      */
-    private String[] fullPathArr;
+    private static final Filter.Operator[] OPERATORS = {Filter.Operator.NE, Filter.Operator.GE, Filter.Operator.LE,
+        Filter.Operator.EQ, Filter.Operator.GT, Filter.Operator.LT};
     /**
-     * cache: field path -> the Name part of the field
+     * max field number allowed by protobuf
      */
-    private final Map<String, String> fieldNameCache = Maps.newHashMapWithExpectedSize(16);
+    private static final int MAX_FIELD_NUMBER = (1 << 29) - 1;
+    private static final String WILDCARD = "*";
     /**
-     * cache: field path -> the Index part of the field
+     * default max count of field paths kept in every cache
      */
-    private final Map<String, String> fieldIndexCache = Maps.newHashMapWithExpectedSize(16);
+    public static final long DEFAULT_CACHE_SIZE = 10_000;
     /**
-     * cache: fullFieldPath -> path array
-     * e.g. friend.cloth.brand.brand_name -> [friend, cloth, brand, brand_name]
+     * cache: fullFieldPath -> segments
+     * e.g. friend.cloth.(biz.test.brand)[1] -> [friend, cloth, (biz.test.brand)[1]]
      */
-    private final Map<String, String[]> fieldPathCache = Maps.newHashMapWithExpectedSize(16);
+    private final LoadingCache<String, Segment[]> segmentCache;
 
     @Override
     public String getClassFullName(String fullPathStr) {
-        return fullPathArr[0];
+        //fullPathArr[0] is class name
+        return split(fullPathStr)[0];
     }
 
     @Override
     public String getFieldPathStr(String fullPathStr) {
-        return fullPathArr[1];
+        //fullPathArr[1] is field name
+        return split(fullPathStr)[1];
     }
 
     @Override
@@ -72,62 +90,425 @@ public class StandardSyntax extends Syntax {
         return WILDCARD;
     }
 
+    /**
+     * the leading chars of the field path that may make up a name
+     *
+     * @param fieldPath
+     * @return
+     */
     @Override
     public String getFieldName(String fieldPath) {
-        if (!fieldNameCache.containsKey(fieldPath)) {
-            Matcher matcher = PATTERN_KEY.matcher(fieldPath);
-            fieldNameCache.put(fieldPath, matcher.find() ? matcher.group(1) : null);
+        int end = 0;
+        while (end < fieldPath.length() && isLegacyNameChar(fieldPath.charAt(end))) {
+            end++;
         }
-        return fieldNameCache.get(fieldPath);
+        return end == 0 ? null : fieldPath.substring(0, end);
     }
 
+    /**
+     * the first `[n]` or `[*]` in the field path
+     *
+     * @param fieldPath
+     * @return
+     */
     @Override
     public String getFieldIndex(String fieldPath) {
-        if (!fieldIndexCache.containsKey(fieldPath)) {
-            Matcher matcher = PATTERN_INDEX.matcher(fieldPath);
-            fieldIndexCache.put(fieldPath, matcher.find() ? matcher.group(1) : null);
+        for (int start = fieldPath.indexOf(ARRAY_FIELD_PREFIX); start != -1;
+            start = fieldPath.indexOf(ARRAY_FIELD_PREFIX, start + 1)) {
+            int end = start + 1;
+            if (end < fieldPath.length() && fieldPath.charAt(end) == WILDCARD_CHAR) {
+                end++;
+            } else {
+                while (end < fieldPath.length() && isDigit(fieldPath.charAt(end))) {
+                    end++;
+                }
+            }
+            if (end > start + 1 && end < fieldPath.length() && fieldPath.charAt(end) == ARRAY_FIELD_SUFFIX) {
+                return fieldPath.substring(start + 1, end);
+            }
         }
-        return fieldIndexCache.get(fieldPath);
+        return null;
     }
 
-
     @Override
     public String[] getFieldPathArr(String fieldPathStr) {
-        if (!fieldPathCache.containsKey(fieldPathStr)) {
-            List<String> fieldPathList = new ArrayList<>();
-            String tmpPath = fieldPathStr;
-            //regard xxx in `(xxx)` as a whole field
-            while (tmpPath.indexOf(EXTENSION_FIELD_PREFIX) != -1 && tmpPath.indexOf(EXTENSION_FIELD_SUFFIX) != -1) {
-                //put all fields in front of `() syntax` in field path list
-                String[] split = StringUtils.split(tmpPath.substring(0, tmpPath.indexOf(EXTENSION_FIELD_PREFIX)), '.');
-                Collections.addAll(fieldPathList, split);
-                //get extensionFieldName and put it in field path list
-                String extensionFieldName = tmpPath.substring(tmpPath.indexOf(EXTENSION_FIELD_PREFIX) + 1, tmpPath.indexOf(EXTENSION_FIELD_SUFFIX));
-                int endIndex = tmpPath.indexOf(EXTENSION_FIELD_SUFFIX);
-                if (tmpPath.indexOf(EXTENSION_FIELD_SUFFIX) + 1 < tmpPath.length()
-                        && tmpPath.charAt(tmpPath.indexOf(EXTENSION_FIELD_SUFFIX) + 1) == ARRAY_FIELD_PREFIX) {
-                    String extensionFieldIndex = tmpPath.substring(tmpPath.indexOf(EXTENSION_FIELD_SUFFIX) + 1, tmpPath.indexOf(ARRAY_FIELD_SUFFIX, tmpPath.indexOf(EXTENSION_FIELD_SUFFIX) + 1) + 1);
-                    extensionFieldName += extensionFieldIndex;
-                    endIndex = tmpPath.indexOf(ARRAY_FIELD_SUFFIX, tmpPath.indexOf(EXTENSION_FIELD_SUFFIX) + 1);
+        Segment[] segments = getSegments(fieldPathStr);
+        String[] fieldPathArr = new String[segments.length];
+        for (int i = 0; i < segments.length; i++) {
+            //xxx in `(xxx)` without the brackets
+            String name = segments[i].getName();
+            if (segments[i].isWildcard()) {
+                fieldPathArr[i] = name + ARRAY_FIELD_PREFIX + WILDCARD + ARRAY_FIELD_SUFFIX;
+            } else if (segments[i].getIndex() != Segment.ALL) {
+                fieldPathArr[i] = name + ARRAY_FIELD_PREFIX + segments[i].getIndex() + ARRAY_FIELD_SUFFIX;
+            } else {
+                fieldPathArr[i] = name;
+            }
+        }
+        return fieldPathArr;
+    }
+
+    /**
+     * the terminal is cut off the field path, and the rest of the path is split into segments as usual
+     *
+     * @param fullPathStr
+     * @return
+     * @throws IllegalArgumentException if the path is malformed
+     */
+    @Override
+    public ParsedPath parse(String fullPathStr) {
+        if (!check(fullPathStr)) {
+            throw new IllegalArgumentException(fullPathStr + " is not a valid field path");
+        }
+        String fieldPathStr = getFieldPathStr(fullPathStr);
+        Terminal terminal = null;
+        if (fieldPathStr.endsWith(TERMINAL_SUFFIX)) {
+            int start = fieldPathStr.lastIndexOf(FIELD_SEPARATOR);
+            String name = fieldPathStr.substring(start + 1, fieldPathStr.length() - TERMINAL_SUFFIX.length());
+            terminal = Terminal.of(name);
+            if (terminal == null) {
+                throw invalid(fullPathStr, name + TERMINAL_SUFFIX + " is not a known function");
+            }
+            fieldPathStr = fieldPathStr.substring(0, Math.max(start, 0));
+        }
+        Segment[] segments = fieldPathStr.isEmpty() ? new Segment[0] : getSegments(fieldPathStr);
+        if (segments.length == 0) {
+            throw new IllegalArgumentException(fullPathStr + " is not a valid field path");
+        }
+        return new ParsedPath(fullPathStr, getClassFullName(fullPathStr), segments, terminal);
+    }
+
+    @Override
+    public Segment[] getSegments(String fieldPathStr) {
+        try {
+            return segmentCache.getUnchecked(fieldPathStr);
+        } catch (UncheckedExecutionException e) {
+            //the IllegalArgumentException thrown by parseSegments
+            throw (RuntimeException)e.getCause();
+        }
+    }
+
+    /**
+     * scan the field path char by char only once:
+     * name, `(extension name)`, `#number`, `[index]`, `[start:stop:step]`, `["key"]`, `[filter]` and `.`
+     *
+     * @param fieldPathStr
+     * @return
+     * @throws IllegalArgumentException if the path is malformed
+     */
+    private static Segment[] parseSegments(String fieldPathStr) {
+        List<Segment> segments = new ArrayList<>();
+        int length = fieldPathStr.length();
+        int pos = 0;
+        while (pos < length) {
+            //empty segment is skipped, e.g. a..b
+            if (fieldPathStr.charAt(pos) == FIELD_SEPARATOR) {
+                pos++;
+                continue;
+            }
+
+            //name, regard xxx in `(xxx)` as a whole field
+            boolean extension = fieldPathStr.charAt(pos) == EXTENSION_FIELD_PREFIX;
+            int number = 0;
+            int nameStart;
+            int nameEnd;
+            if (fieldPathStr.charAt(pos) == FIELD_NUMBER_PREFIX) {
+                nameStart = ++pos;
+                pos = skipDigits(fieldPathStr, pos);
+                if (pos > nameStart) {
+                    number = parseFieldNumber(fieldPathStr, nameStart, pos);
                 }
-                fieldPathList.add(extensionFieldName);
+                nameEnd = pos;
+            } else if (extension) {
+                nameStart = pos + 1;
+                nameEnd = fieldPathStr.indexOf(EXTENSION_FIELD_SUFFIX, nameStart);
+                if (nameEnd == -1) {
+                    throw invalid(fieldPathStr, "`(` is not closed");
+                }
+                pos = nameEnd + 1;
+            } else {
+                nameStart = pos;
+                pos = skipNameChars(fieldPathStr, pos);
+                nameEnd = pos;
+            }
+            if (nameEnd == nameStart) {
+                throw invalid(fieldPathStr, "field name is missing at " + nameStart);
+            }
+
+            //index or filter
+            int index = Segment.ALL;
+            boolean wildcard = false;
+            Filter filter = null;
+            Slice slice = null;
+            String key = null;
+            if (pos < length && fieldPathStr.charAt(pos) == ARRAY_FIELD_PREFIX) {
+                pos++;
+                if (pos < length && fieldPathStr.charAt(pos) == WILDCARD_CHAR) {
+                    wildcard = true;
+                    pos++;
+                } else if (pos < length && isQuote(fieldPathStr.charAt(pos))) {
+                    int keyStart = pos;
+                    pos = closingBracket(fieldPathStr, pos);
+                    key = unquote(fieldPathStr, keyStart, pos);
+                } else if (pos < length && isSliceChar(fieldPathStr.charAt(pos))) {
+                    //[index], [-index] or [start:stop:step], every part of a slice is optional
+                    Integer[] parts = new Integer[3];
+                    int count = 0;
+                    while (true) {
+                        int partStart = pos;
+                        pos = skipSignedDigits(fieldPathStr, pos);
+                        parts[count++] = pos == partStart ? null : parseSignedNumber(fieldPathStr, partStart, pos);
+                        if (count == parts.length || pos >= length || fieldPathStr.charAt(pos) != SLICE_SEPARATOR) {
+                            break;
+                        }
+                        pos++;
+                    }
+                    if (count > 1) {
+                        if (parts[2] != null && parts[2] <= 0) {
+                            throw invalid(fieldPathStr, "step of slice must be positive at " + pos);
+                        }
+                        slice = Slice.of(parts[0], parts[1], parts[2] == null ? 1 : parts[2]);
+                    } else if (parts[0] == null) {
+                        throw invalid(fieldPathStr, "index must be a number, `*`, a slice or a filter at " + pos);
+                    } else if (parts[0] < 0) {
+                        slice = Slice.index(parts[0]);
+                    } else {
+                        index = parts[0];
+                    }
+                } else {
+                    int filterStart = pos;
+                    pos = closingBracket(fieldPathStr, pos);
+                    filter = parseFilter(fieldPathStr, filterStart, pos);
+                }
+                if (pos >= length || fieldPathStr.charAt(pos) != ARRAY_FIELD_SUFFIX) {
+                    throw invalid(fieldPathStr, "`[` is not closed");
+                }
+                pos++;
+            }
+            if (pos < length && fieldPathStr.charAt(pos) != FIELD_SEPARATOR) {
+                throw invalid(fieldPathStr, "unexpected `" + fieldPathStr.charAt(pos) + "` at " + pos);
+            }
 
-                //for next loop
-                tmpPath = tmpPath.substring(endIndex + 1);
+            Segment segment = number > 0 ? new Segment(number, index, wildcard)
+                : new Segment(fieldPathStr.substring(nameStart, nameEnd), extension, index, wildcard);
+            if (filter != null) {
+                segment = segment.withFilter(filter);
+            } else if (slice != null) {
+                segment = segment.withSlice(slice);
+            } else if (key != null) {
+                segment = segment.withKey(key);
             }
-            //put last path in field path list
-            String[] split = StringUtils.split(tmpPath, FIELD_SEPARATOR);
-            Collections.addAll(fieldPathList, split);
+            segments.add(segment);
+        }
+        return segments.toArray(new Segment[0]);
+    }
 
-            //cache it
-            fieldPathCache.put(fieldPathStr, fieldPathList.toArray(new String[0]));
+    /**
+     * the `]` closing the filter or key starting at pos, `]` in a quoted value is skipped
+     *
+     * @param fieldPathStr
+     * @param pos
+     * @return
+     */
+    private static int closingBracket(String fieldPathStr, int pos) {
+        char quote = 0;
+        for (; pos < fieldPathStr.length(); pos++) {
+            char c = fieldPathStr.charAt(pos);
+            if (quote != 0) {
+                if (c == ESCAPE_CHAR) {
+                    pos++;
+                } else if (c == quote) {
+                    quote = 0;
+                }
+            } else if (isQuote(c)) {
+                quote = c;
+            } else if (c == ARRAY_FIELD_SUFFIX) {
+                return pos;
+            }
         }
-        return fieldPathCache.get(fieldPathStr);
+        throw invalid(fieldPathStr, "`[` is not closed");
+    }
+
+    /**
+     * field name or `#number`, operator and value, e.g. type=MOBILE, #2>100, name="John Doe"
+     *
+     * @param fieldPathStr
+     * @param start        start of the filter
+     * @param end          end of the filter, exclusive
+     * @return
+     */
+    private static Filter parseFilter(String fieldPathStr, int start, int end) {
+        int pos = start;
+        int number = 0;
+        if (pos < end && fieldPathStr.charAt(pos) == FIELD_NUMBER_PREFIX) {
+            pos = skipDigits(fieldPathStr, pos + 1);
+            if (pos > start + 1) {
+                number = parseFieldNumber(fieldPathStr, start + 1, pos);
+            }
+        } else {
+            pos = skipNameChars(fieldPathStr, pos);
+        }
+        if (pos == start || number == 0 && fieldPathStr.charAt(start) == FIELD_NUMBER_PREFIX) {
+            throw invalid(fieldPathStr, "index must be a number, `*`, a slice or a filter at " + start);
+        }
+        String fieldName = fieldPathStr.substring(start, pos);
+
+        Filter.Operator operator = null;
+        for (Filter.Operator candidate : OPERATORS) {
+            if (fieldPathStr.startsWith(candidate.getSymbol(), pos)) {
+                operator = candidate;
+                pos += candidate.getSymbol().length();
+                break;
+            }
+        }
+        if (operator == null) {
+            throw invalid(fieldPathStr, "operator is missing at " + pos);
+        }
+
+        String value;
+        if (pos < end && isQuote(fieldPathStr.charAt(pos))) {
+            value = unquote(fieldPathStr, pos, end);
+        } else {
+            value = fieldPathStr.substring(pos, end);
+            if (value.isEmpty()) {
+                throw invalid(fieldPathStr, "value is missing at " + pos);
+            }
+        }
+        return new Filter(fieldName, number, operator, value);
+    }
+
+    /**
+     * @param fieldPathStr
+     * @param start        the opening quote
+     * @param end          end of the quoted value, exclusive
+     * @return the value without quotes and escapes
+     */
+    private static String unquote(String fieldPathStr, int start, int end) {
+        char quote = fieldPathStr.charAt(start);
+        if (end - start < 2 || fieldPathStr.charAt(end - 1) != quote) {
+            throw invalid(fieldPathStr, "value is not quoted properly at " + start);
+        }
+        StringBuilder unquoted = new StringBuilder(end - start);
+        for (int i = start + 1; i < end - 1; i++) {
+            char c = fieldPathStr.charAt(i);
+            if (c == ESCAPE_CHAR) {
+                c = fieldPathStr.charAt(++i);
+            } else if (c == quote) {
+                throw invalid(fieldPathStr, "value is not quoted properly at " + start);
+            }
+            unquoted.append(c);
+        }
+        return unquoted.toString();
+    }
+
+    private static boolean isQuote(char c) {
+        return c == '"' || c == '\'';
+    }
+
+    private static int skipNameChars(String fieldPathStr, int pos) {
+        while (pos < fieldPathStr.length() && isNameChar(fieldPathStr.charAt(pos))) {
+            pos++;
+        }
+        return pos;
+    }
+
+    private static int skipDigits(String fieldPathStr, int pos) {
+        while (pos < fieldPathStr.length() && isDigit(fieldPathStr.charAt(pos))) {
+            pos++;
+        }
+        return pos;
+    }
+
+    private static int skipSignedDigits(String fieldPathStr, int pos) {
+        if (pos < fieldPathStr.length() && fieldPathStr.charAt(pos) == '-') {
+            int digitStart = pos + 1;
+            int end = skipDigits(fieldPathStr, digitStart);
+            //a lone `-` is not a number
+            return end == digitStart ? pos : end;
+        }
+        return skipDigits(fieldPathStr, pos);
+    }
+
+    private static int parseSignedNumber(String fieldPathStr, int start, int end) {
+        if (fieldPathStr.charAt(start) == '-') {
+            return -parseNumber(fieldPathStr, start + 1, end, Integer.MAX_VALUE, "index");
+        }
+        return parseNumber(fieldPathStr, start, end, Integer.MAX_VALUE, "index");
+    }
+
+    private static boolean isSliceChar(char c) {
+        return isDigit(c) || c == '-' || c == SLICE_SEPARATOR;
+    }
+
+    private static int parseFieldNumber(String fieldPathStr, int start, int end) {
+        int number = parseNumber(fieldPathStr, start, end, MAX_FIELD_NUMBER, "field number");
+        if (number == 0) {
+            throw invalid(fieldPathStr, "field number must be positive at " + start);
+        }
+        return number;
+    }
+
+    /**
+     * @param fieldPathStr
+     * @param start        start of the digits
+     * @param end          end of the digits, exclusive
+     * @param max          max value allowed
+     * @param what         what the number is, to report
+     * @return
+     */
+    private static int parseNumber(String fieldPathStr, int start, int end, int max, String what) {
+        int number = 0;
+        for (int pos = start; pos < end; pos++) {
+            int digit = fieldPathStr.charAt(pos) - '0';
+            if (number > (max - digit) / 10) {
+                throw invalid(fieldPathStr, what + " is too large at " + start);
+            }
+            number = number * 10 + digit;
+        }
+        return number;
+    }
+
+    private static IllegalArgumentException invalid(String fieldPathStr, String reason) {
+        return new IllegalArgumentException(fieldPathStr + " is not a valid field path: " + reason);
+    }
+
+    private static boolean isNameChar(char c) {
+        return c >= 'a' && c <= 'z' || c >= 'A' && c <= 'Z' || isDigit(c) || c == '_';
+    }
+
+    private static boolean isLegacyNameChar(char c) {
+        return isNameChar(c) || c == FIELD_SEPARATOR || c == '-' || c == ':' || Character.isWhitespace(c);
+    }
+
+    private static boolean isDigit(char c) {
+        return c >= '0' && c <= '9';
     }
 
     @Override
     public boolean check(String fullPathStr) {
-        fullPathArr = StringUtils.split(fullPathStr, CLASS_SEPARATOR);
+        String[] fullPathArr = split(fullPathStr);
         return StringUtils.isNotBlank(fullPathStr) && ArrayUtils.isNotEmpty(fullPathArr) && fullPathArr.length == 2;
     }
+
+    @Override
+    public Map<String, CacheStats> getCacheStats() {
+        Map<String, CacheStats> cacheStats = new LinkedHashMap<>(2);
+        cacheStats.put("segment", segmentCache.stats());
+        return cacheStats;
+    }
+
+    /**
+     * the split path is returned instead of being kept in this syntax, so concurrent calls never see each other's
+     *
+     * @param fullPathStr
+     * @return
+     */
+    private static String[] split(String fullPathStr) {
+        String[] fullPathArr = StringUtils.split(fullPathStr, CLASS_SEPARATOR);
+        //no message name before `$` means a path of field numbers only
+        if (fullPathArr != null && fullPathArr.length == 1 && fullPathStr.charAt(0) == CLASS_SEPARATOR) {
+            return new String[] {"", fullPathArr[0]};
+        }
+        return fullPathArr;
+    }
 }
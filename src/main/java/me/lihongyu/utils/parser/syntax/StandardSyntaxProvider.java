@@ -0,0 +1,21 @@
+package me.lihongyu.utils.parser.syntax;
+
+/**
+ * provider of {@link StandardSyntax}
+ *
+ * @author jared
+ * @date 2026/10/17
+ */
+public final class StandardSyntaxProvider implements SyntaxProvider {
+    static final String NAME = "StandardSyntax";
+
+    @Override
+    public String getName() {
+        return NAME;
+    }
+
+    @Override
+    public Syntax create(long maximumCacheSize) {
+        return StandardSyntax.create(maximumCacheSize);
+    }
+}
@@ -1,7 +1,13 @@
 package me.lihongyu.utils.parser.syntax;
 
+import com.google.common.cache.CacheStats;
+
+import java.util.Collections;
+import java.util.Map;
+
 /**
  * field path syntax
+ * Implementations are shared by all threads using the same parser, so they must keep no per-call state.
  * @author jared
  */
 public abstract class Syntax {
@@ -54,4 +60,51 @@ public abstract class Syntax {
      * @return
      */
     public abstract String[] getFieldPathArr(String fieldPathStr);
+
+    /**
+     * split the field path into segments, built from the field path array by default
+     *
+     * @param fieldPathStr
+     * @return
+     * @throws IllegalArgumentException if the path is malformed
+     */
+    public Segment[] getSegments(String fieldPathStr) {
+        String[] fieldPathArr = getFieldPathArr(fieldPathStr);
+        Segment[] segments = new Segment[fieldPathArr.length];
+        for (int i = 0; i < fieldPathArr.length; i++) {
+            String fieldIndex = getFieldIndex(fieldPathArr[i]);
+            boolean wildcard = getWildcard().equals(fieldIndex);
+            int index = fieldIndex == null || fieldIndex.isEmpty() || wildcard ? Segment.ALL : Integer.parseInt(fieldIndex);
+            segments[i] = new Segment(getFieldName(fieldPathArr[i]), false, index, wildcard);
+        }
+        return segments;
+    }
+
+    /**
+     * parse the field full path once into what the parser resolves against descriptors,
+     * built from the other methods by default
+     *
+     * @param fullPathStr
+     * @return
+     * @throws IllegalArgumentException if the path is malformed
+     */
+    public ParsedPath parse(String fullPathStr) {
+        if (!check(fullPathStr)) {
+            throw new IllegalArgumentException(fullPathStr + " is not a valid field path");
+        }
+        Segment[] segments = getSegments(getFieldPathStr(fullPathStr));
+        if (segments.length == 0) {
+            throw new IllegalArgumentException(fullPathStr + " is not a valid field path");
+        }
+        return new ParsedPath(fullPathStr, getClassFullName(fullPathStr), segments);
+    }
+
+    /**
+     * statistics of the caches, to size them
+     *
+     * @return cache name -> hit, miss and eviction counts of it
+     */
+    public Map<String, CacheStats> getCacheStats() {
+        return Collections.emptyMap();
+    }
 }
@@ -0,0 +1,22 @@
+package me.lihongyu.utils.parser.syntax;
+
+/**
+ * Provide a syntax by name, e.g. ParserBuilder.syntax("StandardSyntax").
+ * Implementations are discovered through {@link java.util.ServiceLoader}, so a syntax is plugged in by
+ * listing its provider in META-INF/services/me.lihongyu.utils.parser.syntax.SyntaxProvider, without forking.
+ *
+ * @author jared
+ * @date 2026/10/17
+ */
+public interface SyntaxProvider {
+    /**
+     * @return name to choose the syntax by, unique among all providers
+     */
+    String getName();
+
+    /**
+     * @param maximumCacheSize max count of field paths kept in every cache of the syntax
+     * @return a syntax shared by all threads using the parser
+     */
+    Syntax create(long maximumCacheSize);
+}
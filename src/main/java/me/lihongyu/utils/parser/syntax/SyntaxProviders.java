@@ -0,0 +1,64 @@
+package me.lihongyu.utils.parser.syntax;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.ServiceLoader;
+import java.util.TreeMap;
+
+/**
+ * All syntax providers on the classpath, by name.
+ *
+ * @author jared
+ * @date 2026/10/17
+ */
+public final class SyntaxProviders {
+    /**
+     * syntax used if no name is given
+     */
+    public static final String DEFAULT_SYNTAX = StandardSyntaxProvider.NAME;
+
+    private SyntaxProviders() {}
+
+    /**
+     * @return name -> provider
+     */
+    public static Map<String, SyntaxProvider> getProviders() {
+        return Holder.PROVIDERS;
+    }
+
+    /**
+     * @param name             name of the syntax, null for the default one
+     * @param maximumCacheSize max count of field paths kept in every cache of the syntax
+     * @return
+     * @throws IllegalArgumentException if no provider has the name
+     */
+    public static Syntax create(String name, long maximumCacheSize) {
+        SyntaxProvider provider = Holder.PROVIDERS.get(name == null ? DEFAULT_SYNTAX : name);
+        if (provider == null) {
+            throw new IllegalArgumentException(
+                "syntax " + name + " is not found, available ones are " + Holder.PROVIDERS.keySet());
+        }
+        return provider.create(maximumCacheSize);
+    }
+
+    /**
+     * providers are loaded when they are used for the first time
+     */
+    private static final class Holder {
+        private static final Map<String, SyntaxProvider> PROVIDERS = load();
+
+        private static Map<String, SyntaxProvider> load() {
+            Map<String, SyntaxProvider> providers = new TreeMap<>();
+            for (SyntaxProvider provider : ServiceLoader.load(SyntaxProvider.class, SyntaxProvider.class.getClassLoader())) {
+                SyntaxProvider existing = providers.putIfAbsent(provider.getName(), provider);
+                if (existing != null && existing.getClass() != provider.getClass()) {
+                    throw new IllegalStateException("syntax " + provider.getName() + " is provided by both "
+                        + existing.getClass().getName() + " and " + provider.getClass().getName());
+                }
+            }
+            //in case the service file is lost, e.g. by shading
+            providers.putIfAbsent(StandardSyntaxProvider.NAME, new StandardSyntaxProvider());
+            return Collections.unmodifiableMap(providers);
+        }
+    }
+}
@@ -0,0 +1,73 @@
+package me.lihongyu.utils.parser.syntax;
+
+/**
+ * function ending a field path, computed over the values of the path instead of returning them
+ * e.g. people[*].phones.count(), people[*].cloth.price.sum(), scores.max(), cloth.brand.has()
+ *
+ * @author jared
+ * @date 2026/10/17
+ */
+public enum Terminal {
+    /**
+     * count of values
+     */
+    COUNT("count"),
+    /**
+     * sum of numeric values, 0 if there is none
+     */
+    SUM("sum"),
+    /**
+     * min of numeric values, null if there is none
+     */
+    MIN("min"),
+    /**
+     * max of numeric values, null if there is none
+     */
+    MAX("max"),
+    /**
+     * the same as count, just like List.size()
+     */
+    SIZE("size"),
+    /**
+     * whether there is any value present in the input, a default value is not
+     */
+    HAS("has");
+
+    private final String name;
+
+    Terminal(String name) {
+        this.name = name;
+    }
+
+    /**
+     * @return name in the field path, without `()`
+     */
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * @param name name in the field path, without `()`
+     * @return null if no terminal has the name
+     */
+    public static Terminal of(String name) {
+        for (Terminal terminal : values()) {
+            if (terminal.name.equals(name)) {
+                return terminal;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @return whether only the count of values matters, not the values themselves
+     */
+    public boolean isCounting() {
+        return this == COUNT || this == SIZE || this == HAS;
+    }
+
+    @Override
+    public String toString() {
+        return name + "()";
+    }
+}
@@ -1,6 +1,19 @@
 package me.lihongyu.utils.parser;
 
+import com.google.common.cache.CacheStats;
 import com.google.protobuf.ByteString;
+import com.google.protobuf.CodedOutputStream;
+import com.google.protobuf.DescriptorProtos.DescriptorProto;
+import com.google.protobuf.DescriptorProtos.FieldDescriptorProto;
+import com.google.protobuf.DescriptorProtos.FileDescriptorProto;
+import com.google.protobuf.DescriptorProtos.FileDescriptorSet;
+import com.google.protobuf.DescriptorProtos.MessageOptions;
+import com.google.protobuf.Descriptors.Descriptor;
+import com.google.protobuf.Descriptors.FieldDescriptor;
+import com.google.protobuf.Descriptors.FileDescriptor;
+import com.google.protobuf.DynamicMessage;
+import com.google.protobuf.WireFormat;
+import com.sun.management.ThreadMXBean;
 import me.lihongyu.utils.parser.test.AddressBookProtos;
 import me.lihongyu.utils.parser.test.AddressBookProtos.AddressBook;
 import me.lihongyu.utils.parser.test.AddressBookProtos.Person;
@@ -14,13 +27,35 @@ import me.lihongyu.utils.parser.test.ChildProtos;
 import me.lihongyu.utils.parser.test.ChildProtos.Boy;
 import me.lihongyu.utils.parser.test.ChildProtos.Child;
 import me.lihongyu.utils.parser.test.NewProtos;
+import me.lihongyu.utils.parser.syntax.Segment;
+import me.lihongyu.utils.parser.syntax.StandardSyntax;
+import me.lihongyu.utils.parser.syntax.SyntaxProviders;
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.lang3.StringUtils;
+import org.testng.SkipException;
 import org.testng.annotations.Test;
 
+import java.io.File;
 import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.ref.WeakReference;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
 import java.util.Base64;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.Collectors;
 
 import static org.assertj.core.api.Assertions.assertThat;
 import static org.assertj.core.api.Assertions.assertThatIllegalArgumentException;
+import static org.assertj.core.api.Assertions.assertThatIllegalStateException;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
 
 /**
  * @author jared
@@ -186,6 +221,1622 @@ public class TestDescTest {
         assertThat(parser.parse(base64Str, "biz.test.Child$address_book.people[1].(biz.test.feet)")).isEqualTo("33");
     }
 
+    @Test(dependsOnMethods = "testSetup")
+    public void testMergedMessage() throws Exception {
+        DynamicPBParser parser = DynamicPBParser.newBuilder()
+            .syntax("StandardSyntax")
+            .descFilePath("target/test-classes/test.desc")
+            .build();
+
+        //concatenated messages are merged: singular field is overwritten, repeated field is appended
+        Person mike = assemblePerson3();
+        Person john = assemblePerson();
+        byte[] merged = mike.toByteString().concat(john.toByteString()).toByteArray();
+        Person expected = Person.parseFrom(merged);
+        String base64Str = Base64.getEncoder().encodeToString(merged);
+        assertThat(parser.parse(base64Str, "biz.test.Person$name")).isEqualTo(expected.getName());
+        assertThat(parser.parse(base64Str, "biz.test.Person$id")).isEqualTo("1234");
+        assertThat(parser.parse(base64Str, "biz.test.Person$phones[*].number")).isEqualTo(
+                "[\"4444222\",\"555-4321\",\"436346\"]");
+        assertThat(parser.parse(base64Str, "biz.test.Person$phones[2].type")).isEqualTo("MOBILE");
+        assertThat(parser.parse(base64Str, "biz.test.Person$cloth.brand.brand_name")).isEqualTo("nike");
+        //occurrences of a singular message are concatenated as they are, which is the same as merging
+        String cloth = parser.parse(base64Str, "biz.test.Person$cloth");
+        assertThat(cloth).isEqualTo(Base64.getEncoder().encodeToString(
+                mike.getCloth().toByteString().concat(john.getCloth().toByteString()).toByteArray()));
+        assertThat(Cloth.parseFrom(Base64.getDecoder().decode(cloth))).isEqualTo(expected.getCloth());
+        assertThat(parser.parse(base64Str, "biz.test.Person$(biz.test.feet)")).isEqualTo("44");
+        assertThat(parser.parse(base64Str, "biz.test.Person$scores")).isEqualTo("[100,120,150]");
+    }
+
+    @Test(dependsOnMethods = "testSetup")
+    public void testCompiledPath() throws Exception {
+        DynamicPBParser parser = DynamicPBParser.newBuilder()
+            .syntax("StandardSyntax")
+            .descFilePath("target/test-classes/test.desc")
+            .build();
+
+        CompiledPath type = parser.compile("biz.test.AddressBook$people[*].phones[0].type");
+        CompiledPath types = parser.compile("biz.test.AddressBook$people.phones.type");
+        assertThat(type.getDescriptor().getFullName()).isEqualTo("biz.test.AddressBook");
+        assertThat(type.isList()).isFalse();
+        assertThat(types.isList()).isTrue();
+        assertThat(parser.compile("biz.test.AddressBook$people[*].phones[0].type")).isSameAs(type);
+
+        String base64Str = Base64.getEncoder().encodeToString(assembleAddressBook().toByteArray());
+        assertThat(parser.parse(Input.of(base64Str), type)).isEqualTo("HOME");
+        assertThat(parser.parse(Input.of(base64Str), types))
+            .isEqualTo("[\"HOME\",\"MOBILE\",\"MOBILE\",\"HOME\",\"MOBILE\"]");
+        assertThat(parser.parse(Input.of((String)null), type)).isNull();
+
+        //bad path fails at compile time
+        assertThatIllegalArgumentException().isThrownBy(() -> parser.compile("biz.test.AddressBook$people.non_exist"))
+            .withMessageContaining("is not found in");
+        assertThatIllegalArgumentException().isThrownBy(() -> parser.compile("biz.test.Person$id.name"))
+            .withMessageContaining("is not a message field");
+        assertThatIllegalArgumentException().isThrownBy(() -> parser.compile("biz.test.Person"))
+            .withMessageContaining("is not a valid field path");
+    }
+
+    @Test(dependsOnMethods = "testSetup")
+    public void testParseMulti() throws Exception {
+        DynamicPBParser parser = DynamicPBParser.newBuilder()
+            .syntax("StandardSyntax")
+            .descFilePath("target/test-classes/test.desc")
+            .build();
+
+        Child child = Child.newBuilder()
+            .setAddressBook(assembleAddressBook())
+            .setSchool("Tsinghua")
+            .setExtension(ChildProtos.teacher, assemblePerson())
+            .setExtension(ChildProtos.girlFriend, assemblePerson3())
+            .build();
+        String base64Str = Base64.getEncoder().encodeToString(child.toByteArray());
+        String[] fullPathStrs = {
+            "biz.test.Child$school",
+            "biz.test.Child$sex",
+            "biz.test.Child$address_book",
+            "biz.test.Child$address_book.people[*].cloth.price",
+            "biz.test.Child$address_book.people[*].phones[*].type",
+            "biz.test.Child$address_book.people[*].phones[*].number",
+            "biz.test.Child$address_book.people[0].name",
+            "biz.test.Child$address_book.people[1].phones[2].type",
+            "biz.test.Child$address_book.people[*].phones[0].type",
+            "biz.test.Child$address_book.people[5].name",
+            "biz.test.Child$address_book.people[*].(biz.test.feet)",
+            "biz.test.Child$(biz.test.teacher).professions[0]",
+            "biz.test.Child$(biz.test.girlFriend).(biz.test.feet)",
+            "biz.test.Child$school",
+            "not a path",
+        };
+        String[] results = parser.parseMulti(base64Str, fullPathStrs);
+        assertThat(results).hasSize(fullPathStrs.length);
+        for (int i = 0; i < fullPathStrs.length; i++) {
+            assertThat(results[i]).as(fullPathStrs[i]).isEqualTo(parser.parse(base64Str, fullPathStrs[i]));
+        }
+        assertThat(results[0]).isEqualTo("Tsinghua");
+        assertThat(results[14]).isNull();
+
+        CompiledPaths paths = parser.compileMulti("biz.test.Child$school", "biz.test.Child$address_book.people[1].name");
+        assertThat(parser.parseMulti(Input.of(base64Str), paths)).containsExactly("Tsinghua", "leon");
+        assertThat(parser.parseMulti(Input.of((String)null), paths)).containsExactly(null, null);
+        assertThat(parser.parseMulti(Input.of("TEST"), paths)).containsExactly(null, null);
+
+        //paths parsed together must start from the same message
+        assertThatIllegalArgumentException().isThrownBy(
+            () -> parser.compileMulti("biz.test.Child$school", "biz.test.Boy$parent"))
+            .withMessageContaining("does not start from");
+    }
+
+    @Test(dependsOnMethods = "testSetup")
+    public void testPathTrie() throws Exception {
+        DynamicPBParser parser = DynamicPBParser.newBuilder()
+            .syntax("StandardSyntax")
+            .descFilePath("target/test-classes/test.desc")
+            .build();
+
+        CompiledPaths paths = parser.compileMulti(
+            "biz.test.AddressBook$people[*].phones[*].number",
+            "biz.test.AddressBook$people[*].phones[*].type",
+            "biz.test.AddressBook$people[*].cloth.price",
+            "biz.test.AddressBook$people[*].phones",
+            "biz.test.AddressBook$people[1].name",
+            "biz.test.AddressBook$people[*].phones[*].type");
+        //root, people[*], phones[*], number, type, cloth, price, people[1], name
+        assertThat(paths.tree().nodes).hasSize(9);
+
+        String base64Str = Base64.getEncoder().encodeToString(assembleAddressBook().toByteArray());
+        String[] results = parser.parseMulti(Input.of(base64Str), paths);
+        for (int i = 0; i < paths.size(); i++) {
+            assertThat(results[i]).as(paths.get(i).getFullPath())
+                .isEqualTo(parser.parse(Input.of(base64Str), paths.get(i)));
+        }
+        assertThat(results[1]).isEqualTo("[\"HOME\",\"MOBILE\",\"MOBILE\",\"HOME\",\"MOBILE\"]");
+        assertThat(results[2]).isEqualTo("[12342,555]");
+        assertThat(results[4]).isEqualTo("leon");
+        assertThat(results[5]).isEqualTo(results[1]);
+    }
+
+    @Test(dependsOnMethods = "testSetup")
+    public void testBinaryInput() throws Exception {
+        DynamicPBParser parser = DynamicPBParser.newBuilder()
+            .syntax("StandardSyntax")
+            .descFilePath("target/test-classes/test.desc")
+            .build();
+
+        byte[] bytes = assembleAddressBook().toByteArray();
+        String path = "biz.test.AddressBook$people[*].phones[*].type";
+        String expected = "[\"HOME\",\"MOBILE\",\"MOBILE\",\"HOME\",\"MOBILE\"]";
+        assertThat(parser.parse(Input.of(bytes), parser.compile(path))).isEqualTo(expected);
+        assertThat(parser.parse(Input.of(ByteString.copyFrom(bytes)), parser.compile(path))).isEqualTo(expected);
+        assertThat(parser.parse(Input.of(bytes), parser.compile("biz.test.AddressBook$people[1].cloth"))).isEqualTo(
+            Base64.getEncoder().encodeToString(assembleAddressBook().getPeople(1).getCloth().toByteArray()));
+
+        //pb object in the middle of an array
+        byte[] padded = new byte[bytes.length + 7];
+        System.arraycopy(bytes, 0, padded, 3, bytes.length);
+        assertThat(parser.parse(Input.of(padded, 3, bytes.length), parser.compile(path))).isEqualTo(expected);
+        assertThat(parser.parse(Input.of(padded, 3, bytes.length),
+            parser.compile("biz.test.AddressBook$people[1].name"))).isEqualTo("leon");
+
+        //heap and direct buffer, position is not changed
+        ByteBuffer heap = ByteBuffer.wrap(padded, 3, bytes.length);
+        assertThat(parser.parse(Input.of(heap), parser.compile(path))).isEqualTo(expected);
+        assertThat(heap.position()).isEqualTo(3);
+        ByteBuffer direct = ByteBuffer.allocateDirect(bytes.length + 2);
+        direct.position(2);
+        direct.put(bytes).flip().position(2);
+        assertThat(parser.parse(Input.of(direct), parser.compile(path))).isEqualTo(expected);
+        assertThat(parser.parse(Input.of(direct),
+            parser.compile("biz.test.AddressBook$people[1].cloth.brand.brand_name"))).isEqualTo("free solo");
+        assertThat(direct.position()).isEqualTo(2);
+        assertThat(parser.parseMulti(Input.of(direct), parser.compileMulti("biz.test.AddressBook$people[0].name",
+            path)))
+            .containsExactly("John Doe", expected);
+
+        assertThat(parser.parse(Input.of((byte[])null), parser.compile(path))).isNull();
+        assertThat(parser.parse(Input.of(new byte[0]), parser.compile(path))).isNull();
+        assertThat(parser.parse(Input.of((ByteBuffer)null), parser.compile(path))).isNull();
+        assertThat(parser.parse(Input.of(ByteString.EMPTY), parser.compile(path))).isNull();
+        assertThat(parser.parseMulti(Input.of((byte[])null), parser.compileMulti(path))).containsExactly((String)null);
+    }
+
+    @Test(dependsOnMethods = "testSetup")
+    public void testStreamingBase64() throws Exception {
+        DynamicPBParser parser = DynamicPBParser.newBuilder()
+            .syntax("StandardSyntax")
+            .descFilePath("target/test-classes/test.desc")
+            .build();
+
+        //large enough to be decoded while being walked through
+        AddressBook.Builder builder = AddressBook.newBuilder();
+        for (int i = 0; i < 200; i++) {
+            builder.addAllPeople(assembleAddressBook().getPeopleList());
+        }
+        byte[] bytes = builder.build().toByteArray();
+        String base64Str = Base64.getEncoder().encodeToString(bytes);
+        assertThat(base64Str.length()).isGreaterThan(8192);
+
+        String[] paths = {"biz.test.AddressBook$people[*].phones[*].type", "biz.test.AddressBook$people[399].name",
+            "biz.test.AddressBook$people[*].cloth", "biz.test.AddressBook$people[1].cloth.brand",
+            "biz.test.AddressBook$people[2].scores[2]"};
+        String[] expected = parser.parseMulti(Input.of(bytes), parser.compileMulti(paths));
+        assertThat(expected[1]).isEqualTo("leon");
+        assertThat(expected[4]).isEqualTo("150");
+        for (int i = 0; i < paths.length; i++) {
+            assertThat(parser.parse(base64Str, paths[i])).isEqualTo(expected[i]);
+        }
+        assertThat(parser.parseMulti(Input.of(base64Str), parser.compileMulti(paths))).containsExactly(expected);
+
+        //URL-safe and MIME alphabets, either streamed or not
+        String small = Base64.getEncoder().encodeToString(assembleAddressBook().toByteArray());
+        for (Base64.Encoder encoder : new Base64.Encoder[] {Base64.getUrlEncoder(), Base64.getUrlEncoder().withoutPadding(),
+            Base64.getMimeEncoder()}) {
+            assertThat(parser.parseMulti(Input.of(encoder.encodeToString(bytes)), parser.compileMulti(paths)))
+                .containsExactly(expected);
+            assertThat(parser.parse(encoder.encodeToString(assembleAddressBook().toByteArray()),
+                "biz.test.AddressBook$people[1].cloth")).isEqualTo(parser.parse(small, "biz.test.AddressBook$people[1].cloth"));
+        }
+
+        //only the bytes before the value found are decoded
+        Base64InputStream stream = new Base64InputStream(base64Str);
+        WireExtractor extractor = WireExtractor.acquire();
+        try {
+            assertThat(extractor.run(stream, parser.compile("biz.test.AddressBook$people[0].id").tree(), null, null))
+                .isTrue();
+            assertThat(extractor.results()).containsExactly(1234);
+        } finally {
+            extractor.release();
+        }
+        assertThat(stream.available()).isGreaterThan(bytes.length - 4096 * 2);
+
+        //a group read out of the stream is the same as the one sliced from the bytes
+        ByteString.Output out = ByteString.newOutput();
+        CodedOutputStream output = CodedOutputStream.newInstance(out);
+        output.writeTag(97, WireFormat.WIRETYPE_START_GROUP);
+        output.writeFixed32(1, 42);
+        output.writeTag(2, WireFormat.WIRETYPE_START_GROUP);
+        output.writeInt64(3, -5L);
+        output.writeTag(2, WireFormat.WIRETYPE_END_GROUP);
+        output.writeString(4, "leon");
+        output.writeTag(97, WireFormat.WIRETYPE_END_GROUP);
+        output.flush();
+        byte[] grouped = ByteString.copyFrom(bytes).concat(out.toByteString()).toByteArray();
+        assertThat(parser.parse(Base64.getEncoder().encodeToString(grouped), "$#97"))
+            .isEqualTo(parser.parse(Input.of(grouped), parser.compile("$#97")))
+            .isNotNull();
+        assertThat(parser.parse(Base64.getEncoder().encodeToString(grouped), "$#97.#2.#3")).isEqualTo("-5");
+
+        //a single stray char at the end is not a whole byte, so the content is broken instead of read without it
+        for (byte[] content : new byte[][] {assembleAddressBook().toByteArray(), bytes}) {
+            ByteString.Output whole = ByteString.newOutput();
+            CodedOutputStream wholeOutput = CodedOutputStream.newInstance(whole);
+            wholeOutput.writeRawBytes(content);
+            //an unknown field of 3 to 5 bytes, so the content is whole quanta without padding
+            wholeOutput.writeInt64(99, 1L << 7 * (new int[] {0, 2, 1}[content.length % 3]));
+            wholeOutput.flush();
+            String wholeStr = Base64.getEncoder().encodeToString(whole.toByteString().toByteArray());
+            assertThat(wholeStr).doesNotContain("=");
+            assertThat(parser.parse(wholeStr, "biz.test.AddressBook$people[*].name")).isNotNull();
+            assertThat(parser.parse(wholeStr + "Q", "biz.test.AddressBook$people[*].name")).isNull();
+            assertThat(parser.parse(wholeStr + "Q=", "biz.test.AddressBook$people[*].name")).isNull();
+            assertThat(parser.parse(wholeStr + "Q\n", "biz.test.AddressBook$people[*].name")).isNull();
+        }
+        //nothing but whitespace may follow the padding, data after it is not dropped silently
+        for (byte[] content : new byte[][] {assembleAddressBook().toByteArray(), bytes}) {
+            ByteString.Output padded = ByteString.newOutput();
+            CodedOutputStream paddedOutput = CodedOutputStream.newInstance(padded);
+            paddedOutput.writeRawBytes(content);
+            //an unknown field of 3 to 5 bytes, so the last quantum is a single byte padded by "=="
+            paddedOutput.writeInt64(99, 1L << 7 * ((4 - content.length % 3) % 3));
+            paddedOutput.flush();
+            String paddedStr = Base64.getEncoder().encodeToString(padded.toByteString().toByteArray());
+            assertThat(paddedStr).endsWith("==");
+            String expectedNames = parser.parse(paddedStr, "biz.test.AddressBook$people[*].name");
+            assertThat(expectedNames).isNotNull();
+            assertThat(parser.parse(paddedStr + "\r\n", "biz.test.AddressBook$people[*].name"))
+                .isEqualTo(expectedNames);
+            assertThat(parser.parse(paddedStr + "AAAA", "biz.test.AddressBook$people[*].name")).isNull();
+            assertThat(parser.parse(paddedStr.substring(0, paddedStr.length() - 1) + "BBBB",
+                "biz.test.AddressBook$people[*].name")).isNull();
+            assertThat(parser.parse(Input.of(paddedStr + "=\nQ"), parser.compile("biz.test.AddressBook$people[*].name")))
+                .isNull();
+        }
+
+        assertThatIllegalArgumentException().isThrownBy(() -> parser.parse("CgQ*", "biz.test.AddressBook$people"));
+    }
+
+    @Test(dependsOnMethods = "testSetup")
+    public void testMessageSlice() throws Exception {
+        DynamicPBParser parser = DynamicPBParser.newBuilder()
+            .syntax("StandardSyntax")
+            .descFilePath("target/test-classes/test.desc")
+            .build();
+
+        //a phone number written with type before number, re-serializing would reorder them
+        ByteString.Output phoneOut = ByteString.newOutput();
+        CodedOutputStream phoneStream = CodedOutputStream.newInstance(phoneOut);
+        phoneStream.writeEnum(2, PhoneType.WORK_VALUE);
+        phoneStream.writeString(1, "110");
+        phoneStream.flush();
+        ByteString phone = phoneOut.toByteString();
+        ByteString.Output personOut = ByteString.newOutput();
+        CodedOutputStream personStream = CodedOutputStream.newInstance(personOut);
+        personStream.writeBytes(4, phone);
+        personStream.flush();
+        ByteString person = assemblePerson().toByteString().concat(personOut.toByteString());
+
+        String encoded = Base64.getEncoder().encodeToString(phone.toByteArray());
+        String base64Str = Base64.getEncoder().encodeToString(person.toByteArray());
+        assertThat(parser.parse(base64Str, "biz.test.Person$phones[2]")).isEqualTo(encoded);
+        assertThat(parser.parse(Input.of(person.toByteArray()), parser.compile("biz.test.Person$phones"))).isEqualTo(
+            "[\"" + Base64.getEncoder().encodeToString(assemblePerson().getPhones(0).toByteArray()) + "\",\""
+            + Base64.getEncoder().encodeToString(assemblePerson().getPhones(1).toByteArray()) + "\",\"" + encoded + "\"]");
+        assertThat(parser.parse(base64Str, "biz.test.Person$phones[2].type")).isEqualTo("WORK");
+    }
+
+    @Test(dependsOnMethods = "testSetup")
+    public void testDescriptorBuild() throws Exception {
+        DynamicPBParser parser = DynamicPBParser.newBuilder()
+            .syntax("StandardSyntax")
+            .descFilePath("target/test-classes/test.desc")
+            .build();
+        assertThat(parser.getDescriptorBuildMillis()).isNotNegative();
+
+        //addressbook.proto imported by both child.proto and new.proto is built only once
+        assertThat(parser.compile("biz.test.Child$address_book.people").hops()[1].field.getContainingType())
+            .isSameAs(parser.compile("biz.test.AddressBook$people").getDescriptor());
+
+        //imported file missing
+        FileDescriptorSet fileDescriptorSet = FileDescriptorSet.parseFrom(
+            FileUtils.readFileToByteArray(FileUtils.getFile("target/test-classes/test.desc")));
+        File desc = File.createTempFile("missing-import", ".desc");
+        desc.deleteOnExit();
+        FileUtils.writeByteArrayToFile(desc, fileDescriptorSet.toBuilder()
+            .clearFile()
+            .addAllFile(fileDescriptorSet.getFileList().stream()
+                .filter(fileProto -> !"addressbook.proto".equals(fileProto.getName()))
+                .collect(Collectors.toList()))
+            .build().toByteArray());
+        assertThatIllegalStateException().isThrownBy(() -> DynamicPBParser.newBuilder()
+            .syntax("StandardSyntax")
+            .descFilePath(desc.getPath())
+            .build())
+            .withMessageContaining("addressbook.proto imported by child.proto is not in the desc file");
+    }
+
+    @Test(dependsOnMethods = "testSetup")
+    public void testLazyLoad() throws Exception {
+        DynamicPBParser parser = DynamicPBParser.newBuilder()
+            .syntax("StandardSyntax")
+            .descFilePath("target/test-classes/test.desc")
+            .lazy(true)
+            .build();
+        assertThat(parser.descriptorPool().builtFileCount()).isEqualTo(0);
+
+        //only the file defining the message is built
+        String addressBook = Base64.getEncoder().encodeToString(assembleAddressBook().toByteArray());
+        assertThat(parser.parse(addressBook, "biz.test.AddressBook$people[1].name")).isEqualTo("leon");
+        assertThat(parser.descriptorPool().builtFileCount()).isEqualTo(1);
+        assertThat(parser.parse(Base64.getEncoder().encodeToString(assemblePerson().getPhones(1).toByteArray()),
+            "biz.test.Person.PhoneNumber$type")).isEqualTo("MOBILE");
+
+        //along with its imports, and the file defining the extension
+        Child child = Child.newBuilder()
+            .setSchool("Tsinghua")
+            .setAddressBook(assembleAddressBook())
+            .setExtension(NewProtos.girlFriend, assemblePerson2())
+            .build();
+        String base64Str = Base64.getEncoder().encodeToString(child.toByteArray());
+        assertThat(parser.parse(base64Str, "biz.test.Child$address_book.people[0].name")).isEqualTo("John Doe");
+        assertThat(parser.descriptorPool().builtFileCount()).isEqualTo(2);
+        assertThat(parser.parse(base64Str, "biz.test.Child$(biz.test.new.girlFriend).id")).isEqualTo("1234");
+        assertThat(parser.descriptorPool().builtFileCount()).isEqualTo(3);
+
+        assertThatIllegalArgumentException().isThrownBy(() -> parser.compile("biz.test.NonExist$id"))
+            .withMessageContaining("can not be found in any description file");
+        assertThatIllegalArgumentException().isThrownBy(() -> parser.compile("biz.test.Child$(biz.test.non_exist)"))
+            .withMessageContaining("is not found in");
+    }
+
+    @Test(dependsOnMethods = "testSetup")
+    public void testSharedRegistry() throws Exception {
+        DynamicPBParser parser = DynamicPBParser.newBuilder()
+            .syntax("StandardSyntax")
+            .descFilePath("target/test-classes/test.desc")
+            .build();
+        DynamicPBParser another = DynamicPBParser.newBuilder()
+            .syntax("StandardSyntax")
+            .descFilePath("target/test-classes/../test-classes/test.desc")
+            .build();
+
+        //the same desc file is built once and shared with compiled paths
+        assertThat(another.descriptorPool()).isSameAs(parser.descriptorPool());
+        assertThat(another.compile("biz.test.Person$cloth.price")).isSameAs(parser.compile("biz.test.Person$cloth.price"));
+
+        //another file with the same content is not shared, so is another version of the same file
+        File desc = File.createTempFile("shared", ".desc");
+        desc.deleteOnExit();
+        FileUtils.copyFile(FileUtils.getFile("target/test-classes/test.desc"), desc);
+        DynamicPBParser copy = DynamicPBParser.newBuilder()
+            .syntax("StandardSyntax")
+            .descFilePath(desc.getPath())
+            .build();
+        assertThat(copy.descriptorPool()).isNotSameAs(parser.descriptorPool());
+        FileUtils.writeByteArrayToFile(desc, FileDescriptorSet.newBuilder()
+            .addFile(AddressBookProtos.getDescriptor().toProto()).build().toByteArray());
+        DynamicPBParser modified = DynamicPBParser.newBuilder()
+            .syntax("StandardSyntax")
+            .descFilePath(desc.getPath())
+            .build();
+        assertThat(modified.descriptorPool()).isNotSameAs(copy.descriptorPool());
+        assertThat(modified.parse(Input.of(assembleAddressBook().toByteArray()),
+            modified.compile("biz.test.AddressBook$people[1].id"))).isEqualTo("5432");
+
+        //dropped once no parser uses it
+        WeakReference<DescriptorPool> pool = new WeakReference<>(copy.descriptorPool());
+        copy = null;
+        for (int i = 0; i < 100 && pool.get() != null; i++) {
+            System.gc();
+            Thread.sleep(10);
+        }
+        assertThat(pool.get()).isNull();
+    }
+
+    @Test(dependsOnMethods = "testSetup")
+    public void testConcurrentParse() throws Exception {
+        DynamicPBParser parser = DynamicPBParser.newBuilder()
+            .syntax("StandardSyntax")
+            .descFilePath("target/test-classes/test.desc")
+            .build();
+
+        String base64Str = Base64.getEncoder().encodeToString(assembleAddressBook().toByteArray());
+        //paths never compiled before, so threads compile them at the same time
+        AddressBook addressBook = assembleAddressBook();
+        String[] paths = new String[12];
+        String[] expected = new String[paths.length];
+        for (int i = 0; i < paths.length; i++) {
+            int people = i % 3;
+            int phones = i / 3;
+            paths[i] = "biz.test.AddressBook$people[" + people + "].phones[" + phones + "].number";
+            expected[i] = people >= addressBook.getPeopleCount() || phones >= addressBook.getPeople(people).getPhonesCount()
+                ? null : addressBook.getPeople(people).getPhones(phones).getNumber();
+        }
+
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            List<Future<String[]>> futures = new ArrayList<>();
+            for (int t = 0; t < 8; t++) {
+                futures.add(executor.submit(() -> {
+                    String[] results = new String[paths.length];
+                    for (int round = 0; round < 200; round++) {
+                        for (int i = 0; i < paths.length; i++) {
+                            results[i] = parser.parse(base64Str, paths[i]);
+                        }
+                    }
+                    return results;
+                }));
+            }
+            for (Future<String[]> future : futures) {
+                assertThat(future.get()).containsExactly(expected);
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test(dependsOnMethods = "testSetup")
+    public void testCacheStats() throws Exception {
+        DynamicPBParser parser = DynamicPBParser.newBuilder()
+            .syntax("StandardSyntax")
+            .descFilePath("target/test-classes/test.desc")
+            .cacheSize(2)
+            .build();
+
+        String base64Str = Base64.getEncoder().encodeToString(assemblePerson().toByteArray());
+        assertThat(parser.parse(base64Str, "biz.test.Person$name")).isEqualTo("John Doe");
+        assertThat(parser.parse(base64Str, "biz.test.Person$name")).isEqualTo("John Doe");
+        assertThat(parser.parse(base64Str, "biz.test.Person$id")).isEqualTo("1234");
+        assertThat(parser.parse(base64Str, "biz.test.Person$cloth.price")).isEqualTo("12342");
+        assertThat(parser.parse(base64Str, "biz.test.Person$phones[1].number")).isEqualTo("436346");
+
+        Map<String, CacheStats> cacheStats = parser.getCacheStats();
+        assertThat(cacheStats).containsOnlyKeys("compiledPath", "segment");
+        CacheStats compiledPath = cacheStats.get("compiledPath");
+        assertThat(compiledPath.hitCount()).isEqualTo(1);
+        assertThat(compiledPath.missCount()).isEqualTo(4);
+        //bounded: the least recently used paths are evicted
+        assertThat(compiledPath.evictionCount()).isEqualTo(2);
+        assertThat(cacheStats.get("segment").evictionCount()).isPositive();
+
+        //an evicted path still works
+        assertThat(parser.parse(base64Str, "biz.test.Person$name")).isEqualTo("John Doe");
+        assertThat(parser.getCacheStats().get("compiledPath").missCount()).isEqualTo(5);
+    }
+
+    @Test(dependsOnMethods = "testSetup")
+    public void testSegments() throws Exception {
+        StandardSyntax syntax = StandardSyntax.create();
+        Segment[] segments = syntax.getSegments("address_book.people[*].(biz.test.feet)[1]..phones[12].number");
+        assertThat(segments).extracting(Segment::getName)
+            .containsExactly("address_book", "people", "biz.test.feet", "phones", "number");
+        assertThat(segments).extracting(Segment::isExtension).containsExactly(false, false, true, false, false);
+        assertThat(segments).extracting(Segment::getIndex).containsExactly(Segment.ALL, Segment.ALL, 1, 12, Segment.ALL);
+        assertThat(segments).extracting(Segment::isWildcard).containsExactly(false, true, false, false, false);
+        assertThat(syntax.getFieldPathArr("address_book.people[*].(biz.test.feet)[1]..phones[12].number"))
+            .containsExactly("address_book", "people[*]", "biz.test.feet[1]", "phones[12]", "number");
+        assertThat(syntax.getFieldName("biz.test.feet[1]")).isEqualTo("biz.test.feet");
+        assertThat(syntax.getFieldIndex("biz.test.feet[1]")).isEqualTo("1");
+        assertThat(syntax.getFieldIndex("people[*]")).isEqualTo("*");
+        assertThat(syntax.getFieldIndex("people")).isNull();
+
+        DynamicPBParser parser = DynamicPBParser.newBuilder()
+            .syntax("StandardSyntax")
+            .descFilePath("target/test-classes/test.desc")
+            .build();
+        for (String path : new String[] {"biz.test.Person$phones[a].number", "biz.test.Person$phones[1.number",
+            "biz.test.Person$phones[1]x", "biz.test.Person$(biz.test.feet", "biz.test.Person$phones[99999999999]",
+            "biz.test.Person$[1]", "biz.test.Person$na-me"}) {
+            assertThatIllegalArgumentException().isThrownBy(() -> parser.compile(path))
+                .withMessageContaining("is not a valid field path");
+        }
+    }
+
+    @Test(dependsOnMethods = "testSetup")
+    public void testSyntaxProvider() throws Exception {
+        assertThat(SyntaxProviders.getProviders()).containsKeys("StandardSyntax", "SlashSyntax");
+        DynamicPBParser parser = DynamicPBParser.newBuilder()
+            .syntax("SlashSyntax")
+            .descFilePath("target/test-classes/test.desc")
+            .build();
+        String base64Str = Base64.getEncoder().encodeToString(assembleAddressBook().toByteArray());
+        assertThat(parser.parse(base64Str, "biz.test.AddressBook/people[1]/name")).isEqualTo("leon");
+        assertThat(parser.parse(base64Str, "biz.test.AddressBook/people[*]/id")).isEqualTo("[1234,5432]");
+        assertThat(parser.parse(base64Str, "biz.test.AddressBook$people[1].name")).isNull();
+        assertThatIllegalArgumentException().isThrownBy(() -> parser.compile("biz.test.AddressBook/"))
+            .withMessageContaining("is not a valid field path");
+
+        //no name means the standard one
+        DynamicPBParser defaultParser = DynamicPBParser.newBuilder()
+            .descFilePath("target/test-classes/test.desc")
+            .build();
+        assertThat(defaultParser.parse(base64Str, "biz.test.AddressBook$people[1].name")).isEqualTo("leon");
+
+        assertThatIllegalArgumentException().isThrownBy(() -> DynamicPBParser.newBuilder()
+            .syntax("NoSuchSyntax")
+            .descFilePath("target/test-classes/test.desc")
+            .build()).withMessageContaining("NoSuchSyntax is not found");
+    }
+
+    @Test(dependsOnMethods = "testSetup")
+    public void testFieldNumber() throws Exception {
+        DynamicPBParser parser = DynamicPBParser.newBuilder()
+            .syntax("StandardSyntax")
+            .descFilePath("target/test-classes/test.desc")
+            .build();
+        Person person = assemblePerson();
+        String base64Str = Base64.getEncoder().encodeToString(person.toByteArray());
+        assertThat(parser.parse(base64Str, "biz.test.Person$#5.#1.#1")).isEqualTo("nike");
+        assertThat(parser.parse(base64Str, "biz.test.Person$#4[1].number")).isEqualTo("436346");
+        assertThat(parser.parse(base64Str, "biz.test.Person$phones[*].#2")).isEqualTo("[\"HOME\",\"MOBILE\"]");
+        //the same field by name and by number
+        assertThat(parser.compile("biz.test.Person$#5.#2").hops()[1].field)
+            .isSameAs(parser.compile("biz.test.Person$cloth.price").hops()[1].field);
+
+        //extension by number, lazy mode included
+        Child child = Child.newBuilder().setSchool("school").setExtension(ChildProtos.age, 29).build();
+        String childStr = Base64.getEncoder().encodeToString(child.toByteArray());
+        assertThat(parser.parse(childStr, "biz.test.Child$#140")).isEqualTo("29");
+        //a pool of its own, leaving the shared lazy one to testLazyLoad
+        File desc = File.createTempFile("field-number", ".desc");
+        desc.deleteOnExit();
+        FileUtils.copyFile(FileUtils.getFile("target/test-classes/test.desc"), desc);
+        DynamicPBParser lazyParser = DynamicPBParser.newBuilder()
+            .descFilePath(desc.getPath())
+            .lazy(true)
+            .build();
+        assertThat(lazyParser.compile("biz.test.Child$#140").hops()[0].field.getFullName()).isEqualTo("biz.test.age");
+
+        //fields unknown to the descriptor
+        ByteString.Output nested = ByteString.newOutput();
+        CodedOutputStream nestedOutput = CodedOutputStream.newInstance(nested);
+        nestedOutput.writeFixed32(1, 42);
+        nestedOutput.writeFixed64(2, 43L);
+        nestedOutput.flush();
+        ByteString.Output out = ByteString.newOutput();
+        CodedOutputStream output = CodedOutputStream.newInstance(out);
+        output.writeInt64(99, -7L);
+        output.writeBytes(98, nested.toByteString());
+        output.writeInt64(99, 8L);
+        output.flush();
+        byte[] bytes = person.toByteString().concat(out.toByteString()).toByteArray();
+        assertThat(parser.parse(Input.of(bytes), parser.compile("biz.test.Person$#99"))).isEqualTo("-7");
+        assertThat(parser.parse(Input.of(bytes), parser.compile("biz.test.Person$#99[*]"))).isEqualTo("[-7,8]");
+        assertThat(parser.parse(Input.of(bytes), parser.compile("biz.test.Person$#98.#1"))).isEqualTo("42");
+        assertThat(parser.parseMulti(Input.of(bytes), parser.compileMulti("biz.test.Person$#98.#2",
+            "biz.test.Person$#98.#3", "biz.test.Person$#98")))
+            .containsExactly("43", null, Base64.getEncoder().encodeToString(nested.toByteString().toByteArray()));
+
+        //raw bytes without descriptor
+        assertThat(parser.parse(Input.of(bytes), parser.compile("$#5.#2"))).isEqualTo("12342");
+        assertThat(parser.parse(Input.of(bytes), parser.compile("$#6[*]"))).isEqualTo("[100,120,150]");
+        assertThat(parser.parse(Input.of(bytes), parser.compile("$#4[*].#1"))).isEqualTo(
+            "[\"" + Base64.getEncoder().encodeToString("555-4321".getBytes()) + "\",\""
+                + Base64.getEncoder().encodeToString("436346".getBytes()) + "\"]");
+        assertThat(parser.parse(Input.of(bytes), parser.compile("$#5"))).isEqualTo(
+            Base64.getEncoder().encodeToString(person.getCloth().toByteArray()));
+        assertThat(parser.parse(Input.of(bytes), parser.compile("$#98.#1"))).isEqualTo("42");
+        assertThat(parser.parse(Input.of(bytes), parser.compile("$#7"))).isEqualTo("2");
+
+        assertThatIllegalArgumentException().isThrownBy(() -> parser.compile("$name"))
+            .withMessageContaining("can not be found by name in raw bytes");
+        assertThatIllegalArgumentException().isThrownBy(() -> parser.compile("biz.test.Person$#99.name"))
+            .withMessageContaining("can not be found by name in raw bytes");
+        assertThatIllegalArgumentException().isThrownBy(() -> parser.compileMulti("$#1", "biz.test.Person$#1"))
+            .withMessageContaining("does not start from raw bytes");
+        for (String path : new String[] {"biz.test.Person$#0", "biz.test.Person$#", "biz.test.Person$#1a",
+            "biz.test.Person$#536870912"}) {
+            assertThatIllegalArgumentException().isThrownBy(() -> parser.compile(path))
+                .withMessageContaining("is not a valid field path");
+        }
+    }
+
+    @Test(dependsOnMethods = "testSetup")
+    public void testFilter() throws Exception {
+        DynamicPBParser parser = DynamicPBParser.newBuilder()
+            .syntax("StandardSyntax")
+            .descFilePath("target/test-classes/test.desc")
+            .build();
+        byte[] bytes = assembleAddressBook().toByteArray();
+        String base64Str = Base64.getEncoder().encodeToString(bytes);
+        assertThat(parser.parse(base64Str, "biz.test.AddressBook$people[*].phones[type=MOBILE].number"))
+            .isEqualTo("[\"436346\",\"456456456\",\"999888\"]");
+        //absent field takes its default value
+        assertThat(parser.parse(base64Str, "biz.test.AddressBook$people[*].phones[type=HOME].number"))
+            .isEqualTo("[\"555-4321\",\"123123123\"]");
+        assertThat(parser.parse(base64Str, "biz.test.AddressBook$people[*].phones[#2!=1].number"))
+            .isEqualTo("[\"436346\",\"456456456\",\"999888\"]");
+        assertThat(parser.parse(base64Str, "biz.test.AddressBook$people[id>2000].name")).isEqualTo("[\"leon\"]");
+        assertThat(parser.parse(base64Str, "biz.test.AddressBook$people[id<=1234].email"))
+            .isEqualTo("[\"testEmail\"]");
+        assertThat(parser.parse(base64Str, "biz.test.AddressBook$people[name=\"John Doe\"].cloth.price"))
+            .isEqualTo("[12342]");
+        assertThat(parser.parse(base64Str, "biz.test.AddressBook$people[name='x]y'].id")).isEqualTo("[]");
+        assertThat(parser.parse(base64Str, "biz.test.AddressBook$people[id>2000].phones[type=MOBILE].number"))
+            .isEqualTo("[\"456456456\",\"999888\"]");
+        //filtered and unfiltered paths walked together, streamed or not
+        String[] expected = {"[\"leon\"]", "[1234,5432]", "[\"CASUAL\"]"};
+        String[] paths = {"biz.test.AddressBook$people[id>2000].name", "biz.test.AddressBook$people[*].id",
+            "biz.test.AddressBook$people[id>2000].cloth.brand.brand_type"};
+        assertThat(parser.parseMulti(Input.of(bytes), parser.compileMulti(paths))).containsExactly(expected);
+        AddressBook.Builder largeBook = AddressBook.newBuilder();
+        for (int i = 0; i < 100; i++) {
+            largeBook.mergeFrom(bytes);
+        }
+        String[] largeResults = parser.parseMulti(Base64.getEncoder().encodeToString(largeBook.build().toByteArray()),
+            paths);
+        assertThat(largeResults[0]).startsWith("[\"leon\",\"leon\"");
+        assertThat(largeResults[2]).startsWith("[\"CASUAL\",\"CASUAL\"");
+
+        assertThat(parser.compile("biz.test.AddressBook$people[name=\"a]b\"].id").getFullPath())
+            .isEqualTo("biz.test.AddressBook$people[name=\"a]b\"].id");
+        assertThat(StandardSyntax.create().getSegments("people[name=\"a]b\"].id")[0].toString())
+            .isEqualTo("people[name=\"a]b\"]");
+        for (String path : new String[] {"biz.test.AddressBook$people[email].name",
+            "biz.test.AddressBook$people[id=].name", "biz.test.AddressBook$people[id=\"1].name",
+            "biz.test.AddressBook$people[#0=1].name"}) {
+            assertThatIllegalArgumentException().isThrownBy(() -> parser.compile(path))
+                .withMessageContaining("is not a valid field path");
+        }
+        assertThatIllegalArgumentException().isThrownBy(() -> parser.compile("biz.test.Person$cloth[price=1].brand"))
+            .withMessageContaining("is not a repeated message field");
+        assertThatIllegalArgumentException().isThrownBy(() -> parser.compile("biz.test.Person$phones[type=CELL].number"))
+            .withMessageContaining("CELL is not a valid value of biz.test.Person.PhoneNumber.type");
+        assertThatIllegalArgumentException().isThrownBy(() -> parser.compile("biz.test.AddressBook$people[cloth=1].id"))
+            .withMessageContaining("is not a scalar field");
+        assertThatIllegalArgumentException().isThrownBy(() -> parser.compile("biz.test.AddressBook$people[scores=1].id"))
+            .withMessageContaining("is repeated");
+        assertThatIllegalArgumentException().isThrownBy(() -> parser.compile("$#1[#2=1].#1"))
+            .withMessageContaining("can not be filtered in raw bytes");
+
+        //a float field is compared with the literal rounded to a float, 0.1 is not exact in binary
+        FileDescriptor file = assembleMapFile();
+        File desc = File.createTempFile("filter", ".desc");
+        desc.deleteOnExit();
+        FileUtils.writeByteArrayToFile(desc,
+            FileDescriptorSet.newBuilder().addFile(file.toProto()).build().toByteArray());
+        DynamicPBParser mapParser = DynamicPBParser.newBuilder()
+            .descFilePath(desc.getPath())
+            .build();
+        Descriptor profile = file.findMessageTypeByName("Profile");
+        Descriptor item = file.findMessageTypeByName("Item");
+        DynamicMessage.Builder builder = DynamicMessage.newBuilder(profile);
+        for (float ratio : new float[] {0.1f, 0.3f, 0.7f}) {
+            builder.addRepeatedField(profile.findFieldByName("history"), DynamicMessage.newBuilder(item)
+                .setField(item.findFieldByName("price"), (int)(ratio * 10))
+                .setField(item.findFieldByName("ratio"), ratio)
+                .build());
+        }
+        byte[] profileBytes = builder.build().toByteArray();
+        assertThat(mapParser.parse(Input.of(profileBytes),
+            mapParser.compile("biz.test.Profile$history[ratio=0.1].price"))).isEqualTo("[1]");
+        assertThat(mapParser.parse(Input.of(profileBytes),
+            mapParser.compile("biz.test.Profile$history[ratio>0.1].price"))).isEqualTo("[3,7]");
+        assertThat(mapParser.parse(Input.of(profileBytes),
+            mapParser.compile("biz.test.Profile$history[ratio<=0.3].price"))).isEqualTo("[1,3]");
+        assertThat(mapParser.parse(Input.of(profileBytes),
+            mapParser.compile("biz.test.Profile$history[ratio!=0.7].price"))).isEqualTo("[1,3]");
+    }
+
+    @Test(dependsOnMethods = "testSetup")
+    public void testSlice() throws Exception {
+        DynamicPBParser parser = DynamicPBParser.newBuilder()
+            .syntax("StandardSyntax")
+            .descFilePath("target/test-classes/test.desc")
+            .build();
+        byte[] bytes = assembleAddressBook().toByteArray();
+        String base64Str = Base64.getEncoder().encodeToString(bytes);
+        String phones = "biz.test.AddressBook$people[*].phones";
+        assertThat(parser.parse(base64Str, "biz.test.AddressBook$people[-1].name")).isEqualTo("leon");
+        assertThat(parser.parse(base64Str, phones + "[-1].number")).isEqualTo("999888");
+        assertThat(parser.parse(base64Str, phones + "[-5].number")).isEqualTo("555-4321");
+        assertThat(parser.parse(base64Str, phones + "[-6].number")).isNull();
+        assertThat(parser.parse(base64Str, phones + "[-2:].number")).isEqualTo("[\"123123123\",\"999888\"]");
+        assertThat(parser.parse(base64Str, phones + "[-3:-1].number")).isEqualTo("[\"456456456\",\"123123123\"]");
+        assertThat(parser.parse(base64Str, phones + "[-10:2].number")).isEqualTo("[\"555-4321\",\"436346\"]");
+        assertThat(parser.parse(base64Str, phones + "[:-3].number")).isEqualTo("[\"555-4321\",\"436346\"]");
+        assertThat(parser.parse(base64Str, phones + "[1::2].type")).isEqualTo("[\"MOBILE\",\"HOME\"]");
+        assertThat(parser.parse(base64Str, phones + "[::2].number"))
+            .isEqualTo("[\"555-4321\",\"456456456\",\"999888\"]");
+        assertThat(parser.parse(base64Str, phones + "[1:4:2].number")).isEqualTo("[\"436346\",\"123123123\"]");
+        assertThat(parser.parse(base64Str, phones + "[:3].number"))
+            .isEqualTo("[\"555-4321\",\"436346\",\"456456456\"]");
+        assertThat(parser.parse(base64Str, phones + "[5:].number")).isEqualTo("[]");
+        assertThat(parser.parse(base64Str, phones + "[-1:2].number")).isEqualTo("[]");
+        assertThat(parser.parse(base64Str, "biz.test.AddressBook$people[-1].phones[type=MOBILE].number"))
+            .isEqualTo("[\"456456456\",\"999888\"]");
+        assertThat(parser.parse(base64Str, "biz.test.AddressBook$people[-2:-1].phones[-1]"))
+            .isEqualTo(Base64.getEncoder().encodeToString(assemblePerson().getPhones(1).toByteArray()));
+        Person person = assemblePerson();
+        assertThat(parser.parse(Input.of(person.toByteArray()), parser.compile("biz.test.Person$scores[-1]")))
+            .isEqualTo("150");
+        assertThat(parser.parse(Input.of(person.toByteArray()), parser.compile("biz.test.Person$scores[:-1]")))
+            .isEqualTo("[100,120]");
+        assertThat(parser.parse(Input.of(person.toByteArray()), parser.compile("$#6[-2]"))).isEqualTo("120");
+
+        //streamed
+        AddressBook.Builder largeBook = AddressBook.newBuilder();
+        for (int i = 0; i < 100; i++) {
+            largeBook.mergeFrom(bytes);
+        }
+        String largeStr = Base64.getEncoder().encodeToString(largeBook.build().toByteArray());
+        assertThat(parser.parseMulti(largeStr, "biz.test.AddressBook$people[-1].phones[-1].number",
+            "biz.test.AddressBook$people[-3:].id", "biz.test.AddressBook$people[::100].name"))
+            .containsExactly("999888", "[5432,1234,5432]", "[\"John Doe\",\"John Doe\"]");
+
+        //stop once the slice is done, the broken bytes after it are never read
+        byte[] broken = ByteString.copyFrom(bytes).concat(ByteString.copyFrom(new byte[] {0x0A, (byte)0xFF}))
+            .toByteArray();
+        assertThat(parser.parse(Input.of(broken), parser.compile("biz.test.AddressBook$people[:1].name")))
+            .isEqualTo("[\"John Doe\"]");
+        assertThat(parser.parse(Input.of(broken), parser.compile("biz.test.AddressBook$people[*].name"))).isNull();
+        assertThat(parser.parse(Input.of(broken), parser.compile("biz.test.AddressBook$people[-1].name"))).isNull();
+
+        assertThat(StandardSyntax.create().getSegments("phones[-2:].number[::2]")).extracting(Segment::toString)
+            .containsExactly("phones[-2:]", "number[::2]");
+        assertThatIllegalArgumentException().isThrownBy(() -> parser.compile("biz.test.AddressBook$people[*].cloth[-1]"))
+            .withMessageContaining("can not be counted from the end");
+        for (String path : new String[] {phones + "[1:2:0]", phones + "[-]", phones + "[1:x]", phones + "[1:2:3:4]",
+            phones + "[-1-]"}) {
+            assertThatIllegalArgumentException().isThrownBy(() -> parser.compile(path))
+                .withMessageContaining("is not a valid field path");
+        }
+    }
+
+    @Test(dependsOnMethods = "testSetup")
+    public void testMapKey() throws Exception {
+        FileDescriptor file = assembleMapFile();
+        File desc = File.createTempFile("map", ".desc");
+        desc.deleteOnExit();
+        FileUtils.writeByteArrayToFile(desc,
+            FileDescriptorSet.newBuilder().addFile(file.toProto()).build().toByteArray());
+        DynamicPBParser parser = DynamicPBParser.newBuilder()
+            .syntax("StandardSyntax")
+            .descFilePath(desc.getPath())
+            .build();
+        Descriptor profile = file.findMessageTypeByName("Profile");
+        Descriptor item = file.findMessageTypeByName("Item");
+        DynamicMessage apple = DynamicMessage.newBuilder(item).setField(item.findFieldByName("price"), 3).build();
+        DynamicMessage.Builder builder = DynamicMessage.newBuilder(profile);
+        addEntry(builder, "attributes", "region", "cn-south");
+        addEntry(builder, "attributes", "owner", "jared");
+        //the last entry with the key wins
+        addEntry(builder, "attributes", "region", "cn-north");
+        addEntry(builder, "counters", 42, 4200L);
+        addEntry(builder, "counters", -5, -500L);
+        addEntry(builder, "items", "apple", apple);
+        byte[] bytes = builder.build().toByteArray();
+
+        assertThat(parser.parse(Input.of(bytes), parser.compile("biz.test.Profile$attributes[\"region\"]")))
+            .isEqualTo("cn-north");
+        assertThat(parser.parse(Input.of(bytes), parser.compile("biz.test.Profile$attributes['owner']")))
+            .isEqualTo("jared");
+        assertThat(parser.parse(Input.of(bytes), parser.compile("biz.test.Profile$attributes[\"missing\"]"))).isNull();
+        assertThat(parser.parse(Input.of(bytes), parser.compile("biz.test.Profile$counters[42]"))).isEqualTo("4200");
+        assertThat(parser.parse(Input.of(bytes), parser.compile("biz.test.Profile$counters[-5]"))).isEqualTo("-500");
+        assertThat(parser.parse(Input.of(bytes), parser.compile("biz.test.Profile$counters[7]"))).isNull();
+        assertThat(parser.parse(Input.of(bytes), parser.compile("biz.test.Profile$items[\"apple\"].price")))
+            .isEqualTo("3");
+        assertThat(parser.parse(Input.of(bytes), parser.compile("biz.test.Profile$items[\"apple\"]")))
+            .isEqualTo(Base64.getEncoder().encodeToString(apple.toByteArray()));
+        assertThat(parser.parseMulti(Input.of(bytes), parser.compileMulti("biz.test.Profile$attributes[\"region\"]",
+            "biz.test.Profile$attributes[\"owner\"]", "biz.test.Profile$counters[*].value")))
+            .containsExactly("cn-north", "jared", "[4200,-500]");
+        //entries are still selected by [*]
+        assertThat(parser.parse(Input.of(bytes), parser.compile("biz.test.Profile$attributes[*].key")))
+            .isEqualTo("[\"region\",\"owner\",\"region\"]");
+        //a number selects entries by position if the key is not an integer
+        Descriptor attributesEntry = profile.findNestedTypeByName("AttributesEntry");
+        DynamicMessage firstEntry = DynamicMessage.newBuilder(attributesEntry)
+            .setField(attributesEntry.findFieldByNumber(1), "region")
+            .setField(attributesEntry.findFieldByNumber(2), "cn-south")
+            .build();
+        assertThat(parser.parse(Input.of(bytes), parser.compile("biz.test.Profile$attributes[0]")))
+            .isEqualTo(Base64.getEncoder().encodeToString(firstEntry.toByteArray()));
+        assertThat(parser.parse(Input.of(bytes), parser.compile("biz.test.Profile$attributes[1].value")))
+            .isEqualTo("jared");
+        assertThat(parser.parse(Input.of(bytes), parser.compile("biz.test.Profile$attributes[-1].value")))
+            .isEqualTo("cn-north");
+        assertThat(parser.parse(Input.of(bytes), parser.compile("biz.test.Profile$items[0].value.price")))
+            .isEqualTo("3");
+
+        //streamed
+        DynamicMessage.Builder largeBuilder = DynamicMessage.newBuilder(profile);
+        for (int i = 0; i < 1000; i++) {
+            addEntry(largeBuilder, "attributes", "key" + i, "value" + i);
+        }
+        String largeStr = Base64.getEncoder().encodeToString(largeBuilder.build().toByteArray());
+        assertThat(parser.parse(largeStr, "biz.test.Profile$attributes[\"key999\"]")).isEqualTo("value999");
+
+        assertThat(StandardSyntax.create().getSegments("attributes[\"a.b]\"].x")).extracting(Segment::toString)
+            .containsExactly("attributes[\"a.b]\"]", "x");
+        assertThatIllegalArgumentException().isThrownBy(() -> parser.compile("biz.test.Profile$counters[\"42\"]"))
+            .withMessageContaining("is looked up by a number without quotes");
+        assertThatIllegalArgumentException().isThrownBy(() -> parser.compile("biz.test.Profile$counters[\"x\"]"))
+            .withMessageContaining("is looked up by a number without quotes");
+        assertThatIllegalArgumentException().isThrownBy(() -> parser.compile("$#1[\"x\"]"))
+            .withMessageContaining("can not be filtered in raw bytes");
+        DynamicPBParser personParser = DynamicPBParser.newBuilder()
+            .syntax("StandardSyntax")
+            .descFilePath("target/test-classes/test.desc")
+            .build();
+        assertThatIllegalArgumentException().isThrownBy(() -> personParser.compile("biz.test.Person$phones[\"x\"]"))
+            .withMessageContaining("is not a map field");
+    }
+
+    @Test(dependsOnMethods = "testSetup")
+    public void testTerminal() throws Exception {
+        DynamicPBParser parser = DynamicPBParser.newBuilder()
+            .syntax("StandardSyntax")
+            .descFilePath("target/test-classes/test.desc")
+            .build();
+        byte[] bytes = assembleAddressBook().toByteArray();
+        assertThat(parser.parse(Input.of(bytes), parser.compile("biz.test.AddressBook$people[*].phones.count()")))
+            .isEqualTo("5");
+        assertThat(parser.parse(Input.of(bytes),
+            parser.compile("biz.test.AddressBook$people[*].phones[type=MOBILE].count()"))).isEqualTo("3");
+        assertThat(parser.parse(Input.of(bytes), parser.compile("biz.test.AddressBook$people[-1].phones.size()")))
+            .isEqualTo("3");
+        assertThat(parser.parse(Input.of(bytes), parser.compile("biz.test.AddressBook$people[*].name.count()")))
+            .isEqualTo("2");
+        assertThat(parser.parseMulti(Input.of(bytes),
+            parser.compileMulti("biz.test.AddressBook$people[*].cloth.price.sum()",
+            "biz.test.AddressBook$people[*].cloth.price.min()", "biz.test.AddressBook$people[*].cloth.price.max()",
+            "biz.test.AddressBook$people[*].cloth.price")))
+            .containsExactly("12897", "555", "12342", "[12342,555]");
+
+        Person person = assemblePerson();
+        assertThat(parser.parseMulti(Input.of(person.toByteArray()),
+            parser.compileMulti("biz.test.Person$scores.count()", "biz.test.Person$scores.sum()",
+            "biz.test.Person$scores.min()", "biz.test.Person$scores.max()", "biz.test.Person$scores[1:].sum()",
+            "biz.test.Person$scores[-2:].sum()", "biz.test.Person$scores")))
+            .containsExactly("3", "370", "100", "150", "270", "270", "[100,120,150]");
+        assertThat(parser.parse(Input.of(person.toByteArray()), parser.compile("$#6[*].sum()"))).isEqualTo("370");
+        assertThat(parser.parse(Input.of(person.toByteArray()), parser.compile("$#4[*].count()"))).isEqualTo("2");
+        //nothing to compute over
+        Person empty = Person.newBuilder().setName("nobody").setId(1).build();
+        assertThat(parser.parseMulti(Input.of(empty.toByteArray()),
+            parser.compileMulti("biz.test.Person$scores.count()", "biz.test.Person$scores.sum()",
+            "biz.test.Person$scores.max()", "biz.test.Person$cloth.price.count()")))
+            .containsExactly("0", "0", null, "0");
+
+        //packed, counted by the last bytes of the varints
+        ByteString.Output out = ByteString.newOutput();
+        CodedOutputStream output = CodedOutputStream.newInstance(out);
+        output.writeTag(6, 2);
+        output.writeUInt32NoTag(CodedOutputStream.computeInt32SizeNoTag(1)
+            + CodedOutputStream.computeInt32SizeNoTag(300) + CodedOutputStream.computeInt32SizeNoTag(-1));
+        output.writeInt32NoTag(1);
+        output.writeInt32NoTag(300);
+        output.writeInt32NoTag(-1);
+        output.flush();
+        byte[] packed = person.toByteString().concat(out.toByteString()).toByteArray();
+        assertThat(parser.parseMulti(Input.of(packed), parser.compileMulti("biz.test.Person$scores.count()",
+            "biz.test.Person$scores.sum()", "biz.test.Person$scores.min()", "biz.test.Person$scores.max()",
+            "biz.test.Person$scores[::2].count()")))
+            .containsExactly("6", "670", "-1", "300", "3");
+
+        //streamed
+        AddressBook.Builder largeBook = AddressBook.newBuilder();
+        for (int i = 0; i < 100; i++) {
+            largeBook.mergeFrom(bytes);
+        }
+        String largeStr = Base64.getEncoder().encodeToString(largeBook.build().toByteArray());
+        assertThat(parser.parse(largeStr, "biz.test.AddressBook$people[*].phones.count()")).isEqualTo("500");
+
+        assertThat(parser.compile("biz.test.Person$scores.count()").isList()).isFalse();
+        assertThatIllegalArgumentException().isThrownBy(() -> parser.compile("biz.test.Person$name.sum()"))
+            .withMessageContaining("is not a numeric field");
+        assertThatIllegalArgumentException().isThrownBy(() -> parser.compile("biz.test.Person$phones.max()"))
+            .withMessageContaining("is not a numeric field");
+        for (String path : new String[] {"biz.test.Person$scores.avg()", "biz.test.Person$count()",
+            "biz.test.Person$scores.count().sum()"}) {
+            assertThatIllegalArgumentException().isThrownBy(() -> parser.compile(path))
+                .withMessageContaining("is not a valid field path");
+        }
+
+        //float and double
+        FileDescriptor file = assembleMapFile();
+        File desc = File.createTempFile("terminal", ".desc");
+        desc.deleteOnExit();
+        FileUtils.writeByteArrayToFile(desc,
+            FileDescriptorSet.newBuilder().addFile(file.toProto()).build().toByteArray());
+        DynamicPBParser profileParser = DynamicPBParser.newBuilder()
+            .syntax("StandardSyntax")
+            .descFilePath(desc.getPath())
+            .build();
+        Descriptor profile = file.findMessageTypeByName("Profile");
+        FieldDescriptor weights = profile.findFieldByName("weights");
+        byte[] profileBytes = DynamicMessage.newBuilder(profile)
+            .addRepeatedField(weights, 1.5)
+            .addRepeatedField(weights, 2.5)
+            .addRepeatedField(weights, -1.0)
+            .build().toByteArray();
+        assertThat(profileParser.parseMulti(Input.of(profileBytes),
+            profileParser.compileMulti("biz.test.Profile$weights.count()", "biz.test.Profile$weights.sum()",
+            "biz.test.Profile$weights.min()", "biz.test.Profile$weights.max()")))
+            .containsExactly("3", "3.0", "-1.0", "2.5");
+    }
+
+    @Test(dependsOnMethods = "testSetup")
+    public void testPresence() throws Exception {
+        DynamicPBParser parser = DynamicPBParser.newBuilder()
+            .syntax("StandardSyntax")
+            .descFilePath("target/test-classes/test.desc")
+            .build();
+        Person person = assemblePerson();
+        byte[] bytes = person.toByteArray();
+        assertThat(parser.has(Input.of(bytes), parser.compile("biz.test.Person$cloth.brand"))).isTrue();
+        assertThat(parser.has(Input.of(bytes), parser.compile("biz.test.Person$phones[type=MOBILE]"))).isTrue();
+        assertThat(parser.has(Input.of(bytes), parser.compile("biz.test.Person$phones[type=WORK]"))).isFalse();
+        //a default value is not present
+        assertThat(parser.parse(Input.of(bytes), parser.compile("biz.test.Person$email"))).isEqualTo("testEmail");
+        assertThat(parser.has(Input.of(bytes), parser.compile("biz.test.Person$email"))).isFalse();
+        assertThat(parser.parse(Input.of(bytes), parser.compile("biz.test.Person$email.has()"))).isEqualTo("false");
+        assertThat(parser.parse(Input.of(bytes), parser.compile("biz.test.Person$cloth.brand.brand_name.has()")))
+            .isEqualTo("true");
+        Person plain = Person.newBuilder().setName("plain").setId(1).setCloth(Cloth.newBuilder().setPrice(1)).build();
+        assertThat(parser.has(Input.of(plain.toByteArray()), parser.compile("biz.test.Person$cloth.brand"))).isFalse();
+        assertThat(parser.has(Input.of(plain.toByteArray()), parser.compile("biz.test.Person$cloth.price"))).isTrue();
+
+        assertThat(parser.size(Input.of(bytes), parser.compile("biz.test.Person$phones"))).isEqualTo(2);
+        assertThat(parser.size(Input.of(bytes), parser.compile("biz.test.Person$name"))).isEqualTo(1);
+        assertThat(parser.size(Input.of(bytes), parser.compile("biz.test.Person$cloth.brand"))).isEqualTo(1);
+        assertThat(parser.size(Input.of(plain.toByteArray()), parser.compile("biz.test.Person$scores"))).isEqualTo(0);
+        byte[] book = assembleAddressBook().toByteArray();
+        assertThat(parser.size(Input.of(book), parser.compile("biz.test.AddressBook$people[*].phones"))).isEqualTo(5);
+        assertThat(parser.size(Input.of(Base64.getEncoder().encodeToString(book)),
+            parser.compile("biz.test.AddressBook$people[*].phones")))
+            .isEqualTo(5);
+        assertThat(parser.has(Input.of(Base64.getEncoder().encodeToString(book)),
+            parser.compile("biz.test.AddressBook$people[*].cloth.brand")))
+            .isTrue();
+        CompiledPath phones = parser.compile("biz.test.AddressBook$people[*].phones");
+        assertThat(parser.size(Input.of(ByteString.copyFrom(book)), phones)).isEqualTo(5);
+        assertThat(parser.parse(Input.of(book), phones)).startsWith("[");
+
+        //the walk stops once a value is found, the broken bytes after it are never read
+        byte[] broken = ByteString.copyFrom(bytes).concat(ByteString.copyFrom(new byte[] {0x0A, (byte)0xFF}))
+            .toByteArray();
+        assertThat(parser.has(Input.of(broken), parser.compile("biz.test.Person$phones"))).isTrue();
+        assertThat(parser.size(Input.of(broken), parser.compile("biz.test.Person$phones"))).isEqualTo(0);
+
+        //a path not conforming to the syntax is rejected once by compile instead of by every call
+        assertThatIllegalArgumentException().isThrownBy(() -> parser.compile("biz.test.Person"))
+            .withMessageContaining("is not a valid field path");
+        assertThat(parser.size(Input.of((byte[])null), parser.compile("biz.test.Person$phones"))).isEqualTo(0);
+        assertThatIllegalArgumentException()
+            .isThrownBy(() -> parser.has(Input.of(bytes), parser.compile("biz.test.Person$phones.count()")))
+            .withMessageContaining("ends with count() already");
+    }
+
+    @Test(dependsOnMethods = "testSetup")
+    public void testExtensionTable() throws Exception {
+        DynamicPBParser parser = DynamicPBParser.newBuilder()
+            .syntax("StandardSyntax")
+            .descFilePath("target/test-classes/test.desc")
+            .build();
+        Child child = Child.newBuilder()
+            .setSchool("Tsinghua")
+            .setExtension(Boy.scoreInt, 456)
+            .setExtension(Boy.scoreEnum, PhoneType.HOME)
+            .setExtension(Boy.friend, assemblePerson())
+            .setExtension(ChildProtos.age, 29)
+            .build();
+        byte[] bytes = child.toByteArray();
+        //extensions declared in a message, by full name and by number
+        assertThat(parser.parse(Input.of(bytes), parser.compile("biz.test.Child$(biz.test.Boy.score_int)")))
+            .isEqualTo("456");
+        assertThat(parser.parse(Input.of(bytes), parser.compile("biz.test.Child$#130"))).isEqualTo("456");
+        assertThat(parser.parse(Input.of(bytes), parser.compile("biz.test.Child$#138.cloth.price"))).isEqualTo("12342");
+        File desc = File.createTempFile("extension-table", ".desc");
+        desc.deleteOnExit();
+        FileUtils.copyFile(FileUtils.getFile("target/test-classes/test.desc"), desc);
+        DynamicPBParser lazyParser = DynamicPBParser.newBuilder()
+            .descFilePath(desc.getPath())
+            .lazy(true)
+            .build();
+        assertThat(lazyParser.compile("biz.test.Child$#136").hops()[0].field.getFullName())
+            .isEqualTo("biz.test.Boy.score_enum");
+        assertThat(lazyParser.parse(Input.of(bytes), lazyParser.compile("biz.test.Child$(biz.test.Boy.score_enum)")))
+            .isEqualTo("HOME");
+
+        //a message returned is parsed with its extensions in one pass
+        Descriptor childDescriptor = parser.compile("biz.test.Child$school").getDescriptor();
+        DynamicMessage message = DynamicMessage.parseFrom(childDescriptor, bytes, parser.getExtensionRegistry());
+        assertThat(message.getUnknownFields().asMap()).isEmpty();
+        assertThat(message.getField(parser.compile("biz.test.Child$#130").hops()[0].field)).isEqualTo(456);
+        assertThat(parser.getExtensionRegistry()).isSameAs(parser.getExtensionRegistry());
+
+        //repeated extensions
+        FileDescriptorProto fileProto = FileDescriptorProto.newBuilder()
+            .setName("ext.proto")
+            .setPackage("biz.test.ext")
+            .addMessageType(DescriptorProto.newBuilder()
+                .setName("Holder")
+                .addField(field("name", 1, FieldDescriptorProto.Type.TYPE_STRING, null, false))
+                .addExtensionRange(DescriptorProto.ExtensionRange.newBuilder().setStart(10).setEnd(21)))
+            .addExtension(field("tags", 10, FieldDescriptorProto.Type.TYPE_INT32, null, true).toBuilder()
+                .setExtendee(".biz.test.ext.Holder"))
+            .addExtension(field("children", 11, FieldDescriptorProto.Type.TYPE_MESSAGE, ".biz.test.ext.Holder", true)
+                .toBuilder().setExtendee(".biz.test.ext.Holder"))
+            .build();
+        FileDescriptor file = FileDescriptor.buildFrom(fileProto, new FileDescriptor[0]);
+        Descriptor holder = file.findMessageTypeByName("Holder");
+        FieldDescriptor tags = file.findExtensionByName("tags");
+        FieldDescriptor children = file.findExtensionByName("children");
+        byte[] holderBytes = DynamicMessage.newBuilder(holder)
+            .setField(holder.findFieldByName("name"), "root")
+            .addRepeatedField(tags, 1)
+            .addRepeatedField(tags, 2)
+            .addRepeatedField(tags, 3)
+            .addRepeatedField(children, DynamicMessage.newBuilder(holder).setField(holder.findFieldByName("name"), "a")
+                .build())
+            .addRepeatedField(children, DynamicMessage.newBuilder(holder).setField(holder.findFieldByName("name"), "b")
+                .build())
+            .build().toByteArray();
+        File extDesc = File.createTempFile("ext", ".desc");
+        extDesc.deleteOnExit();
+        FileUtils.writeByteArrayToFile(extDesc,
+            FileDescriptorSet.newBuilder().addFile(fileProto).build().toByteArray());
+        DynamicPBParser extParser = DynamicPBParser.newBuilder()
+            .syntax("StandardSyntax")
+            .descFilePath(extDesc.getPath())
+            .build();
+        assertThat(extParser.parseMulti(Input.of(holderBytes),
+            extParser.compileMulti("biz.test.ext.Holder$(biz.test.ext.tags)", "biz.test.ext.Holder$#10[-1]",
+            "biz.test.ext.Holder$(biz.test.ext.tags).sum()", "biz.test.ext.Holder$(biz.test.ext.children)[*].name",
+            "biz.test.ext.Holder$#11[1].name")))
+            .containsExactly("[1,2,3]", "3", "6", "[\"a\",\"b\"]", "b");
+        Descriptor parsedHolder = extParser.compile("biz.test.ext.Holder$name").getDescriptor();
+        DynamicMessage holderMessage = DynamicMessage.parseFrom(parsedHolder, holderBytes,
+            extParser.getExtensionRegistry());
+        assertThat(holderMessage.getRepeatedFieldCount(extParser.compile("biz.test.ext.Holder$#11").hops()[0].field))
+            .isEqualTo(2);
+    }
+
+    @Test(dependsOnMethods = "testSetup")
+    public void testPrimitiveArrays() throws Exception {
+        DynamicPBParser parser = DynamicPBParser.newBuilder()
+            .syntax("StandardSyntax")
+            .descFilePath("target/test-classes/test.desc")
+            .build();
+        Person person = assemblePerson();
+        byte[] bytes = person.toByteArray();
+        assertThat(parser.parseLongs(Input.of(bytes), parser.compile("biz.test.Person$scores")))
+            .containsExactly(100, 120, 150);
+        assertThat(parser.parseInts(Input.of(bytes), parser.compile("biz.test.Person$scores")))
+            .containsExactly(100, 120, 150);
+        assertThat(parser.parseDoubles(Input.of(bytes), parser.compile("biz.test.Person$scores")))
+            .containsExactly(100.0, 120.0, 150.0);
+        assertThat(parser.parseLongs(Input.of(bytes), parser.compile("biz.test.Person$scores[-2:]")))
+            .containsExactly(120, 150);
+        assertThat(parser.parseLongs(Input.of(bytes), parser.compile("biz.test.Person$id"))).containsExactly(1234);
+        assertThat(parser.parseLongs(Input.of(bytes), parser.compile("$#6[*]"))).containsExactly(100, 120, 150);
+        byte[] book = assembleAddressBook().toByteArray();
+        assertThat(parser.parseLongs(Input.of(book), parser.compile("biz.test.AddressBook$people[*].cloth.price")))
+            .containsExactly(12342, 555);
+        assertThat(parser.parseLongs(Input.of(ByteBuffer.wrap(book)),
+            parser.compile("biz.test.AddressBook$people[*].id")))
+            .containsExactly(1234, 5432);
+        assertThat(parser.parseLongs(Input.of(Base64.getEncoder().encodeToString(book)),
+            parser.compile("biz.test.AddressBook$people[*].id")))
+            .containsExactly(1234, 5432);
+        //null for an empty or undecodable input just like parse, but empty for an object without the values
+        CompiledPath scoresPath = parser.compile("biz.test.Person$scores");
+        assertThat(parser.parseLongs(Input.of(new byte[0]), scoresPath)).isNull();
+        assertThat(parser.parseLongs(Input.of((String)null), scoresPath)).isNull();
+        assertThat(parser.parseInts(Input.of(" "), scoresPath)).isNull();
+        //a single char is not a whole byte
+        assertThat(parser.parseDoubles(Input.of("Q"), scoresPath)).isNull();
+        assertThat(parser.parseLongs(Input.of(new byte[0]), scoresPath, value -> { })).isEqualTo(0);
+        assertThat(parser.parseDoubles(Input.of(Person.newBuilder().setName("plain").setId(1).build().toByteArray()),
+            scoresPath)).isEmpty();
+        //a sink parsing again on the same thread does not disturb the walk it is called from
+        List<String> names = new ArrayList<>();
+        assertThat(parser.parseLongs(Input.of(book), parser.compile("biz.test.AddressBook$people[*].id"),
+            value -> names.add(parser.parse(Input.of(book), parser.compile("biz.test.AddressBook$people[*].name")))))
+            .isEqualTo(2);
+        assertThat(names).containsExactly("[\"John Doe\",\"leon\"]", "[\"John Doe\",\"leon\"]");
+
+        //packed
+        ByteString.Output out = ByteString.newOutput();
+        CodedOutputStream output = CodedOutputStream.newInstance(out);
+        output.writeTag(6, 2);
+        output.writeUInt32NoTag(CodedOutputStream.computeInt32SizeNoTag(1)
+            + CodedOutputStream.computeInt32SizeNoTag(300) + CodedOutputStream.computeInt32SizeNoTag(-1));
+        output.writeInt32NoTag(1);
+        output.writeInt32NoTag(300);
+        output.writeInt32NoTag(-1);
+        output.flush();
+        ByteString packed = person.toByteString().concat(out.toByteString());
+        assertThat(parser.parseLongs(Input.of(packed), parser.compile("biz.test.Person$scores")))
+            .containsExactly(100, 120, 150, 1, 300, -1);
+        assertThat(parser.parseInts(Input.of(packed), parser.compile("biz.test.Person$scores[2:5]")))
+            .containsExactly(150, 1, 300);
+
+        //a sink reused across calls
+        CompiledPath scores = parser.compile("biz.test.Person$scores");
+        long[] sum = new long[1];
+        assertThat(parser.parseLongs(Input.of(packed), scores, value -> sum[0] += value)).isEqualTo(6);
+        assertThat(parser.parseLongs(Input.of(bytes), scores, value -> sum[0] += value)).isEqualTo(3);
+        assertThat(sum[0]).isEqualTo(670 + 370);
+        List<Integer> ints = new ArrayList<>();
+        assertThat(parser.parseInts(Input.of(Base64.getEncoder().encodeToString(packed.toByteArray())), scores,
+            ints::add))
+            .isEqualTo(6);
+        assertThat(ints).containsExactly(100, 120, 150, 1, 300, -1);
+        byte[] broken = packed.concat(ByteString.copyFrom(new byte[] {0x0A, (byte)0xFF})).toByteArray();
+        assertThat(parser.parseLongs(Input.of(broken), scores, value -> { })).isEqualTo(-1);
+        assertThat(parser.parseLongs(Input.of(broken), scores)).isNull();
+
+        //streamed
+        AddressBook.Builder largeBook = AddressBook.newBuilder();
+        for (int i = 0; i < 100; i++) {
+            largeBook.mergeFrom(book);
+        }
+        String largeStr = Base64.getEncoder().encodeToString(largeBook.build().toByteArray());
+        assertThat(parser.parseLongs(Input.of(largeStr), parser.compile("biz.test.AddressBook$people[*].cloth.price")))
+            .hasSize(200);
+
+        assertThatIllegalArgumentException()
+            .isThrownBy(() -> parser.parseLongs(Input.of(bytes), parser.compile("biz.test.Person$name")))
+            .withMessageContaining("can not be read as longs");
+        assertThatIllegalArgumentException()
+            .isThrownBy(() -> parser.parseLongs(Input.of(bytes), parser.compile("biz.test.Person$scores.sum()")))
+            .withMessageContaining("ends with sum()");
+
+        //float and double, packed in proto3
+        FileDescriptor file = assembleMapFile();
+        File desc = File.createTempFile("primitive", ".desc");
+        desc.deleteOnExit();
+        FileUtils.writeByteArrayToFile(desc,
+            FileDescriptorSet.newBuilder().addFile(file.toProto()).build().toByteArray());
+        DynamicPBParser profileParser = DynamicPBParser.newBuilder()
+            .syntax("StandardSyntax")
+            .descFilePath(desc.getPath())
+            .build();
+        Descriptor profile = file.findMessageTypeByName("Profile");
+        FieldDescriptor weights = profile.findFieldByName("weights");
+        byte[] profileBytes = DynamicMessage.newBuilder(profile)
+            .addRepeatedField(weights, 1.5)
+            .addRepeatedField(weights, 2.5)
+            .addRepeatedField(weights, -1.0)
+            .build().toByteArray();
+        assertThat(profileParser.parseDoubles(Input.of(profileBytes),
+            profileParser.compile("biz.test.Profile$weights")))
+            .containsExactly(1.5, 2.5, -1.0);
+        assertThat(profileParser.parseDoubles(Input.of(profileBytes),
+            profileParser.compile("biz.test.Profile$weights[-1]"))).containsExactly(-1.0);
+        assertThatIllegalArgumentException()
+            .isThrownBy(() -> profileParser.parseLongs(Input.of(profileBytes),
+            profileParser.compile("biz.test.Profile$weights")))
+            .withMessageContaining("can not be read as longs");
+    }
+
+    @Test(dependsOnMethods = "testSetup")
+    public void testScalarValue() throws Exception {
+        DynamicPBParser parser = DynamicPBParser.newBuilder()
+            .syntax("StandardSyntax")
+            .descFilePath("target/test-classes/test.desc")
+            .build();
+        Person person = assemblePerson();
+        byte[] bytes = person.toByteArray();
+        //one holder reused across calls
+        ScalarValue value = new ScalarValue();
+        assertThat(parser.parseLong(Input.of(bytes), parser.compile("biz.test.Person$id"), value).getAsLong())
+            .isEqualTo(1234);
+        assertThat(value.getAsDouble()).isEqualTo(1234.0);
+        assertThat(parser.parseLong(Input.of(bytes), parser.compile("biz.test.Person$cloth.price"), value).getAsLong())
+            .isEqualTo(12342);
+        assertThat(parser.parseLong(Input.of(bytes), parser.compile("biz.test.Person$scores[-1]"), value).getAsLong())
+            .isEqualTo(150);
+        assertThat(parser.parseLong(Input.of(bytes), parser.compile("biz.test.Person$scores[1]"), value).getAsLong())
+            .isEqualTo(120);
+        assertThat(parser.parseLong(Input.of(bytes), parser.compile("biz.test.Person$scores.sum()"), value).getAsLong())
+            .isEqualTo(370);
+        assertThat(parser.parseLong(Input.of(bytes), parser.compile("biz.test.Person$phones.count()"),
+            value).getAsLong()).isEqualTo(2);
+        assertThat(parser.parseDouble(Input.of(bytes), parser.compile("biz.test.Person$scores.max()"),
+            value).getAsDouble()).isEqualTo(150.0);
+        assertThat(parser.parseLong(Input.of(bytes), parser.compile("$#2"), value).getAsLong()).isEqualTo(1234);
+        //the default value is given by number
+        assertThat(parser.parseEnumNumber(Input.of(bytes), parser.compile("biz.test.Person$phones[0].type"),
+            value).getAsLong()).isEqualTo(1);
+        assertThat(parser.parseEnumNumber(Input.of(bytes), parser.compile("biz.test.Person$phones[1].type"),
+            value).getAsLong()).isEqualTo(0);
+        assertThat(parser.parseEnumNumber(Input.of(bytes), parser.compile("biz.test.Person$cloth.brand.brand_type"),
+            value).getAsLong())
+            .isEqualTo(1);
+        assertThat(parser.parseBoolean(Input.of(bytes), parser.compile("biz.test.Person$cloth.brand.has()"),
+            value).getAsBoolean()).isTrue();
+        assertThat(parser.parseBoolean(Input.of(bytes), parser.compile("biz.test.Person$email.has()"),
+            value).getAsBoolean()).isFalse();
+        assertThat(parser.parseBytes(Input.of(bytes), parser.compile("biz.test.Person$name"),
+            value).getBytes().toStringUtf8())
+            .isEqualTo("John Doe");
+        assertThat(parser.parseBytes(Input.of(bytes), parser.compile("biz.test.Person$email"),
+            value).getBytes().toStringUtf8())
+            .isEqualTo("testEmail");
+        assertThat(parser.parseBytes(Input.of(bytes), parser.compile("biz.test.Person$cloth"), value).getBytes())
+            .isEqualTo(person.getCloth().toByteString());
+
+        //absent, just like parse returns null
+        Person plain = Person.newBuilder().setName("plain").setId(1).build();
+        assertThat(parser.parseLong(Input.of(plain.toByteArray()), parser.compile("biz.test.Person$cloth.price"), value)
+            .isPresent()).isFalse();
+        assertThat(value.orElse(-1L)).isEqualTo(-1);
+        assertThatThrownBy(value::getAsLong).isInstanceOf(NoSuchElementException.class);
+        assertThat(parser.parseLong(Input.of(plain.toByteArray()), parser.compile("biz.test.Person$scores[0]"), value)
+            .isPresent()).isFalse();
+        assertThat(parser.parseLong(Input.of(plain.toByteArray()), parser.compile("biz.test.Person$scores.max()"),
+            value).isPresent())
+            .isFalse();
+        assertThat(parser.parseLong(Input.of(new byte[0]), parser.compile("biz.test.Person$id"), value).isPresent())
+            .isFalse();
+        byte[] broken = ByteString.copyFrom(bytes).concat(ByteString.copyFrom(new byte[] {0x0A, (byte)0xFF}))
+            .toByteArray();
+        assertThat(parser.parseLong(Input.of(broken), parser.compile("biz.test.Person$id"), value).isPresent())
+            .isFalse();
+        assertThat(parser.parseBytes(Input.of(broken), parser.compile("biz.test.Person$name"), value).isPresent())
+            .isFalse();
+
+        //every input
+        CompiledPath price = parser.compile("biz.test.AddressBook$people[-1].cloth.price");
+        byte[] book = assembleAddressBook().toByteArray();
+        assertThat(parser.parseLong(Input.of(ByteBuffer.wrap(book)), price, value).getAsLong()).isEqualTo(555);
+        assertThat(parser.parseLong(Input.of(ByteString.copyFrom(book)), price, value).getAsLong()).isEqualTo(555);
+        assertThat(parser.parseLong(Input.of(Base64.getEncoder().encodeToString(book)), price, value).getAsLong())
+            .isEqualTo(555);
+        assertThat(parser.parseDouble(Input.of(Base64.getEncoder().encodeToString(book)), price, value).getAsDouble())
+            .isEqualTo(555.0);
+        AddressBook.Builder largeBook = AddressBook.newBuilder();
+        for (int i = 0; i < 100; i++) {
+            largeBook.mergeFrom(book);
+        }
+        String largeStr = Base64.getEncoder().encodeToString(largeBook.build().toByteArray());
+        assertThat(parser.parseLong(Input.of(largeStr), price, value).getAsLong()).isEqualTo(555);
+        assertThat(parser.parseBytes(Input.of(largeStr), parser.compile("biz.test.AddressBook$people[0].name"),
+            value).getBytes().toStringUtf8())
+            .isEqualTo("John Doe");
+        assertThat(parser.parseLong(Input.of(largeStr), parser.compile("biz.test.AddressBook$people[*].phones.count()"),
+            value).getAsLong())
+            .isEqualTo(500);
+
+        assertThatIllegalArgumentException()
+            .isThrownBy(() -> parser.parseLong(Input.of(bytes), parser.compile("biz.test.Person$name"), value))
+            .withMessageContaining("can not be read as a long");
+        assertThatIllegalArgumentException()
+            .isThrownBy(() -> parser.parseLong(Input.of(bytes), parser.compile("biz.test.Person$scores"), value))
+            .withMessageContaining("gives a list");
+        assertThatIllegalArgumentException()
+            .isThrownBy(() -> parser.parseBoolean(Input.of(bytes), parser.compile("biz.test.Person$scores.count()"),
+            value))
+            .withMessageContaining("can not be read as a boolean");
+        assertThatIllegalArgumentException()
+            .isThrownBy(() -> parser.parseLong(Input.of(bytes), parser.compile("biz.test.Person$phones[0].type"),
+            value))
+            .withMessageContaining("can not be read as a long");
+
+        //map values, float and double
+        FileDescriptor file = assembleMapFile();
+        File desc = File.createTempFile("scalar", ".desc");
+        desc.deleteOnExit();
+        FileUtils.writeByteArrayToFile(desc,
+            FileDescriptorSet.newBuilder().addFile(file.toProto()).build().toByteArray());
+        DynamicPBParser profileParser = DynamicPBParser.newBuilder()
+            .syntax("StandardSyntax")
+            .descFilePath(desc.getPath())
+            .build();
+        Descriptor profile = file.findMessageTypeByName("Profile");
+        DynamicMessage.Builder builder = DynamicMessage.newBuilder(profile)
+            .addRepeatedField(profile.findFieldByName("weights"), 1.5)
+            .addRepeatedField(profile.findFieldByName("weights"), -2.5);
+        addEntry(builder, "counters", 42, 4200L);
+        byte[] profileBytes = builder.build().toByteArray();
+        assertThat(profileParser.parseLong(Input.of(profileBytes),
+            profileParser.compile("biz.test.Profile$counters[42]"), value).getAsLong())
+            .isEqualTo(4200);
+        assertThat(profileParser.parseDouble(Input.of(profileBytes),
+            profileParser.compile("biz.test.Profile$weights[-1]"), value).getAsDouble())
+            .isEqualTo(-2.5);
+        assertThat(profileParser.parseDouble(Input.of(profileBytes),
+            profileParser.compile("biz.test.Profile$weights.sum()"), value).getAsDouble())
+            .isEqualTo(-1.0);
+        assertThatIllegalArgumentException()
+            .isThrownBy(() -> profileParser.parseLong(Input.of(profileBytes),
+            profileParser.compile("biz.test.Profile$weights.sum()"), value))
+            .withMessageContaining("can not be read as a long");
+    }
+
+    @Test(dependsOnMethods = "testSetup")
+    public void testParseTo() throws Exception {
+        DynamicPBParser parser = DynamicPBParser.newBuilder()
+            .syntax("StandardSyntax")
+            .descFilePath("target/test-classes/test.desc")
+            .build();
+        AddressBook addressBook = AddressBook.newBuilder(assembleAddressBook())
+            .addPeople(Person.newBuilder().setName("\u674e\ud83d\ude00\"x").setId(7).setEmail("\u00e9"))
+            .build();
+        byte[] bytes = addressBook.toByteArray();
+        //the same as parse, chars or UTF-8 bytes
+        StringBuilder chars = new StringBuilder();
+        ByteBuffer buffer = ByteBuffer.allocate(4096);
+        for (String path : new String[] {"biz.test.AddressBook$people[*].name", "biz.test.AddressBook$people[0]",
+            "biz.test.AddressBook$people[*].cloth", "biz.test.AddressBook$people[*].id",
+            "biz.test.AddressBook$people[-1].name", "biz.test.AddressBook$people[*].email",
+            "biz.test.AddressBook$people[1].phones[*].type", "biz.test.AddressBook$people[*].phones.count()",
+            "biz.test.AddressBook$people[0].cloth.brand.has()", "biz.test.AddressBook$people[*].scores.sum()",
+            "biz.test.AddressBook$people[0].cloth.brand.brand_name", "$#1[*].#2"}) {
+            String expected = parser.parse(Input.of(bytes), parser.compile(path));
+            chars.setLength(0);
+            assertThat(parser.parseTo(Input.of(bytes), parser.compile(path), chars)).isTrue();
+            assertThat(chars.toString()).isEqualTo(expected);
+            buffer.clear();
+            assertThat(parser.parseTo(Input.of(ByteBuffer.wrap(bytes)), parser.compile(path), buffer)).isTrue();
+            buffer.flip();
+            assertThat(StandardCharsets.UTF_8.decode(buffer).toString()).isEqualTo(expected);
+        }
+        //every length of object bytes, for the padding of base64
+        for (int i = 0; i < 3; i++) {
+            Person person = Person.newBuilder().setName(StringUtils.repeat('a', i)).setId(1).build();
+            AddressBook book = AddressBook.newBuilder().addPeople(person).build();
+            chars.setLength(0);
+            parser.parseTo(Input.of(book.toByteString()), parser.compile("biz.test.AddressBook$people[0]"), chars);
+            assertThat(chars.toString()).isEqualTo(Base64.getEncoder().encodeToString(person.toByteArray()));
+        }
+
+        //appended to what the sink has
+        chars.setLength(0);
+        chars.append("id=");
+        CompiledPath id = parser.compile("biz.test.AddressBook$people[0].id");
+        assertThat(parser.parseTo(Input.of(Base64.getEncoder().encodeToString(bytes)), id, chars)).isTrue();
+        assertThat(chars.toString()).isEqualTo("id=1234");
+        Appendable appendable = new StringBuilder();
+        assertThat(parser.parseTo(Input.of(ByteString.copyFrom(bytes)), id, appendable)).isTrue();
+        assertThat(appendable.toString()).isEqualTo("1234");
+
+        //nothing written if parse returns null
+        chars.setLength(0);
+        buffer.clear();
+        assertThat(parser.parseTo(Input.of(bytes), parser.compile("biz.test.AddressBook$people[5].name"), chars))
+            .isFalse();
+        assertThat(parser.parseTo(Input.of(new byte[0]), id, chars)).isFalse();
+        assertThat(parser.parseTo(Input.of((String)null), id, buffer)).isFalse();
+        assertThat(chars.length()).isEqualTo(0);
+        assertThat(buffer.position()).isEqualTo(0);
+        assertThatThrownBy(() -> parser.parseTo(Input.of(bytes), parser.compile("biz.test.AddressBook$people[*].name"),
+            ByteBuffer.allocate(4)))
+            .isInstanceOf(BufferOverflowException.class);
+    }
+
+    @Test(dependsOnMethods = "testSetup")
+    public void testAllocation() throws Exception {
+        if (!(ManagementFactory.getThreadMXBean() instanceof ThreadMXBean)) {
+            throw new SkipException("allocated bytes of a thread are not measured by this JVM");
+        }
+        ThreadMXBean threads = (ThreadMXBean)ManagementFactory.getThreadMXBean();
+        if (!threads.isThreadAllocatedMemorySupported() || !threads.isThreadAllocatedMemoryEnabled()) {
+            throw new SkipException("allocated bytes of a thread are not measured by this JVM");
+        }
+        DynamicPBParser parser = DynamicPBParser.newBuilder()
+            .syntax("StandardSyntax")
+            .descFilePath("target/test-classes/test.desc")
+            .build();
+        Input input = Input.of(assembleAddressBook().toByteArray());
+        CompiledPath id = parser.compile("biz.test.AddressBook$people[1].id");
+        CompiledPath scores = parser.compile("biz.test.AddressBook$people[0].scores");
+        CompiledPath price = parser.compile("biz.test.AddressBook$people[0].cloth.price");
+        CompiledPath phones = parser.compile("biz.test.AddressBook$people[*].phones");
+        StringBuilder chars = new StringBuilder(64);
+        ByteBuffer buffer = ByteBuffer.allocate(64);
+        ScalarValue value = new ScalarValue();
+        long expected = "5432".length() + "[100,120,150]".length() + "12342".length() + 1 + 1 + 5 + 3 + 12342;
+        //warm up, so the extractor of this thread has grown to the paths, and the calls are compiled
+        for (int i = 0; i < 20000; i++) {
+            assertThat(callEach(parser, input, id, scores, price, phones, chars, buffer, value)).isEqualTo(expected);
+        }
+
+        //the least of several rounds, so the allocation of a JIT event in one of them does not count
+        int calls = 10000;
+        long threadId = Thread.currentThread().getId();
+        long perCall = Long.MAX_VALUE;
+        for (int round = 0; round < 5; round++) {
+            long before = threads.getThreadAllocatedBytes(threadId);
+            long checksum = 0;
+            for (int i = 0; i < calls; i++) {
+                checksum += callEach(parser, input, id, scores, price, phones, chars, buffer, value);
+            }
+            perCall = Math.min(perCall, (threads.getThreadAllocatedBytes(threadId) - before) / (calls * 8L));
+            assertThat(checksum).isEqualTo(expected * calls);
+        }
+        //nothing but the CodedInputStream over the bytes, which protobuf can not reuse,
+        //56 bytes with compressed oops and 72 without; a result boxed or a state rebuilt per call is far more
+        assertThat(perCall).isLessThan(200);
+    }
+
+    /**
+     * call parseTo, has, size and parseLong, without allocating anything in the test itself
+     *
+     * @return sum of the lengths written, the answers and the value parsed
+     */
+    private long callEach(DynamicPBParser parser, Input input, CompiledPath id, CompiledPath scores,
+                          CompiledPath price, CompiledPath phones, StringBuilder chars, ByteBuffer buffer,
+                          ScalarValue value) throws IOException {
+        long checksum = 0;
+        chars.setLength(0);
+        checksum += parser.parseTo(input, id, chars) ? chars.length() : -1;
+        chars.setLength(0);
+        checksum += parser.parseTo(input, scores, chars) ? chars.length() : -1;
+        buffer.clear();
+        checksum += parser.parseTo(input, price, buffer) ? buffer.position() : -1;
+        checksum += parser.has(input, price) ? 1 : 0;
+        checksum += parser.has(input, phones) ? 1 : 0;
+        checksum += parser.size(input, phones);
+        checksum += parser.size(input, scores);
+        checksum += parser.parseLong(input, price, value).orElse(-1);
+        return checksum;
+    }
+
+    @Test(dependsOnMethods = "testSetup")
+    public void testJsonOutput() throws Exception {
+        DynamicPBParser parser = DynamicPBParser.newBuilder()
+            .syntax("StandardSyntax")
+            .descFilePath("target/test-classes/test.desc")
+            .outputFormat(OutputFormat.JSON)
+            .build();
+        String john = "{\"name\":\"John Doe\",\"id\":1234,"
+            + "\"phones\":[{\"number\":\"555-4321\"},{\"number\":\"436346\",\"type\":\"MOBILE\"}],"
+            + "\"cloth\":{\"brand\":{\"brandName\":\"nike\",\"brandType\":\"SPORT\"},\"price\":12342},"
+            + "\"scores\":[100,120,150],\"professions\":[\"PM\",\"PROGRAMMER\"]}";
+        byte[] bytes = assembleAddressBook().toByteArray();
+        assertThat(parser.parse(Input.of(bytes), parser.compile("biz.test.AddressBook$people[0]"))).isEqualTo(john);
+        assertThat(parser.parse(Input.of(bytes), parser.compile("biz.test.AddressBook$people[*].name")))
+            .isEqualTo("[\"John Doe\",\"leon\"]");
+        assertThat(parser.parse(Input.of(bytes), parser.compile("biz.test.AddressBook$people[0].name")))
+            .isEqualTo("\"John Doe\"");
+        assertThat(parser.parse(Input.of(bytes), parser.compile("biz.test.AddressBook$people[*].id")))
+            .isEqualTo("[1234,5432]");
+        assertThat(parser.parse(Input.of(bytes), parser.compile("biz.test.AddressBook$people[0].phones[*].type")))
+            .isEqualTo("[\"HOME\",\"MOBILE\"]");
+        assertThat(parser.parse(Input.of(bytes), parser.compile("biz.test.AddressBook$people[0].email")))
+            .isEqualTo("\"testEmail\"");
+        assertThat(parser.parseMulti(Input.of(bytes),
+            parser.compileMulti("biz.test.AddressBook$people[*].phones.count()",
+            "biz.test.AddressBook$people[0].cloth.brand.has()", "biz.test.AddressBook$people[-1].cloth")))
+            .containsExactly("5", "true", "{\"brand\":{\"brandName\":\"free solo\",\"brandType\":\"CASUAL\"},"
+                + "\"price\":555}");
+        //raw values are known by their wire types only
+        assertThat(parser.parse(Input.of(bytes), parser.compile("$#1[*].#2"))).isEqualTo("[1234,5432]");
+        assertThat(parser.parse(Input.of(bytes), parser.compile("$#1[0].#5.#2"))).isEqualTo("12342");
+        assertThat(parser.parse(Input.of(bytes), parser.compile("$#1[0].#1"))).isEqualTo("\"Sm9obiBEb2U=\"");
+
+        //escaped
+        Person person = Person.newBuilder().setName("a\"b\\c\nd\u0001\u674e").setId(1).build();
+        assertThat(parser.parse(Input.of(person.toByteArray()), parser.compile("biz.test.Person$name")))
+            .isEqualTo("\"a\\\"b\\\\c\\nd\\u0001\u674e\"");
+        assertThat(parser.parse(Input.of(AddressBook.newBuilder().addPeople(person).build().toByteArray()),
+            parser.compile("biz.test.AddressBook$people[*].name"))).isEqualTo("[\"a\\\"b\\\\c\\nd\\u0001\u674e\"]");
+
+        //not canonical: a singular message twice, and a repeated field split, in a nested message
+        Person later = Person.newBuilder().setName("John Doe").setId(1234).addScores(7)
+            .setCloth(Cloth.newBuilder().setPrice(7)).build();
+        ByteString split = assemblePerson().toByteString().concat(later.toByteString());
+        assertThat(parser.parse(Input.of(split), parser.compile("biz.test.Person$cloth")))
+            .isEqualTo("{\"brand\":{\"brandName\":\"nike\",\"brandType\":\"SPORT\"},\"price\":7}");
+        ByteString.Output out = ByteString.newOutput();
+        CodedOutputStream output = CodedOutputStream.newInstance(out);
+        output.writeBytes(1, split);
+        output.flush();
+        Child child = Child.newBuilder().setSchool("Tsinghua")
+            .setAddressBook(AddressBook.parseFrom(out.toByteString())).build();
+        ByteString childBytes = Child.newBuilder().setSchool("Tsinghua").build().toByteString()
+            .concat(ByteString.copyFrom(new byte[] {0x1A, (byte)out.size()})).concat(out.toByteString());
+        assertThat(parser.parse(Input.of(childBytes), parser.compile("biz.test.Child$address_book")))
+            .isEqualTo(parser.parse(Input.of(child.toByteArray()), parser.compile("biz.test.Child$address_book")))
+            .contains("\"scores\":[100,120,150,7]", "\"price\":7}");
+
+        //map fields are objects, float and double
+        FileDescriptor file = assembleMapFile();
+        File desc = File.createTempFile("json", ".desc");
+        desc.deleteOnExit();
+        FileUtils.writeByteArrayToFile(desc,
+            FileDescriptorSet.newBuilder().addFile(file.toProto()).build().toByteArray());
+        DynamicPBParser profileParser = DynamicPBParser.newBuilder()
+            .syntax("StandardSyntax")
+            .descFilePath(desc.getPath())
+            .outputFormat(OutputFormat.JSON)
+            .build();
+        Descriptor profile = file.findMessageTypeByName("Profile");
+        Descriptor item = file.findMessageTypeByName("Item");
+        DynamicMessage.Builder builder = DynamicMessage.newBuilder(profile);
+        addEntry(builder, "attributes", "region", "cn\tnorth");
+        addEntry(builder, "attributes", "owner", "jared");
+        addEntry(builder, "counters", 42, 4200L);
+        addEntry(builder, "counters", -5, -500L);
+        addEntry(builder, "items", "apple", DynamicMessage.newBuilder(item)
+            .setField(item.findFieldByName("price"), 3).build());
+        addEntry(builder, "items", "pear", DynamicMessage.getDefaultInstance(item));
+        builder.addRepeatedField(profile.findFieldByName("weights"), 1.5)
+            .addRepeatedField(profile.findFieldByName("weights"), Double.NaN);
+        byte[] profileBytes = builder.build().toByteArray();
+        assertThat(profileParser.parseMulti(Input.of(profileBytes),
+            profileParser.compileMulti("biz.test.Profile$attributes", "biz.test.Profile$counters",
+            "biz.test.Profile$items", "biz.test.Profile$weights", "biz.test.Profile$items[\"apple\"]",
+            "biz.test.Profile$counters[*].key")))
+            .containsExactly("{\"region\":\"cn\\tnorth\",\"owner\":\"jared\"}", "{\"42\":4200,\"-5\":-500}",
+                "{\"apple\":{\"price\":3},\"pear\":{}}", "[1.5,\"NaN\"]", "{\"price\":3}", "[42,-5]");
+        //entries written unlike a serializer: an unknown field, the value before the key, the key more than once,
+        //and a key of a wrong wire type, which is unknown too, so the key takes its default value
+        ByteString.Output entries = ByteString.newOutput();
+        CodedOutputStream entriesOut = CodedOutputStream.newInstance(entries);
+        ByteString.Output entry = ByteString.newOutput();
+        CodedOutputStream entryOut = CodedOutputStream.newInstance(entry);
+        entryOut.writeString(1, "a");
+        entryOut.writeUInt32(3, 7);
+        entryOut.writeString(2, "x");
+        entryOut.flush();
+        entriesOut.writeBytes(1, entry.toByteString());
+        entry.reset();
+        entryOut.writeString(2, "y");
+        entryOut.writeString(1, "b");
+        entryOut.flush();
+        entriesOut.writeBytes(1, entry.toByteString());
+        entry.reset();
+        entryOut.writeString(1, "c");
+        entryOut.writeString(1, "d");
+        entryOut.writeString(2, "z");
+        entryOut.flush();
+        entriesOut.writeBytes(1, entry.toByteString());
+        entry.reset();
+        entryOut.writeString(1, "zz");
+        entryOut.writeInt64(2, 5);
+        entryOut.flush();
+        entriesOut.writeBytes(2, entry.toByteString());
+        entriesOut.flush();
+        byte[] entriesBytes = entries.toByteString().toByteArray();
+        assertThat(profileParser.parseMulti(Input.of(entriesBytes),
+            profileParser.compileMulti("biz.test.Profile$attributes", "biz.test.Profile$counters")))
+            .containsExactly("{\"a\":\"x\",\"b\":\"y\",\"d\":\"z\"}", "{\"0\":5}");
+
+        //written into a sink, the same as parse
+        CompiledPath first = parser.compile("biz.test.AddressBook$people[0]");
+        StringBuilder chars = new StringBuilder("people:");
+        assertThat(parser.parseTo(Input.of(bytes), first, chars)).isTrue();
+        assertThat(chars.toString()).isEqualTo("people:" + john);
+        ByteBuffer buffer = ByteBuffer.allocate(1024);
+        assertThat(parser.parseTo(Input.of(Base64.getEncoder().encodeToString(bytes)), first, buffer)).isTrue();
+        buffer.flip();
+        assertThat(StandardCharsets.UTF_8.decode(buffer).toString()).isEqualTo(john);
+
+        //broken object
+        byte[] broken = ByteString.copyFrom(new byte[] {0x0A, 0x02, 0x0A, 0x05}).toByteArray();
+        assertThat(parser.parse(Input.of(broken), parser.compile("biz.test.AddressBook$people[0]"))).isNull();
+        assertThat(parser.parseTo(Input.of(broken), first, chars)).isFalse();
+        //the other parsers are not affected
+        DynamicPBParser plainParser = DynamicPBParser.newBuilder()
+            .syntax("StandardSyntax")
+            .descFilePath("target/test-classes/test.desc")
+            .build();
+        assertThat(plainParser.parse(Input.of(bytes), plainParser.compile("biz.test.AddressBook$people[*].name")))
+            .isEqualTo("[\"John Doe\",\"leon\"]");
+        assertThat(plainParser.parse(Input.of(bytes), plainParser.compile("biz.test.AddressBook$people[0].name")))
+            .isEqualTo("John Doe");
+    }
+
+
+
+
     private AddressBook assembleAddressBook() {
         return AddressBook.newBuilder()
                 .addPeople(assemblePerson())
@@ -294,6 +1945,77 @@ public class TestDescTest {
                 .build();
     }
 
+    /**
+     * proto3 file with map fields, built by hand since it is not in test.desc
+     * message Profile { map<string, string> attributes = 1; map<int32, int64> counters = 2;
+     * map<string, Item> items = 3; repeated double weights = 4; repeated Item history = 5; }
+     * message Item { int32 price = 1; float ratio = 2; }
+     */
+    private FileDescriptor assembleMapFile() throws Exception {
+        DescriptorProto item = DescriptorProto.newBuilder()
+            .setName("Item")
+            .addField(field("price", 1, FieldDescriptorProto.Type.TYPE_INT32, null, false))
+            .addField(field("ratio", 2, FieldDescriptorProto.Type.TYPE_FLOAT, null, false))
+            .build();
+        DescriptorProto profile = DescriptorProto.newBuilder()
+            .setName("Profile")
+            .addNestedType(mapEntry("AttributesEntry", FieldDescriptorProto.Type.TYPE_STRING,
+                FieldDescriptorProto.Type.TYPE_STRING, null))
+            .addNestedType(mapEntry("CountersEntry", FieldDescriptorProto.Type.TYPE_INT32,
+                FieldDescriptorProto.Type.TYPE_INT64, null))
+            .addNestedType(mapEntry("ItemsEntry", FieldDescriptorProto.Type.TYPE_STRING,
+                FieldDescriptorProto.Type.TYPE_MESSAGE, ".biz.test.Item"))
+            .addField(field("attributes", 1, FieldDescriptorProto.Type.TYPE_MESSAGE,
+                ".biz.test.Profile.AttributesEntry", true))
+            .addField(field("counters", 2, FieldDescriptorProto.Type.TYPE_MESSAGE,
+                ".biz.test.Profile.CountersEntry", true))
+            .addField(field("items", 3, FieldDescriptorProto.Type.TYPE_MESSAGE,
+                ".biz.test.Profile.ItemsEntry", true))
+            .addField(field("weights", 4, FieldDescriptorProto.Type.TYPE_DOUBLE, null, true))
+            .addField(field("history", 5, FieldDescriptorProto.Type.TYPE_MESSAGE, ".biz.test.Item", true))
+            .build();
+        FileDescriptorProto fileProto = FileDescriptorProto.newBuilder()
+            .setName("map.proto")
+            .setPackage("biz.test")
+            .setSyntax("proto3")
+            .addMessageType(profile)
+            .addMessageType(item)
+            .build();
+        return FileDescriptor.buildFrom(fileProto, new FileDescriptor[0]);
+    }
+
+    private DescriptorProto mapEntry(String name, FieldDescriptorProto.Type keyType,
+                                     FieldDescriptorProto.Type valueType, String valueTypeName) {
+        return DescriptorProto.newBuilder()
+            .setName(name)
+            .addField(field("key", 1, keyType, null, false))
+            .addField(field("value", 2, valueType, valueTypeName, false))
+            .setOptions(MessageOptions.newBuilder().setMapEntry(true))
+            .build();
+    }
+
+    private FieldDescriptorProto field(String name, int number, FieldDescriptorProto.Type type, String typeName,
+                                       boolean repeated) {
+        FieldDescriptorProto.Builder field = FieldDescriptorProto.newBuilder()
+            .setName(name)
+            .setNumber(number)
+            .setType(type)
+            .setLabel(repeated ? FieldDescriptorProto.Label.LABEL_REPEATED : FieldDescriptorProto.Label.LABEL_OPTIONAL);
+        if (typeName != null) {
+            field.setTypeName(typeName);
+        }
+        return field.build();
+    }
+
+    private void addEntry(DynamicMessage.Builder builder, String fieldName, Object key, Object value) {
+        FieldDescriptor field = builder.getDescriptorForType().findFieldByName(fieldName);
+        Descriptor entry = field.getMessageType();
+        builder.addRepeatedField(field, DynamicMessage.newBuilder(entry)
+            .setField(entry.findFieldByNumber(1), key)
+            .setField(entry.findFieldByNumber(2), value)
+            .build());
+    }
+
     @Test
     public void testSetup() throws IOException {
         //nothing
@@ -0,0 +1,59 @@
+package me.lihongyu.utils.parser.syntax;
+
+import org.apache.commons.lang3.StringUtils;
+
+/**
+ * a syntax plugged in through the provider SPI, e.g. biz.test.Person/phones[1]/number
+ *
+ * @author jared
+ * @date 2026/10/17
+ */
+public class SlashSyntax extends Syntax {
+
+    @Override
+    public boolean check(String fullPathStr) {
+        return fullPathStr.indexOf('/') > 0 && !fullPathStr.endsWith("/");
+    }
+
+    @Override
+    public String getClassFullName(String fullPathStr) {
+        return StringUtils.substringBefore(fullPathStr, "/");
+    }
+
+    @Override
+    public String getFieldPathStr(String fullPathStr) {
+        return StringUtils.substringAfter(fullPathStr, "/");
+    }
+
+    @Override
+    public String getWildcard() {
+        return "*";
+    }
+
+    @Override
+    public String getFieldName(String fieldPath) {
+        return StringUtils.substringBefore(fieldPath, "[");
+    }
+
+    @Override
+    public String getFieldIndex(String fieldPath) {
+        return StringUtils.substringBetween(fieldPath, "[", "]");
+    }
+
+    @Override
+    public String[] getFieldPathArr(String fieldPathStr) {
+        return StringUtils.split(fieldPathStr, '/');
+    }
+
+    public static class Provider implements SyntaxProvider {
+        @Override
+        public String getName() {
+            return "SlashSyntax";
+        }
+
+        @Override
+        public Syntax create(long maximumCacheSize) {
+            return new SlashSyntax();
+        }
+    }
+}